@@ -15,7 +15,12 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
-import simpledb.storage.IntField;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HotBackup;
+import simpledb.storage.Field;
+import simpledb.storage.LogReplica;
+import simpledb.storage.LogShipper;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -316,6 +321,17 @@ public class Parser {
         return query;
     }
 
+    // the field of a type that a literal in a statement stands for
+    private static Field parseValue(Type type, String value)
+            throws simpledb.ParsingException {
+        try {
+            return type.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException("Value " + value
+                    + " is not a " + type + ".");
+        }
+    }
+
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -333,6 +349,11 @@ public class Parser {
         }
 
         TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        // slotted tables keep strings of any length (long ones on overflow
+        // pages); fixed-size pages truncate them
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        boolean longStrings = file instanceof HeapFile
+                && ((HeapFile) file).getPageFormat() == HeapFile.PageFormat.SLOTTED;
 
         Tuple t = new Tuple(td);
         int i = 0;
@@ -352,26 +373,31 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type type = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (!type.isNumeric()) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a " + type + ".");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
+                    t.setField(i, parseValue(type, zc.getValue()));
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (type == Type.STRING_TYPE) {
+                        int maxSize = longStrings
+                                ? Math.max(Type.STRING_LEN, zc.getValue().length())
+                                : Type.STRING_LEN;
+                        t.setField(i, new StringField(zc.getValue(), maxSize));
+                    } else if (type == Type.TIMESTAMP_TYPE) {
+                        // dates and timestamps are written as strings
+                        t.setField(i, parseValue(type, zc.getValue()));
+                    } else {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a " + type + ".");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or number values are supported.");
                 }
 
                 i++;
@@ -501,7 +527,9 @@ public class Parser {
             Query query = null;
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
-            else {
+            else if (replica != null && !(s instanceof ZQuery)) {
+                System.out.println("This is a read-only replica; run updates on the primary");
+            } else {
                 if (!this.inUserTrans) {
                     curtrans = new Transaction();
                     curtrans.start();
@@ -532,6 +560,10 @@ public class Parser {
                         System.out.println("Transaction "
                                 + curtrans.getId().getId() + " committed.");
                     }
+                    if (replica != null) {
+                        System.out.println("Replica lag: " + replica.getLagMillis() + " ms, "
+                                + replica.getLagBytes() + " bytes of log");
+                    }
                 } catch (Throwable a) {
                     // Whenever error happens, abort the current transaction
                     if (curtrans != null) {
@@ -571,7 +603,7 @@ public class Parser {
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 7) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,19 +613,35 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]"
+            + " [-ship port backupDir | -replica host:port backupDir]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        try {
+            if (replica != null)
+                replica.close();
+            if (shipper != null)
+                shipper.close();
+            if (backup != null)
+                backup.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         System.out.println("Bye");
     }
 
     protected boolean interactive = true;
 
+    // a primary: the backup replicas are seeded from, and the log shipper
+    private HotBackup backup;
+    private LogShipper shipper;
+    // a replica: read-only, following a primary
+    private LogReplica replica;
+
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
 
@@ -611,12 +659,36 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-ship") || argv[i].equals("-replica")) {
+                    if (i + 2 >= argv.length) {
+                        System.out.println("Expected two arguments after " + argv[i] + "\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    File backupDir = new File(argv[i + 2]);
+                    if (argv[i].equals("-ship")) {
+                        // replicas are seeded from this backup, which
+                        // keeps the log they need from it on
+                        backup = HotBackup.start(backupDir);
+                        shipper = new LogShipper(Database.getLogFile(), Integer.parseInt(argv[i + 1]));
+                        System.out.println("Shipping the log on port " + shipper.getPort()
+                                + "; replicas seed from " + backupDir);
+                    } else {
+                        String[] hostPort = argv[i + 1].split(":");
+                        replica = LogReplica.start(backupDir, new File("wal"),
+                                LogReplica.mapTablesByName(backupDir), hostPort[0], Integer.parseInt(hostPort[1]));
+                        System.out.println("Read-only replica of " + argv[i + 1]);
+                    }
+                    i += 2;
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+        // after a replica has seeded its tables
+        TableStats.computeStatistics();
+
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
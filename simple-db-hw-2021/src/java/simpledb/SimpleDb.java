@@ -37,10 +37,9 @@ public class SimpleDb {
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int"))
-                                ts[index++] = Type.INT_TYPE;
-                            else if (s.equalsIgnoreCase("string"))
-                                ts[index++] = Type.STRING_TYPE;
+                            Type type = Type.forName(s);
+                            if (type != null)
+                                ts[index++] = type;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -57,6 +56,34 @@ public class SimpleDb {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "load":
+                // load <text file> <table file> <types> [separator] [append]
+                try {
+                    if (args.length < 4 || args.length > 6) {
+                        System.err.println("Unexpected number of arguments to load ");
+                        return;
+                    }
+                    String[] typeNames = args[3].split(",");
+                    Type[] types = new Type[typeNames.length];
+                    for (int i = 0; i < types.length; i++) {
+                        types[i] = Type.forName(typeNames[i]);
+                        if (types[i] == null) {
+                            System.err.println("Unknown type " + typeNames[i]);
+                            return;
+                        }
+                    }
+                    char separator = args.length > 4 ? args[4].charAt(0) : ',';
+                    boolean append = args.length > 5 && args[5].equals("append");
+                    HeapFile target = new HeapFile(new File(args[2]), new TupleDesc(types));
+                    BulkLoader loader = BulkLoader.offline(target, separator, Runtime.getRuntime().availableProcessors());
+                    long start = System.currentTimeMillis();
+                    long rows = loader.load(new File(args[1]), append);
+                    System.out.println("Loaded " + rows + " rows into " + args[2] + " in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "print":
                 File tableFile = new File(args[1]);
                 int columns = Integer.parseInt(args[2]);
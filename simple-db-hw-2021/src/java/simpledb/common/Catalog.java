@@ -1,6 +1,8 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.CompressedColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -151,6 +153,18 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as
+     * <pre>
+     *   name (field type [pk], field type, ...) [mapped] [slotted] [columnar] [compressed]
+     * </pre>
+     * where <tt>mapped</tt> reads the table through memory mappings (see
+     * {@link simpledb.storage.MappedPageFile}), <tt>slotted</tt> stores
+     * it in variable-length records (see
+     * {@link simpledb.storage.SlottedHeapPage}) and <tt>columnar</tt>
+     * stores each column in a file of its own (see
+     * {@link simpledb.storage.ColumnFile}); <tt>compressed</tt> does too,
+     * encoding the values of each page (see
+     * {@link simpledb.storage.CompressedColumnFile}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -171,10 +185,9 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().equalsIgnoreCase("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().equalsIgnoreCase("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1]);
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -188,10 +201,32 @@ public class Catalog {
                         }
                     }
                 }
+                // table options follow the field list
+                boolean mapped = false;
+                boolean columnar = false;
+                boolean compressed = false;
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("mapped"))
+                        mapped = true;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        format = HeapFile.PageFormat.SLOTTED;
+                    else if (option.equalsIgnoreCase("columnar"))
+                        columnar = true;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = compressed ? new CompressedColumnFile(tableFile, t)
+                        : columnar ? new ColumnFile(tableFile, t)
+                        : new HeapFile(tableFile, t, mapped, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,11 +1,15 @@
 package simpledb.common;
 
+import simpledb.storage.DoubleField;
+import simpledb.storage.LongField;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.TimestampField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +32,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
+        @Override
+        public Field parse(String text) {
+            return new IntField(Integer.parseInt(text.trim()));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +60,99 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = Math.max(0, Math.min(STRING_LEN, data.getInt(offset)));
+            if (data.hasArray()) {
+                return new StringField(new String(data.array(), data.arrayOffset() + offset + 4, strLen), STRING_LEN);
+            }
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = data.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(String text) {
+            return new StringField(text, STRING_LEN);
+        }
+
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new LongField(data.getLong(offset));
+        }
+
+        @Override
+        public Field parse(String text) {
+            return new LongField(Long.parseLong(text.trim()));
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new DoubleField(data.getDouble(offset));
+        }
+
+        @Override
+        public Field parse(String text) {
+            return new DoubleField(Double.parseDouble(text.trim()));
+        }
+
+    }, TIMESTAMP_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new TimestampField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new TimestampField(data.getLong(offset));
+        }
+
+        @Override
+        public Field parse(String text) {
+            return TimestampField.parse(text.trim());
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +171,58 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded from
+   *   the bytes at offset, in the format {@link Field#serialize} writes.
+   * @param data holds at least {@link #getLen} bytes from offset on
+   */
+    public Field parse(byte[] data, int offset) {
+        return parse(ByteBuffer.wrap(data), offset);
+    }
+
+  /**
+   * @return a Field object of the same type as this object, decoded from
+   *   the bytes at offset (from the start of data, whatever its position),
+   *   in the format {@link Field#serialize} writes.
+   * @param data holds at least {@link #getLen} bytes from offset on
+   */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+  /**
+   * @return a Field object of the same type as this object holding the
+   *   value written in text, as in a data file or a query.
+   * @throws IllegalArgumentException if text is not a value of this type
+   */
+    public abstract Field parse(String text);
+
+  /**
+   * @return the type a schema names with name (int, long, double,
+   *   timestamp or date, string), or null if there is none.
+   */
+    public static Type forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "int":
+                return INT_TYPE;
+            case "long":
+                return LONG_TYPE;
+            case "double":
+                return DOUBLE_TYPE;
+            case "timestamp":
+            case "date":
+                return TIMESTAMP_TYPE;
+            case "string":
+                return STRING_TYPE;
+            default:
+                return null;
+        }
+    }
+
+  /**
+   * @return whether fields of this type hold numbers, which can be summed
+   *   and averaged.
+   */
+    public boolean isNumeric() {
+        return this == INT_TYPE || this == LONG_TYPE || this == DOUBLE_TYPE;
+    }
+
 }
@@ -63,6 +63,12 @@ public class Aggregate extends Operator {
                 this.aggregator = new StringAggregator(gfield, gType, afield, aop);
                 break;
             }
+            case LONG_TYPE :
+            case DOUBLE_TYPE :
+            case TIMESTAMP_TYPE : {
+                this.aggregator = new NumericAggregator(gfield, gType, afield, aType, aop);
+                break;
+            }
             default: {
                 this.aggregator = new StringAggregator(gfield, Type.INT_TYPE, afield, aop);
             }
@@ -113,6 +119,18 @@ public class Aggregate extends Operator {
         return this.aop;
     }
 
+    /**
+     * @return the type of the values aop computes over a field of type
+     * aType: counts and aggregates of ints and strings are ints, and the
+     * other aggregates keep the type of their field
+     */
+    public static Type resultType(Type aType, Aggregator.Op aop) {
+        if (aop == Aggregator.Op.COUNT || aType == Type.INT_TYPE || aType == Type.STRING_TYPE) {
+            return Type.INT_TYPE;
+        }
+        return aType;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -0,0 +1,157 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.util.*;
+import java.util.function.BinaryOperator;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields
+ * or TimestampFields.  Minimums, maximums, sums and averages have the type of
+ * the aggregate field (an average of longs is truncated like one of ints);
+ * counts are ints.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    // the group of every tuple when there is no grouping
+    private static final Field NO_GROUP = new IntField(-1);
+
+    private final int gbfield;
+    private final int afield;
+    private final Type aFieldType;
+    private final Op op;
+    private final TupleDesc td;
+    private final Map<Field, Field> res = new LinkedHashMap<>();
+    private final Map<Field, Integer> counts = new HashMap<>();
+    private final Map<Field, Field> sums = new HashMap<>();
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or
+     *            TIMESTAMP_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if what is not MIN, MAX, SUM, AVG or
+     *            COUNT, or is SUM over timestamps
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        this.gbfield = gbfield;
+        this.afield = afield;
+        this.aFieldType = afieldtype;
+        this.op = what;
+        switch (op) {
+            case MIN:
+            case MAX:
+            case AVG:
+            case COUNT:
+                break;
+            case SUM:
+                if (afieldtype == Type.TIMESTAMP_TYPE) {
+                    throw new IllegalArgumentException("cannot sum timestamps");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + what);
+        }
+        Type resType = op == Op.COUNT ? Type.INT_TYPE : afieldtype;
+        if (gbfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[] {resType});
+        } else {
+            this.td = new TupleDesc(new Type[] {gbfieldtype, resType});
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field groupBy = gbfield == NO_GROUPING ? NO_GROUP : tup.getField(gbfield);
+        Field value = tup.getField(afield);
+        switch (op) {
+            case MIN:
+                res.merge(groupBy, value, (a, b) -> b.compare(Predicate.Op.LESS_THAN, a) ? b : a);
+                break;
+            case MAX:
+                res.merge(groupBy, value, (a, b) -> b.compare(Predicate.Op.GREATER_THAN, a) ? b : a);
+                break;
+            case SUM:
+                res.merge(groupBy, value, adder());
+                break;
+            case AVG: {
+                Field sum = sums.merge(groupBy, value, adder());
+                int count = counts.merge(groupBy, 1, Integer::sum);
+                res.put(groupBy, divide(sum, count));
+                break;
+            }
+            case COUNT:
+                res.put(groupBy, new IntField(counts.merge(groupBy, 1, Integer::sum)));
+                break;
+        }
+    }
+
+    private BinaryOperator<Field> adder() {
+        switch (aFieldType) {
+            case DOUBLE_TYPE:
+                return (a, b) -> new DoubleField(((DoubleField) a).getValue() + ((DoubleField) b).getValue());
+            case TIMESTAMP_TYPE:
+                return (a, b) -> new TimestampField(((TimestampField) a).getValue() + ((TimestampField) b).getValue());
+            default:
+                return (a, b) -> new LongField(((LongField) a).getValue() + ((LongField) b).getValue());
+        }
+    }
+
+    private Field divide(Field sum, int count) {
+        switch (aFieldType) {
+            case DOUBLE_TYPE:
+                return new DoubleField(((DoubleField) sum).getValue() / count);
+            case TIMESTAMP_TYPE:
+                return new TimestampField(((TimestampField) sum).getValue() / count);
+            default:
+                return new LongField(((LongField) sum).getValue() / count);
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        List<Tuple> resTuples = new ArrayList<>();
+        for (Map.Entry<Field, Field> entry : res.entrySet()) {
+            Tuple tp = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                tp.setField(0, entry.getValue());
+            } else {
+                tp.setField(0, entry.getKey());
+                tp.setField(1, entry.getValue());
+            }
+            resTuples.add(tp);
+        }
+        return new TupleIterator(td, resTuples);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+}
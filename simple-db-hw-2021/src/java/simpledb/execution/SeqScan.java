@@ -23,6 +23,8 @@ public class SeqScan implements OpIterator {
     private DbFile dbFile;
     private DbFileIterator dbFileIterator;
     private TupleDesc td;
+    private int[] columns; // the fields read, or null for all
+    private final List<Predicate> predicates = new ArrayList<>();
 
 
     /**
@@ -86,8 +88,29 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tell the scan which fields of its tuples will be used.  Tables stored
+     * by column (see {@link ColumnFile}) then read only those columns; the
+     * other fields are still there, but read when first asked for.
+     *
+     * @param columns the indexes of the fields used, or null for all
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Have the scan return only the tuples that satisfy a predicate, as a
+     * {@link Filter} above it would.  Tables stored by column (see {@link
+     * ColumnFile}) test it a page at a time, before building tuples.
+     */
+    public void addPredicate(Predicate p) {
+        this.predicates.add(p);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-        this.dbFileIterator = dbFile.iterator(this.tid);
+        this.dbFileIterator = predicates.isEmpty() ? dbFile.iterator(this.tid, this.columns)
+                : dbFile.iterator(this.tid, this.columns, this.predicates);
         this.dbFileIterator.open();
     }
 
@@ -6,6 +6,7 @@ import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -52,7 +53,7 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = getPageData();
 	}
 
 	/**
@@ -82,37 +83,20 @@ public class BTreeRootPtrPage implements Page {
 	 * @return A byte array corresponding to the bytes of this root pointer page.
 	 */
 	public byte[] getPageData(){
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(PAGE_SIZE);
-		DataOutputStream dos = new DataOutputStream(baos);
+		byte[] out = new byte[PAGE_SIZE];
+		writePageData(ByteBuffer.wrap(out));
+		return out;
+	}
 
+	public void writePageData(ByteBuffer buf) {
 		// write out the root pointer (page number of the root page)
-		try{
-			dos.writeInt(root);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
+		buf.putInt(root);
 
 		// write out the category of the root page (leaf or internal)
-		try{
-			dos.writeByte((byte) rootCategory);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
+		buf.put((byte) rootCategory);
 
 		// write out the header pointer (page number of the first header page)
-		try{
-			dos.writeInt(header);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		}catch(IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		buf.putInt(header);
 	}
 
 	/**
@@ -0,0 +1,129 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A class to represent a fixed-width histogram over a single long, double or
+ * timestamp field.  Values are histogrammed as doubles, which is exact
+ * enough for estimates even where longs lose their low bits.
+ * <p>
+ * Unlike {@link IntHistogram}, values are taken to be spread evenly over
+ * each bucket's range rather than over the integers in it, and equality is
+ * estimated from the number of distinct values seen.
+ */
+public class DoubleHistogram {
+    private final int buckets;
+    private final double min;
+    private final double max;
+    private final double width;
+    private final int[] heights;
+    private int tupleCount;
+    private final Set<Double> uniqueValues = new HashSet<>();
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.buckets = buckets;
+        this.min = min;
+        this.max = max;
+        this.width = (max - min) / buckets;
+        this.heights = new int[buckets];
+    }
+
+    private int getIndex(double v) {
+        if (width <= 0) {
+            return 0;
+        }
+        return (int) Math.min(buckets - 1, Math.max(0, (v - min) / width));
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        heights[getIndex(v)] += 1;
+        tupleCount += 1;
+        uniqueValues.add(v);
+    }
+
+    private double estimateEqual(double v) {
+        if (tupleCount == 0 || v < min || v > max) {
+            return 0;
+        }
+        return 1.0 / Math.max(1, uniqueValues.size());
+    }
+
+    // the fraction of values less than v
+    private double estimateLess(double v) {
+        if (tupleCount == 0 || v <= min) {
+            return 0;
+        }
+        if (v > max) {
+            return 1;
+        }
+        int index = getIndex(v);
+        double left = min + index * width;
+        double part = width <= 0 ? 0 : heights[index] * ((v - left) / width);
+        double less = 0;
+        for (int i = 0; i < index; i++) {
+            less += heights[i];
+        }
+        return (less + part) / tupleCount;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return estimateEqual(v);
+            case NOT_EQUALS:
+                return 1 - estimateEqual(v);
+            case LESS_THAN:
+                return estimateLess(v);
+            case LESS_THAN_OR_EQ:
+                return Math.min(1, estimateLess(v) + estimateEqual(v));
+            case GREATER_THAN:
+                return Math.max(0, 1 - estimateLess(v) - estimateEqual(v));
+            case GREATER_THAN_OR_EQ:
+                return 1 - estimateLess(v);
+            default:
+                throw new IllegalArgumentException("wrong op");
+        }
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     */
+    public double avgSelectivity() {
+        return 1.0 / Math.max(1, uniqueValues.size());
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("The buckets are ");
+        for (int h : heights) {
+            sb.append(h).append(' ');
+        }
+        sb.append('\n');
+        sb.append("max: " + max + " min: " + min + " width: " + width + '\n');
+        return sb.toString();
+    }
+}
@@ -20,6 +20,8 @@ import javax.xml.crypto.Data;
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    // the fields each table's scan reads, by alias; null for all of them
+    private final Map<String, int[]> scanColumns = new HashMap<>();
 
     /**
      * Constructor
@@ -34,6 +36,22 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Estimate the cost of scanning the table aliased alias, reading only
+     * the fields the plan refers to, as its SeqScan will.
+     *
+     * @see TableStats#estimateScanCost(int[])
+     */
+    private double scanCost(Map<String, TableStats> stats, String tableName, String alias) {
+        int[] columns = scanColumns.get(alias);
+        if (columns == null && !scanColumns.containsKey(alias)) {
+            columns = p.referencedColumns(alias,
+                    Database.getCatalog().getTupleDesc(p.getTableId(alias)));
+            scanColumns.put(alias, columns);
+        }
+        return stats.get(tableName).estimateScanCost(columns);
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -407,13 +425,12 @@ public class JoinOptimizer {
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = scanCost(stats, table1Name, j.t1Alias);
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0 : scanCost(stats, table2Name, table2Alias);
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -440,8 +457,7 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0 : scanCost(stats, table2Name, j.t2Alias);
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -455,7 +471,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
+                t1cost = scanCost(stats, table1Name, j.t1Alias);
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -595,7 +611,7 @@ public class JoinOptimizer {
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
+                        + scanCost(stats, table1Name, j.t1Alias)
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
                                 selectivities.get(j.t1Alias)) + ")");
@@ -614,8 +630,7 @@ public class JoinOptimizer {
                         j.t2Alias == null ? "Subplan"
                                 : (j.t2Alias
                                         + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
+                                        + scanCost(stats, table2Name, j.t2Alias)
                                         + ", card = "
                                         + stats.get(table2Name)
                                                 .estimateTableCardinality(
@@ -261,6 +261,36 @@ public class LogicalPlan {
 
     }
 
+    /** The fields of the table aliased alias that the query refers to, so
+     *  that scans of tables stored by column read only those.
+     *  @return their indexes in td, or null if the query uses them all
+     */
+    int[] referencedColumns(String alias, TupleDesc td) {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+        if (names.contains("null.*") || names.contains(alias + ".*") || names.contains("*"))
+            return null;
+        List<Integer> used = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i)))
+                used.add(i);
+        }
+        int[] columns = new int[used.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = used.get(i);
+        return columns;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -302,6 +332,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
+            ss.setColumns(referencedColumns(table.alias,
+                    Database.getCatalog().getTupleDesc(table.t)));
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
@@ -324,10 +356,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException("Bad " + ftyp + " constant " + lf.c + " in filter expression");
+            }
 
             Predicate p = null;
             try {
@@ -335,7 +368,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan
+                    && Database.getCatalog().getDatabaseFile(getTableId(lf.tableAlias)) instanceof ColumnFile) {
+                // tables stored by column test filters on their pages
+                ((SeqScan) subplan).addPredicate(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -415,14 +454,13 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(Aggregate.resultType(td.getFieldType(id), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
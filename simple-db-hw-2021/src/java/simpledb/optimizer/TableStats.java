@@ -31,6 +31,7 @@ public class TableStats {
     private TupleDesc td;
     private Map<Integer, IntHistogram> intHistogramMap;
     private Map<Integer, StringHistogram> stringHistogramMap;
+    private Map<Integer, DoubleHistogram> doubleHistogramMap;
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -96,7 +97,7 @@ public class TableStats {
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
         this.file =  Database.getCatalog().getDatabaseFile(tableid);
-        this.numPages = ((HeapFile) file).numPages();
+        this.numPages = numPages(file);
         this.td = file.getTupleDesc();
 
         int intFieldNum = 0;
@@ -110,10 +111,16 @@ public class TableStats {
         }
         this.intHistogramMap = new HashMap<>(intFieldNum);
         this.stringHistogramMap = new HashMap<>(stringFieldNum);
+        this.doubleHistogramMap = new HashMap<>();
         int[] minFieldValue = new int[this.td.numFields()];
         int[] maxFieldValue = new int[this.td.numFields()];
         Arrays.fill(minFieldValue, Integer.MAX_VALUE);
         Arrays.fill(maxFieldValue, Integer.MIN_VALUE);
+        // longs, doubles and timestamps
+        double[] minDoubleValue = new double[this.td.numFields()];
+        double[] maxDoubleValue = new double[this.td.numFields()];
+        Arrays.fill(minDoubleValue, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxDoubleValue, Double.NEGATIVE_INFINITY);
 
         TransactionId tid = new TransactionId();
         SeqScan ss1 = new SeqScan(tid, tableid);
@@ -129,6 +136,10 @@ public class TableStats {
                         int value = ((IntField)tup.getField(i)).getValue();
                         minFieldValue[i] = Math.min(minFieldValue[i], value);
                         maxFieldValue[i] = Math.max(maxFieldValue[i], value);
+                    } else if (td.getFieldType(i) != Type.STRING_TYPE) {
+                        double value = toDouble(tup.getField(i));
+                        minDoubleValue[i] = Math.min(minDoubleValue[i], value);
+                        maxDoubleValue[i] = Math.max(maxDoubleValue[i], value);
                     }
                 }
             }
@@ -140,6 +151,8 @@ public class TableStats {
         for (int i = 0; i < this.td.numFields(); i += 1) {
             if (td.getFieldType(i) == Type.INT_TYPE) {
                 this.intHistogramMap.put(i, new IntHistogram(NUM_HIST_BINS, minFieldValue[i], maxFieldValue[i]));
+            } else if (td.getFieldType(i) != Type.STRING_TYPE) {
+                this.doubleHistogramMap.put(i, new DoubleHistogram(NUM_HIST_BINS, minDoubleValue[i], maxDoubleValue[i]));
             } else {
                 this.stringHistogramMap.put(i, new StringHistogram(NUM_HIST_BINS));
             }
@@ -153,6 +166,8 @@ public class TableStats {
                     if (td.getFieldType(i) == Type.INT_TYPE) {
                         int value = ((IntField) tup.getField(i)).getValue();
                         this.intHistogramMap.get(i).addValue(value);
+                    } else if (td.getFieldType(i) != Type.STRING_TYPE) {
+                        this.doubleHistogramMap.get(i).addValue(toDouble(tup.getField(i)));
                     } else {
                         String s = ((StringField)tup.getField(i)).getValue();
                         this.stringHistogramMap.get(i).addValue(s);
@@ -177,7 +192,36 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return ((HeapFile) file).numPages() * this.ioCostPerPage;
+        return numPages(file) * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of a sequential scan that reads only some fields
+     * (see {@link SeqScan#setColumns}).  Only tables stored by column read
+     * fewer pages for it.
+     *
+     * @param columns the fields read, or null for all
+     * @return The estimated cost of scanning the table.
+     */
+    public double estimateScanCost(int[] columns) {
+        if (columns == null || !(file instanceof ColumnFile)) {
+            return estimateScanCost();
+        }
+        ColumnFile cf = (ColumnFile) file;
+        // a scan reading no columns still goes through column 0
+        int pages = columns.length == 0 ? cf.numPages(0) : 0;
+        for (int c : columns) {
+            pages += cf.numPages(c);
+        }
+        return pages * this.ioCostPerPage;
+    }
+
+    // the number of pages of a table file, all columns of one stored by column
+    private static int numPages(DbFile file) {
+        if (file instanceof ColumnFile) {
+            return ((ColumnFile) file).numPages();
+        }
+        return ((HeapFile) file).numPages();
     }
 
     /**
@@ -207,6 +251,9 @@ public class TableStats {
         if (this.td.getFieldType(field) == Type.INT_TYPE) {
             IntHistogram intHistogram = this.intHistogramMap.get(field);
                 return intHistogram.avgSelectivity();
+        }
+        else if (this.td.getFieldType(field) != Type.STRING_TYPE) {
+            return this.doubleHistogramMap.get(field).avgSelectivity();
         }
          else {
              StringHistogram stringHistogram = this.stringHistogramMap.get(field);
@@ -232,12 +279,27 @@ public class TableStats {
             IntHistogram intHistogram = this.intHistogramMap.get(field);
             return intHistogram.estimateSelectivity(op, ((IntField)constant).getValue());
         }
+        else if (this.td.getFieldType(field) != Type.STRING_TYPE) {
+            return this.doubleHistogramMap.get(field).estimateSelectivity(op, toDouble(constant));
+        }
         else {
             StringHistogram stringHistogram = this.stringHistogramMap.get(field);
             return stringHistogram.estimateSelectivity(op, ((StringField)constant).getValue());
         }
     }
 
+    // the value of a long, double or timestamp field, for its histogram
+    private static double toDouble(Field f) {
+        switch (f.getType()) {
+            case LONG_TYPE:
+                return ((LongField) f).getValue();
+            case TIMESTAMP_TYPE:
+                return ((TimestampField) f).getValue();
+            default:
+                return ((DoubleField) f).getValue();
+        }
+    }
+
     /**
      * return the total number of tuples in this table
      * */
@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+
+/**
+ * BackgroundWriter is a daemon thread that keeps checkpoints off the
+ * critical path of transactions.  Each round it
+ *
+ * <ul>
+ * <li> writes a few of the least recently used dirty pages of the buffer
+ * pool (see {@link BufferPool#flushDirtyPages}), doing in small steps
+ * the page writes checkpoints used to do all at once, and
+ * <li> takes a fuzzy checkpoint once the log has grown by a configured
+ * number of bytes since the last one (see {@link LogFile#logCheckpoint}).
+ * </ul>
+ *
+ * Checkpoints are thus driven by log volume rather than by time, so the
+ * amount of log recovery has to read stays bounded however busy the
+ * system is.
+ */
+public class BackgroundWriter extends Thread {
+
+    /** Default log growth, in bytes, between checkpoints. */
+    public static final long DEFAULT_CHECKPOINT_BYTES = 16L << 20;
+    /** Default number of dirty pages written per round. */
+    public static final int DEFAULT_PAGES_PER_ROUND = 8;
+    /** Default pause between rounds, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private final long checkpointBytes;
+    private final int pagesPerRound;
+    private final long intervalMillis;
+    private volatile boolean running = true;
+    private final Object pause = new Object();
+
+    /** Create a writer with the default settings. */
+    public BackgroundWriter() {
+        this(DEFAULT_CHECKPOINT_BYTES, DEFAULT_PAGES_PER_ROUND, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param checkpointBytes log growth since the last checkpoint that
+     *   triggers the next one
+     * @param pagesPerRound the most dirty pages written per round
+     * @param intervalMillis pause between rounds
+     */
+    public BackgroundWriter(long checkpointBytes, int pagesPerRound, long intervalMillis) {
+        super("simpledb-background-writer");
+        setDaemon(true);
+        this.checkpointBytes = checkpointBytes;
+        this.pagesPerRound = pagesPerRound;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                synchronized (pause) {
+                    pause.wait(intervalMillis);
+                }
+                if (running) {
+                    runOnce();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                // try again next round
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Run a single round: write some dirty pages, then checkpoint if
+     * enough log has accumulated.
+     *
+     * @return true if a checkpoint was taken
+     */
+    public boolean runOnce() throws IOException {
+        Database.getBufferPool().flushDirtyPages(pagesPerRound);
+        LogFile log = Database.getLogFile();
+        if (log.getBytesSinceCheckpoint() >= checkpointBytes) {
+            log.logCheckpoint();
+            return true;
+        }
+        return false;
+    }
+
+    /** Stop the writer and wait for its current round to finish.  The
+        thread is woken rather than interrupted, since an interrupt would
+        close the file channels it may be writing to. */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        synchronized (pause) {
+            pause.notifyAll();
+        }
+        join();
+    }
+}
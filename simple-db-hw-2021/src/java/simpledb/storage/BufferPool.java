@@ -8,9 +8,11 @@ import simpledb.transaction.TransactionId;
 import javax.xml.crypto.Data;
 import java.io.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 
@@ -40,6 +42,9 @@ public class BufferPool {
 
     public static int numPages = DEFAULT_PAGES;
     Map<PageId, DlinkedNode> PagesMap;
+    // clean pages of asynchronous commits whose latest version is only in
+    // the log; written once the log is forced, see commitAsync
+    private final Set<PageId> unwrittenPages = ConcurrentHashMap.newKeySet();
     DlinkedNode sentinel;
     DlinkedNode endSentinel;
     // Lab 4
@@ -160,24 +165,39 @@ public class BufferPool {
                 throw new TransactionAbortedException();
             }
         }
-        synchronized (this) {
-            // System.out.println("Exec operation");
-            if (PagesMap.containsKey(pid)) {
-                DlinkedNode node = PagesMap.get(pid);
-                moveToFirst(node);
-                return node.getPage();
-            } else { // The page is not in PageMap
-                // The capacity is full, evict page
-                if (PagesMap.size() >= numPages) {
-                    evictPage();
-                }
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page page = file.readPage(pid);
-                DlinkedNode node = new DlinkedNode(pid, page, null, null);
-                addHeadNode(node);
-                PagesMap.put(pid, node);
-                return node.getPage();
+        return fetchPage(pid);
+    }
+
+    /**
+     * Retrieve a page without locking it.  Only for pages that no
+     * transaction changes once another can reach them, such as the
+     * overflow pages of a long value, which are reached through a row the
+     * caller has already read under a lock.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getPageUnlocked(PageId pid) throws DbException {
+        return fetchPage(pid);
+    }
+
+    // the page from the pool, read into it if it is not there
+    private synchronized Page fetchPage(PageId pid) throws DbException {
+        // System.out.println("Exec operation");
+        if (PagesMap.containsKey(pid)) {
+            DlinkedNode node = PagesMap.get(pid);
+            moveToFirst(node);
+            return node.getPage();
+        } else { // The page is not in PageMap
+            // The capacity is full, evict page
+            if (PagesMap.size() >= numPages) {
+                evictPage();
             }
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = file.readPage(pid);
+            DlinkedNode node = new DlinkedNode(pid, page, null, null);
+            addHeadNode(node);
+            PagesMap.put(pid, node);
+            return node.getPage();
         }
     }
 
@@ -235,13 +255,50 @@ public class BufferPool {
 
     }
 
+    /**
+     * Commit a transaction without waiting for the disk.  Instead of being
+     * written, its dirty pages are logged into the log buffer and marked
+     * clean, their before images set to the committed version; then the
+     * commit record is appended and the locks are released.  The log is
+     * forced in the background (see {@link LogFile#logCommitAsync}).
+     * <p>
+     * The pages stay in the pool until they are written, which flushPage
+     * does only after forcing the log, so the table files never hold a
+     * change whose commit could still be lost.
+     *
+     * @param tid the ID of the committing transaction
+     */
+    public void commitAsync(TransactionId tid) throws IOException {
+        synchronized (this) {
+            for (Map.Entry<PageId, DlinkedNode> entry : PagesMap.entrySet()) {
+                Page page = entry.getValue().getPage();
+                if (tid.equals(page.isDirty())) {
+                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                    page.markDirty(false, null);
+                    page.setBeforeImage();
+                    unwrittenPages.add(entry.getKey());
+                }
+            }
+            Database.getLogFile().logCommitAsync(tid);
+            this.lockManager.releaseLock(tid);
+            this.notifyAll();
+        }
+    }
+
     public synchronized void restorePages(TransactionId tid) {
         for (Map.Entry<PageId, DlinkedNode> entry: PagesMap.entrySet()) {
             Page page = entry.getValue().getPage();
             PageId pid = entry.getKey();
             if (page.isDirty()!= null && page.isDirty().equals(tid)) {
-                DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
-                Page newPage = file.readPage(page.getId());
+                Page newPage;
+                if (unwrittenPages.contains(pid)) {
+                    // the file is behind; the last committed version is
+                    // the before image set by commitAsync
+                    newPage = page.getBeforeImage();
+                } else {
+                    DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+                    newPage = file.readPage(page.getId());
+                }
                 newPage.markDirty(false, null);
                 DlinkedNode newNode = new DlinkedNode(pid, newPage, null, null);
                 deleteNode(entry.getValue());
@@ -312,6 +369,7 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
+        unwrittenPages.remove(pid);
         if (PagesMap.containsKey(pid)) {
             DlinkedNode targetNode = PagesMap.get(pid);
             deleteNode(targetNode);
@@ -319,6 +377,20 @@ public class BufferPool {
         }
     }
 
+    /** Replace the cached copy of a page, if there is one, with a clean
+        page the recovery manager has just rebuilt from the log (through
+        {@link PageCodecs}) and written to its file.  Cheaper than
+        discarding the page and reading it back on the next access.
+    */
+    public synchronized void installPage(Page page) {
+        unwrittenPages.remove(page.getId());
+        DlinkedNode node = PagesMap.get(page.getId());
+        if (node != null) {
+            node.page = page;
+            moveToFirst(node);
+        }
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -329,19 +401,53 @@ public class BufferPool {
             // append an update record to the log, with
             // a before-image and after-image.
             TransactionId dirtier = targetPage.isDirty();
+            boolean unwritten = unwrittenPages.contains(pid);
             if (dirtier != null){
                 Database.getLogFile().logWrite(dirtier, targetPage.getBeforeImage(), targetPage);
                 Database.getLogFile().force();
+            } else if (unwritten) {
+                // logged by an asynchronous commit that may not be durable yet
+                Database.getLogFile().force();
             }
 
-            if (targetPage.isDirty() != null) {
+            if (targetPage.isDirty() != null || unwritten) {
                 DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
                 file.writePage(targetPage);
+                Database.getLogFile().pageWritten(pid);
                 targetPage.markDirty(false, null);
+                unwrittenPages.remove(pid);
+                // the next log record for this page describes changes
+                // relative to what is now on disk
+                targetPage.setBeforeImage();
             }
         }
     }
 
+    /**
+     * Write out up to maxPages dirty pages, least recently used first, so
+     * that eviction keeps finding clean pages.  Pages of asynchronous
+     * commits that are not yet in their files count as dirty here.  Each
+     * page is logged before
+     * it is written, as in {@link #flushAllPages}.  The buffer pool is
+     * locked for one page at a time rather than for the whole batch.
+     *
+     * @return the number of pages written
+     */
+    public int flushDirtyPages(int maxPages) throws IOException {
+        List<PageId> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (DlinkedNode node = endSentinel.prev; node != sentinel && dirty.size() < maxPages; node = node.prev) {
+                if (node.getPage().isDirty() != null || unwrittenPages.contains(node.getPageId())) {
+                    dirty.add(node.getPageId());
+                }
+            }
+        }
+        for (PageId pid : dirty) {
+            flushPage(pid);
+        }
+        return dirty.size();
+    }
+
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
@@ -350,9 +456,6 @@ public class BufferPool {
             PageId pid = entry.getKey();
             if (page.isDirty() != null && page.isDirty().equals(tid)) {
                 flushPage(pid);
-                // use current page contents as the before-image
-                // for the next transaction that modifies this page.
-                page.setBeforeImage();
             }
         }
 
@@ -0,0 +1,370 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader fills a {@link HeapFile} from a delimited text file, in the
+ * format {@link HeapFileEncoder} reads, far faster than inserting its rows
+ * one at a time.
+ * <p>
+ * The text is cut into chunks of about the same number of bytes, and
+ * threads parse the chunks into page images at once, each row going
+ * straight from the text into its slot.  The pages of each chunk are
+ * written in order, as one large write, at the end of the table; a chunk's
+ * last page may be left part full, and later inserts fill it.
+ * <p>
+ * Pages are written to the table file without going through the {@link
+ * BufferPool} or the log, and are forced to disk before {@link #load}
+ * returns, with their entries in the table's {@link FreeSpaceMap}.  A load
+ * is not a transaction: no transaction may be writing the table while it
+ * runs.  A fresh load into a table in the {@link
+ * simpledb.common.Catalog} also drops the table's cached pages and takes a
+ * checkpoint, so recovery never replays the log records of the pages it
+ * replaces; a loader made by {@link #offline} never touches the database,
+ * its buffer pool or its log.  An append that fails leaves the table as it
+ * was; a fresh load that fails leaves it empty.
+ */
+public class BulkLoader {
+
+    // the most page bytes a chunk of text should turn into
+    private static final int CHUNK_PAGE_BYTES = 8 << 20;
+    private static final int MIN_CHUNK_BYTES = 64 << 10;
+
+    private final HeapFile table;
+    private final char separator;
+    private final int threads;
+    private final int chunkBytes;
+    private final boolean offline;
+
+    private final Type[] types;
+    private final int tupleSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+
+    /**
+     * Create a loader for a table, with chunks sized so the pages of a
+     * chunk take at most a few megabytes.
+     *
+     * @param table the table to load, in the {@link HeapFile.PageFormat#FIXED} format
+     * @param separator the character between the fields of a line
+     * @param threads the number of threads that parse at once
+     */
+    public BulkLoader(HeapFile table, char separator, int threads) {
+        this(table, separator, threads, chunkBytes(table.getTupleDesc()));
+    }
+
+    /**
+     * Create a loader for a table.
+     *
+     * @param table the table to load, in the {@link HeapFile.PageFormat#FIXED} format
+     * @param separator the character between the fields of a line
+     * @param threads the number of threads that parse at once
+     * @param chunkBytes the number of bytes of text each thread parses at a
+     *   time; at most twice as many chunks as threads are held in memory
+     */
+    public BulkLoader(HeapFile table, char separator, int threads, int chunkBytes) {
+        this(table, separator, threads, chunkBytes, false);
+    }
+
+    /**
+     * Create a loader for a table file no database has open, e.g. one
+     * loaded from the command line.
+     *
+     * @see #BulkLoader(HeapFile, char, int)
+     */
+    public static BulkLoader offline(HeapFile table, char separator, int threads) {
+        return new BulkLoader(table, separator, threads, chunkBytes(table.getTupleDesc()), true);
+    }
+
+    private BulkLoader(HeapFile table, char separator, int threads, int chunkBytes, boolean offline) {
+        if (table.getPageFormat() != HeapFile.PageFormat.FIXED) {
+            throw new IllegalArgumentException("bulk loads write fixed-slot pages only");
+        }
+        this.table = table;
+        this.separator = separator;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+        this.offline = offline;
+        TupleDesc td = table.getTupleDesc();
+        this.types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        this.tupleSize = td.getSize();
+        this.slotsPerPage = BufferPool.getPageSize() * 8 / (tupleSize * 8 + 1);
+        this.headerSize = (slotsPerPage + 7) / 8;
+    }
+
+    // text chunks whose pages come to about CHUNK_PAGE_BYTES even if every
+    // field is a single character
+    private static int chunkBytes(TupleDesc td) {
+        long shortestLine = 2L * td.numFields();
+        return (int) Math.max(MIN_CHUNK_BYTES, CHUNK_PAGE_BYTES * shortestLine / td.getSize());
+    }
+
+    // whether the buffer pool and the log may hold pages of the table
+    private boolean inCatalog() {
+        if (offline) {
+            return false;
+        }
+        try {
+            Database.getCatalog().getDatabaseFile(table.getId());
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load the rows of a text file into the table.
+     *
+     * @param input lines of fields separated by the separator, as {@link
+     *   HeapFileEncoder} reads them
+     * @param append whether to add the rows after those the table has;
+     *   otherwise they replace them
+     * @return the number of rows loaded
+     * @throws IOException if the files cannot be read or written, or a line
+     *   is malformed
+     */
+    public long load(File input, boolean append) throws IOException {
+        PageFile out = table.getPageFile();
+        int pageSize = BufferPool.getPageSize();
+        int oldPages = table.numPages();
+        if (!append && inCatalog()) {
+            for (int p = 0; p < oldPages; p++) {
+                HeapPageId pid = new HeapPageId(table.getId(), p);
+                Database.getBufferPool().discardPage(pid);
+                Database.getLogFile().pageWritten(pid);
+            }
+            // redo has no page LSNs, so it would replay the old pages' log
+            // records over the new pages; a checkpoint with none of them
+            // dirty, taken before the table is cut, starts recovery after
+            // those records whenever a crash comes
+            Database.getLogFile().logCheckpoint();
+        }
+        if (!append) {
+            out.truncate(0);
+        }
+        int firstPage = table.numPages();
+        FreeSpaceMap fsm = table.getFreeSpaceMap();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long rows = 0;
+        try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            long start = 0;
+            long position = (long) firstPage * pageSize;
+            int pgNo = firstPage;
+            Deque<Future<Chunk>> pending = new ArrayDeque<>();
+            while (start < size || !pending.isEmpty()) {
+                while (start < size && pending.size() < 2 * threads) {
+                    long from = start;
+                    long to = Math.min(size, start + chunkBytes);
+                    pending.add(pool.submit(() -> parse(in, from, to)));
+                    start = to;
+                }
+                Chunk chunk = take(pending.removeFirst());
+                ByteBuffer pages = ByteBuffer.wrap(chunk.pages, 0, chunk.numPages * pageSize);
+                out.write(position, pages);
+                position += (long) chunk.numPages * pageSize;
+                for (int i = 0; i < chunk.numPages; i++, pgNo++) {
+                    boolean last = i == chunk.numPages - 1;
+                    int empty = last ? slotsPerPage - chunk.lastPageRows : 0;
+                    fsm.setLevel(pgNo, empty == 0 ? FreeSpaceMap.FULL
+                            : Math.max(1, empty * FreeSpaceMap.MAX_LEVEL / slotsPerPage));
+                }
+                rows += chunk.rows;
+            }
+            out.getChannel().force(false);
+            fsm.writeLevels(firstPage, pgNo);
+        } catch (IOException | RuntimeException e) {
+            // nothing but this load has written past where it started
+            out.truncate((long) firstPage * pageSize);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+        return rows;
+    }
+
+    private static Chunk take(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** The pages made from one chunk of text. */
+    private static final class Chunk {
+        byte[] pages;
+        int numPages;
+        int lastPageRows;
+        long rows;
+    }
+
+    // read len bytes at position, fewer at the end of the file
+    private static byte[] read(FileChannel in, long position, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * Parse the lines that start between from and to into pages.  A line
+     * that starts before from belongs to the chunk before; the last line
+     * may run past to.
+     */
+    private Chunk parse(FileChannel in, long from, long to) throws IOException {
+        byte[] text = read(in, from, (int) (to - from));
+        int end = text.length;
+        // read on to the end of the last line
+        while (text.length > 0 && text[text.length - 1] != '\n') {
+            byte[] more = read(in, from + text.length, 4096);
+            if (more.length == 0) {
+                break;
+            }
+            int newline = 0;
+            while (newline < more.length && more[newline] != '\n')
+                newline++;
+            int keep = Math.min(more.length, newline + 1);
+            text = Arrays.copyOf(text, text.length + keep);
+            System.arraycopy(more, 0, text, text.length - keep, keep);
+        }
+        int pos = 0;
+        if (from > 0 && read(in, from - 1, 1)[0] != '\n') {
+            while (pos < end && text[pos] != '\n')
+                pos++;
+            pos++;
+        }
+
+        int pageSize = BufferPool.getPageSize();
+        Chunk chunk = new Chunk();
+        chunk.pages = new byte[pageSize * 16];
+        ByteBuffer page = null;
+        int slot = slotsPerPage;
+        while (pos < end) {
+            int lineEnd = pos;
+            while (lineEnd < text.length && text[lineEnd] != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > pos && text[lineEnd - 1] == '\r')
+                lineEnd--;
+            if (lineEnd > pos) {
+                if (slot == slotsPerPage) {
+                    page = newPage(chunk);
+                    slot = 0;
+                }
+                page.position(headerSize + slot * tupleSize);
+                parseLine(text, pos, lineEnd, page, from);
+                int header = (chunk.numPages - 1) * pageSize + slot / 8;
+                chunk.pages[header] |= 1 << (slot % 8);
+                slot++;
+                chunk.rows++;
+            }
+            pos = next;
+        }
+        chunk.lastPageRows = slot;
+        return chunk;
+    }
+
+    // a view of a new, zeroed page at the end of chunk's pages
+    private static ByteBuffer newPage(Chunk chunk) {
+        int pageSize = BufferPool.getPageSize();
+        int offset = chunk.numPages * pageSize;
+        if (offset + pageSize > chunk.pages.length) {
+            chunk.pages = Arrays.copyOf(chunk.pages, Math.max(offset + pageSize, chunk.pages.length * 2));
+        }
+        chunk.numPages++;
+        return ByteBuffer.wrap(chunk.pages, offset, pageSize).slice();
+    }
+
+    // write the fields of the line from start to end into page
+    private void parseLine(byte[] text, int start, int end, ByteBuffer page, long chunkStart) throws IOException {
+        int pos = start;
+        for (int i = 0; i < types.length; i++) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && text[fieldEnd] != separator)
+                fieldEnd++;
+            if (i < types.length - 1 ? fieldEnd == end : fieldEnd != end) {
+                throw new IOException("line at byte " + (chunkStart + start) + " does not have "
+                        + types.length + " fields");
+            }
+            int s = pos;
+            int e = fieldEnd;
+            while (s < e && text[s] == ' ')
+                s++;
+            while (e > s && text[e - 1] == ' ')
+                e--;
+            if (types[i] == Type.INT_TYPE) {
+                page.putInt(parseInt(text, s, e, chunkStart));
+            } else if (types[i] == Type.STRING_TYPE) {
+                int len = Math.min(e - s, Type.STRING_LEN);
+                page.putInt(len);
+                page.put(text, s, len);
+                // the page is zeroed already
+                page.position(page.position() + Type.STRING_LEN - len);
+            } else {
+                String value = new String(text, s, e - s, StandardCharsets.ISO_8859_1);
+                try {
+                    types[i].parse(value).serialize(page);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("bad " + types[i] + " value " + value + " at byte " + (chunkStart + s));
+                }
+            }
+            pos = fieldEnd + 1;
+        }
+    }
+
+    private static int parseInt(byte[] text, int start, int end, long chunkStart) throws IOException {
+        int pos = start;
+        boolean negative = pos < end && text[pos] == '-';
+        if (negative || pos < end && text[pos] == '+')
+            pos++;
+        long v = 0;
+        if (pos == end || end - pos > 10) {
+            throw badInt(text, start, end, chunkStart);
+        }
+        for (; pos < end; pos++) {
+            int d = text[pos] - '0';
+            if (d < 0 || d > 9) {
+                throw badInt(text, start, end, chunkStart);
+            }
+            v = v * 10 + d;
+        }
+        v = negative ? -v : v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw badInt(text, start, end, chunkStart);
+        }
+        return (int) v;
+    }
+
+    private static IOException badInt(byte[] text, int start, int end, long chunkStart) {
+        return new IOException("bad int value " + new String(text, start, end - start, StandardCharsets.ISO_8859_1)
+                + " at byte " + (chunkStart + start));
+    }
+}
@@ -0,0 +1,442 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ways a {@link CompressedColumnPage} can lay out its values.  A page
+ * keeps {@link Stats} on its values as they are added, and when it is
+ * written it uses whichever encoding takes the fewest bytes for them.
+ * <p>
+ * Each encoding reads its values back through a {@link Reader}, which also
+ * tests predicates on the encoded values: a dictionary tests each distinct
+ * value once, runs are tested once per run, and offsets from a frame of
+ * reference are compared with the constant moved into the same frame.
+ */
+enum ColumnEncoding {
+
+    /** each value serialized in full, as on a HeapPage */
+    PLAIN {
+        long size(Stats s) {
+            return (long) s.count * s.type.getLen();
+        }
+
+        void encode(ByteBuffer buf, Field[] values, Stats s) {
+            for (int i = 0; i < s.count; i++)
+                values[i].serialize(buf);
+        }
+
+        Reader reader(Type type, byte[] image, int offset, int count) {
+            return new Reader(count) {
+                Field get(int i) {
+                    return type.parse(image, offset + i * type.getLen());
+                }
+            };
+        }
+    },
+
+    /**
+     * the distinct values once, in the order they first appear, then a
+     * bit-packed code per value
+     */
+    DICTIONARY {
+        long size(Stats s) {
+            return 4L + (long) s.distinct * s.type.getLen() + 1 + packedSize(s.count, width(s.distinct - 1));
+        }
+
+        void encode(ByteBuffer buf, Field[] values, Stats s) {
+            Map<Field, Integer> codes = new LinkedHashMap<>();
+            for (int i = 0; i < s.count; i++)
+                codes.putIfAbsent(values[i], codes.size());
+            buf.putInt(codes.size());
+            for (Field f : codes.keySet())
+                f.serialize(buf);
+            int width = width(codes.size() - 1);
+            buf.put((byte) width);
+            BitPacker packer = new BitPacker(buf, width);
+            for (int i = 0; i < s.count; i++)
+                packer.add(codes.get(values[i]));
+            packer.finish();
+        }
+
+        Reader reader(Type type, byte[] image, int offset, int count) {
+            ByteBuffer in = ByteBuffer.wrap(image);
+            Field[] dictionary = new Field[in.getInt(offset)];
+            for (int d = 0; d < dictionary.length; d++)
+                dictionary[d] = type.parse(image, offset + 4 + d * type.getLen());
+            int at = offset + 4 + dictionary.length * type.getLen();
+            int width = image[at];
+            int codes = at + 1;
+            return new Reader(count) {
+                Field get(int i) {
+                    return dictionary[(int) unpack(image, codes, i, width)];
+                }
+
+                void filter(Predicate.Op op, Field operand, BitSet rows, int shift) {
+                    boolean[] pass = new boolean[dictionary.length];
+                    for (int d = 0; d < dictionary.length; d++)
+                        pass[d] = dictionary[d].compare(op, operand);
+                    for (int b = first(rows, shift); b >= 0 && b < shift + count; b = rows.nextSetBit(b + 1)) {
+                        if (!pass[(int) unpack(image, codes, b - shift, width)])
+                            rows.clear(b);
+                    }
+                }
+            };
+        }
+    },
+
+    /** each run of equal values as the value and the end of the run */
+    RUN_LENGTH {
+        long size(Stats s) {
+            return 4L + (long) s.runs * (s.type.getLen() + 4);
+        }
+
+        void encode(ByteBuffer buf, Field[] values, Stats s) {
+            buf.putInt(s.runs);
+            for (int i = 0; i < s.count; i++) {
+                if (i + 1 == s.count || !values[i + 1].equals(values[i])) {
+                    values[i].serialize(buf);
+                    buf.putInt(i + 1);
+                }
+            }
+        }
+
+        Reader reader(Type type, byte[] image, int offset, int count) {
+            ByteBuffer in = ByteBuffer.wrap(image);
+            int runs = in.getInt(offset);
+            Field[] values = new Field[runs];
+            int[] ends = new int[runs];
+            int at = offset + 4;
+            for (int r = 0; r < runs; r++) {
+                values[r] = type.parse(image, at);
+                ends[r] = in.getInt(at + type.getLen());
+                at += type.getLen() + 4;
+            }
+            return new Reader(count) {
+                Field get(int i) {
+                    int r = Arrays.binarySearch(ends, i + 1);
+                    return values[r >= 0 ? r : -r - 1];
+                }
+
+                void filter(Predicate.Op op, Field operand, BitSet rows, int shift) {
+                    int start = 0;
+                    for (int r = 0; r < runs; r++) {
+                        if (!values[r].compare(op, operand))
+                            rows.clear(Math.max(0, start + shift), Math.max(0, ends[r] + shift));
+                        start = ends[r];
+                    }
+                }
+            };
+        }
+    },
+
+    /** ints as bit-packed offsets from the smallest of them */
+    FRAME_OF_REFERENCE {
+        long size(Stats s) {
+            if (s.type != Type.INT_TYPE || s.count == 0)
+                return Long.MAX_VALUE;
+            return 4 + 1 + packedSize(s.count, width(s.max - s.min));
+        }
+
+        void encode(ByteBuffer buf, Field[] values, Stats s) {
+            int width = width(s.max - s.min);
+            buf.putInt((int) s.min);
+            buf.put((byte) width);
+            BitPacker packer = new BitPacker(buf, width);
+            for (int i = 0; i < s.count; i++)
+                packer.add(((IntField) values[i]).getValue() - s.min);
+            packer.finish();
+        }
+
+        Reader reader(Type type, byte[] image, int offset, int count) {
+            long base = ByteBuffer.wrap(image).getInt(offset);
+            int width = image[offset + 4];
+            int packed = offset + 5;
+            return new Reader(count) {
+                Field get(int i) {
+                    return new IntField((int) (base + unpack(image, packed, i, width)));
+                }
+
+                void filter(Predicate.Op op, Field operand, BitSet rows, int shift) {
+                    long target = ((IntField) operand).getValue() - base;
+                    if (target < 0 || target >= 1L << width) {
+                        // every offset is on the same side of the constant
+                        if (!compare(op, 0, target))
+                            rows.clear(Math.max(0, shift), Math.max(0, shift + count));
+                        return;
+                    }
+                    for (int b = first(rows, shift); b >= 0 && b < shift + count; b = rows.nextSetBit(b + 1)) {
+                        if (!compare(op, unpack(image, packed, b - shift, width), target))
+                            rows.clear(b);
+                    }
+                }
+            };
+        }
+    },
+
+    /**
+     * ints as the first of them, then bit-packed differences from the one
+     * before, less the smallest difference
+     */
+    DELTA {
+        long size(Stats s) {
+            if (s.type != Type.INT_TYPE || s.count == 0)
+                return Long.MAX_VALUE;
+            int width = s.count > 1 ? width(s.maxDelta - s.minDelta) : 0;
+            if (width > MAX_WIDTH)
+                return Long.MAX_VALUE;
+            return 4 + 8 + 1 + packedSize(s.count - 1, width);
+        }
+
+        void encode(ByteBuffer buf, Field[] values, Stats s) {
+            long minDelta = s.count > 1 ? s.minDelta : 0;
+            int width = s.count > 1 ? width(s.maxDelta - s.minDelta) : 0;
+            buf.putInt(((IntField) values[0]).getValue());
+            buf.putLong(minDelta);
+            buf.put((byte) width);
+            BitPacker packer = new BitPacker(buf, width);
+            for (int i = 1; i < s.count; i++) {
+                long delta = (long) ((IntField) values[i]).getValue() - ((IntField) values[i - 1]).getValue();
+                packer.add(delta - minDelta);
+            }
+            packer.finish();
+        }
+
+        Reader reader(Type type, byte[] image, int offset, int count) {
+            ByteBuffer in = ByteBuffer.wrap(image);
+            int first = in.getInt(offset);
+            long minDelta = in.getLong(offset + 4);
+            int width = image[offset + 12];
+            int packed = offset + 13;
+            return new Reader(count) {
+                // each value needs all those before it, so the first
+                // lookup decodes the lot
+                private int[] decoded;
+
+                Field get(int i) {
+                    if (decoded == null) {
+                        int[] values = new int[count];
+                        long v = first;
+                        for (int j = 0; j < count; j++) {
+                            if (j > 0)
+                                v += unpack(image, packed, j - 1, width) + minDelta;
+                            values[j] = (int) v;
+                        }
+                        decoded = values;
+                    }
+                    return new IntField(decoded[i]);
+                }
+
+                void filter(Predicate.Op op, Field operand, BitSet rows, int shift) {
+                    long target = ((IntField) operand).getValue();
+                    long v = first;
+                    int last = Math.min(count, rows.length() - shift);
+                    for (int i = 0; i < last; i++) {
+                        if (i > 0)
+                            v += unpack(image, packed, i - 1, width) + minDelta;
+                        if (i + shift >= 0 && rows.get(i + shift) && !compare(op, v, target))
+                            rows.clear(i + shift);
+                    }
+                }
+            };
+        }
+    };
+
+    // the widest bit-packed value; wider deltas rule DELTA out
+    private static final int MAX_WIDTH = 32;
+
+    /**
+     * @return the bytes values with the given stats take in this encoding,
+     *   or Long.MAX_VALUE if it cannot hold them
+     */
+    abstract long size(Stats s);
+
+    /**
+     * Write the first s.count values in this encoding, taking exactly
+     * {@link #size} bytes.
+     */
+    abstract void encode(ByteBuffer buf, Field[] values, Stats s);
+
+    /**
+     * @return a reader of count values written in this encoding at offset
+     *   in image, which must not change while the reader is in use
+     */
+    abstract Reader reader(Type type, byte[] image, int offset, int count);
+
+    /** @return the encoding that takes the fewest bytes for values with these stats */
+    static ColumnEncoding choose(Stats s) {
+        ColumnEncoding best = PLAIN;
+        for (ColumnEncoding e : values()) {
+            if (e.size(s) < best.size(s))
+                best = e;
+        }
+        return best;
+    }
+
+    /** Reads the values of a page in one encoding. */
+    abstract static class Reader {
+        final int count;
+
+        Reader(int count) {
+            this.count = count;
+        }
+
+        /** @return value i */
+        abstract Field get(int i);
+
+        /**
+         * Clear the bits of the values that fail a predicate.  Bit i +
+         * shift of rows stands for value i; bits for other rows are left
+         * alone.
+         */
+        void filter(Predicate.Op op, Field operand, BitSet rows, int shift) {
+            for (int b = first(rows, shift); b >= 0 && b < shift + count; b = rows.nextSetBit(b + 1)) {
+                if (!get(b - shift).compare(op, operand))
+                    rows.clear(b);
+            }
+        }
+    }
+
+    /**
+     * What the encodings need to know of a run of values to size them,
+     * kept up to date as values are added.
+     */
+    static final class Stats {
+        final Type type;
+        int count;
+        int distinct;
+        int runs;
+        // ints only
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long minDelta = Long.MAX_VALUE;
+        long maxDelta = Long.MIN_VALUE;
+        private Field last;
+
+        Stats(Type type) {
+            this.type = type;
+        }
+
+        Stats(Stats s) {
+            this.type = s.type;
+            this.count = s.count;
+            this.distinct = s.distinct;
+            this.runs = s.runs;
+            this.min = s.min;
+            this.max = s.max;
+            this.minDelta = s.minDelta;
+            this.maxDelta = s.maxDelta;
+            this.last = s.last;
+        }
+
+        /**
+         * Count another value.
+         *
+         * @param unseen whether no value before it is equal to it
+         */
+        void add(Field v, boolean unseen) {
+            if (count == 0 || !v.equals(last))
+                runs++;
+            if (unseen)
+                distinct++;
+            if (type == Type.INT_TYPE) {
+                long x = ((IntField) v).getValue();
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+                if (count > 0) {
+                    long delta = x - ((IntField) last).getValue();
+                    minDelta = Math.min(minDelta, delta);
+                    maxDelta = Math.max(maxDelta, delta);
+                }
+            }
+            last = v;
+            count++;
+        }
+    }
+
+    // the bits needed for values from 0 to range
+    static int width(long range) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(0, range));
+    }
+
+    static long packedSize(long count, int width) {
+        return (count * width + 7) / 8;
+    }
+
+    // the first set bit of rows at or after shift
+    private static int first(BitSet rows, int shift) {
+        return rows.nextSetBit(Math.max(0, shift));
+    }
+
+    // a op b, with LIKE taken as equality, as IntField does
+    static boolean compare(Predicate.Op op, long a, long b) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return a == b;
+            case NOT_EQUALS:
+                return a != b;
+            case GREATER_THAN:
+                return a > b;
+            case GREATER_THAN_OR_EQ:
+                return a >= b;
+            case LESS_THAN:
+                return a < b;
+            case LESS_THAN_OR_EQ:
+                return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * @return value i of those packed width bits apiece, lowest bits
+     *   first, from offset in data
+     */
+    static long unpack(byte[] data, int offset, int i, int width) {
+        if (width == 0)
+            return 0;
+        long bit = (long) i * width;
+        int at = offset + (int) (bit >>> 3);
+        int skip = (int) (bit & 7);
+        long v = 0;
+        for (int k = 0; k * 8 < skip + width; k++)
+            v |= (data[at + k] & 0xFFL) << (8 * k);
+        return (v >>> skip) & ((1L << width) - 1);
+    }
+
+    /** Writes values of a fixed number of bits, lowest bits first. */
+    static final class BitPacker {
+        private final ByteBuffer buf;
+        private final int width;
+        private long pending;
+        private int bits;
+
+        BitPacker(ByteBuffer buf, int width) {
+            this.buf = buf;
+            this.width = width;
+        }
+
+        void add(long v) {
+            pending |= v << bits;
+            bits += width;
+            while (bits >= 8) {
+                buf.put((byte) pending);
+                pending >>>= 8;
+                bits -= 8;
+            }
+        }
+
+        void finish() {
+            if (bits > 0)
+                buf.put((byte) pending);
+            pending = 0;
+            bits = 0;
+        }
+    }
+}
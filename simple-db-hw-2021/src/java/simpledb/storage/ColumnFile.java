@@ -0,0 +1,453 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table in a file of its own, so a scan that needs a few columns of a wide
+ * table reads only their pages (see {@link #iterator(TransactionId, int[])}).
+ * Column i of the table kept at f is stored in f.c<i>, on ColumnPages.
+ * <p>
+ * Rows are numbered.  Row r is in slot r % n of page r / n of each
+ * column's file, where n is the number of values of that column a page
+ * holds, so narrow columns take fewer pages than wide ones.  Inserts find a
+ * free row on the pages of column 0, through a {@link FreeSpaceMap} of
+ * them kept next to f.c0, and the other columns' files grow to match.  {@link CompressedColumnFile} instead fits as many rows on each
+ * page as its encoded values allow.
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final TupleDesc[] columnDescs;
+    private final PageFile[] columns;
+    private final int[] rowsPerPage;
+    private FreeSpaceMap fsm; // of column 0, loaded on first use
+
+    /**
+     * Constructs a column file whose columns are stored next to f.
+     *
+     * @param f
+     *            the file that names this table; its columns are kept in
+     *            f.c0, f.c1 and so on, and f itself is never written
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        int n = td.numFields();
+        this.columnDescs = new TupleDesc[n];
+        this.columns = new PageFile[n];
+        this.rowsPerPage = new int[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                columnDescs[i] = new TupleDesc(new Type[]{td.getFieldType(i)},
+                        new String[]{td.getFieldName(i)});
+                columns[i] = new PageFile(getColumnFile(i));
+                rowsPerPage[i] = BufferPool.getPageSize() * 8 / (columnDescs[i].getSize() * 8 + 1);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the File that names this table; see {@link #getColumnFile}.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the File one column of this table is stored in.
+     */
+    public File getColumnFile(int column) {
+        return new File(file.getPath() + ".c" + column);
+    }
+
+    /**
+     * Returns the PageFile one column of this table is read and written
+     * through.
+     */
+    public PageFile getPageFile(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Returns the number of columns, and so of column files, of this table.
+     */
+    public int numColumns() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the TupleDesc of the one-field tuples the pages of a column
+     * hold.
+     */
+    public TupleDesc getColumnDesc(int column) {
+        return columnDescs[column];
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile: the hash code of
+     * the absolute name of its file, as for HeapFiles.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages of one column.
+     */
+    public int numPages(int column) {
+        try {
+            int pageSize = BufferPool.getPageSize();
+            return (int) ((columns[column].refreshSize() + pageSize - 1) / pageSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages of all the columns of this file.
+     */
+    public int numPages() {
+        int n = 0;
+        for (int i = 0; i < columns.length; i++) {
+            n += numPages(i);
+        }
+        return n;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || !(pid instanceof ColumnPageId)) {
+            throw new NoSuchElementException();
+        }
+        ColumnPageId cpid = (ColumnPageId) pid;
+        PageFile column = columns[cpid.getColumn()];
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageSize * pid.getPageNumber();
+        try {
+            if (offset >= column.size() && offset >= column.refreshSize()) {
+                throw new IllegalArgumentException("Read past end of column " + cpid.getColumn());
+            }
+            byte[] pageData = new byte[pageSize];
+            column.read(offset, pageData);
+            return wrapPage(cpid, pageData);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // a page of this file over an image no one else holds
+    Page wrapPage(ColumnPageId pid, byte[] image) {
+        return ColumnPage.wrap(pid, columnDescs[pid.getColumn()], image);
+    }
+
+    /**
+     * Re-read the column files, after they have been replaced.
+     */
+    public void reload() throws IOException {
+        for (PageFile column : columns) {
+            column.reload();
+        }
+        synchronized (this) {
+            // the map describes the old pages of column 0
+            if (fsm != null) {
+                fsm.close();
+                fsm = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the free space map of the pages of column 0, loading it on
+     * first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (fsm == null) {
+            fsm = new FreeSpaceMap(getColumnFile(0), numPages(0));
+        }
+        return fsm;
+    }
+
+    // the page of a column that holds a row
+    ColumnPageId pageFor(int column, int row) {
+        return new ColumnPageId(getId(), column, row / rowsPerPage[column]);
+    }
+
+    // the row the first value on a page is for
+    int firstRow(ColumnPageId pid) {
+        return pid.getPageNumber() * rowsPerPage[pid.getColumn()];
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        long offset = (long) BufferPool.getPageSize() * pid.getPageNumber();
+        columns[pid.getColumn()].write(offset, page);
+        page.markDirty(false, null);
+        if (pid.getColumn() == 0 && page instanceof ColumnPage) {
+            getFreeSpaceMap().writeLevel(pid.getPageNumber(), ((ColumnPage) page).spaceLevel());
+        }
+    }
+
+    // the page of a column that row is on, adding empty pages to the
+    // column's file up to it if it is past the end
+    private ColumnPage rowPage(TransactionId tid, int column, int row)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = row / rowsPerPage[column];
+        int numPages = numPages(column);
+        if (pgNo < numPages) {
+            return (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(getId(), column, pgNo), Permissions.READ_WRITE);
+        }
+        ColumnPage page = null;
+        for (int i = numPages; i <= pgNo; i++) {
+            page = ColumnPage.wrap(new ColumnPageId(getId(), column, i), columnDescs[column],
+                    HeapPage.createEmptyPageData());
+            writePage(page);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("Mismatch tupleDesc");
+        }
+        // find a free row on the pages of column 0 the free space map says
+        // have room, skipping those other transactions hold rather than
+        // waiting for them
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        LockManager locks = Database.getBufferPool().getLockManager();
+        int numPages = numPages(0);
+        int row = numPages * rowsPerPage[0];
+        for (int i = fsm.findPage(1, 0); i >= 0 && i < numPages; i = fsm.findPage(1, i + 1)) {
+            ColumnPageId pid = new ColumnPageId(getId(), 0, i);
+            LockType held = locks.lockHeld(tid, pid);
+            if (held != LockType.EXCLUSIVE_LOCK && !locks.acquireLock(tid, pid, Permissions.READ_WRITE)) {
+                continue;
+            }
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                int slot = 0;
+                while (page.isSlotUsed(slot))
+                    slot++;
+                row = i * rowsPerPage[0] + slot;
+                break;
+            }
+            // the map was stale; the page is untouched, so let it go
+            fsm.setLevel(i, page.spaceLevel());
+            if (held == LockType.NO_LOCK) {
+                Database.getBufferPool().unsafeReleasePage(tid, pid);
+            }
+        }
+
+        List<Page> pages = new ArrayList<>();
+        for (int c = 0; c < columns.length; c++) {
+            ColumnPage page = rowPage(tid, c, row);
+            page.insertValue(row % rowsPerPage[c], t.getField(c));
+            pages.add(page);
+        }
+        fsm.setLevel(row / rowsPerPage[0], ((ColumnPage) pages.get(0)).spaceLevel());
+        t.setRecordId(new RecordId(new ColumnPageId(getId(), 0, row / rowsPerPage[0]), row % rowsPerPage[0]));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("Tuple is not in table " + getId());
+        }
+        int row = firstRow((ColumnPageId) rid.getPageId()) + rid.getTupleNumber();
+        List<Page> pages = new ArrayList<>();
+        for (int c = 0; c < columns.length; c++) {
+            ColumnPageId pid = pageFor(c, row);
+            Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            ((ColumnValues) page).deleteValue(row - firstRow(pid));
+            pages.add(page);
+        }
+        if (pages.get(0) instanceof ColumnPage) {
+            getFreeSpaceMap().setLevel(pages.get(0).getId().getPageNumber(), ((ColumnPage) pages.get(0)).spaceLevel());
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads the pages
+     * of the given columns only.  The other fields of the tuples it returns
+     * are read from their pages when first asked for.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all the
+     * given predicates, reading the pages of the given columns only.  Each
+     * predicate is tested on the pages of its column, a page of rows at a
+     * time, before any tuple is built.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        if (columns == null) {
+            columns = new int[td.numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = i;
+        }
+        return new ColumnFileIterator(this, tid, columns, predicates);
+    }
+}
+
+/**
+ * Iterates over the rows of a ColumnFile, going through the pages of the
+ * first column it reads to find them.  The rows of each of those pages are
+ * tested against the predicates, if any, before their tuples are built.
+ * <p>
+ * The fields of the other columns are read when they are first asked
+ * for: under the scan's transaction while the scan is open, and without
+ * a lock once it is closed, as the transaction may be over by then.
+ */
+class ColumnFileIterator extends AbstractDbFileIterator {
+
+    private final ColumnFile f;
+    private final TransactionId tid;
+    private final boolean[] read;
+    private final int lead;
+    private final List<Predicate> predicates;
+    private final ColumnValues[] current;
+    private int pgNo;
+    private BitSet rows; // the rows of the lead page left to return
+    private int base;    // the row bit 0 of rows stands for
+    private volatile boolean open;
+
+    ColumnFileIterator(ColumnFile f, TransactionId tid, int[] columns, List<Predicate> predicates) {
+        this.f = f;
+        this.tid = tid;
+        this.read = new boolean[f.numColumns()];
+        for (int c : columns)
+            read[c] = true;
+        // with no columns to read, rows are still counted on column 0
+        this.lead = columns.length > 0 ? Arrays.stream(columns).min().getAsInt() : 0;
+        this.predicates = predicates;
+        this.current = new ColumnValues[f.numColumns()];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        open = true;
+        pgNo = -1;
+        rows = null;
+        Arrays.fill(current, null);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        open = false;
+        rows = null;
+        Arrays.fill(current, null);
+    }
+
+    // the page of a column holding row, reusing the last one read
+    private ColumnValues page(int column, int row) throws DbException, TransactionAbortedException {
+        ColumnValues p = current[column];
+        if (p == null || row < p.firstRow() || row >= p.firstRow() + p.numRows()) {
+            p = (ColumnValues) Database.getBufferPool().getPage(tid,
+                    f.pageFor(column, row), Permissions.READ_ONLY);
+            current[column] = p;
+        }
+        return p;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            int b = rows == null ? -1 : rows.nextSetBit(0);
+            if (b >= 0) {
+                rows.clear(b);
+                return readRow(base + b);
+            }
+            pgNo++;
+            if (pgNo >= f.numPages(lead)) {
+                return null;
+            }
+            ColumnValues leadPage = (ColumnValues) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(f.getId(), lead, pgNo), Permissions.READ_ONLY);
+            current[lead] = leadPage;
+            base = leadPage.firstRow();
+            rows = new BitSet(leadPage.numRows());
+            for (int i = 0; i < leadPage.numRows(); i++) {
+                if (leadPage.isRowUsed(i))
+                    rows.set(i);
+            }
+            for (Predicate p : predicates) {
+                filter(p);
+            }
+        }
+    }
+
+    // clear the bits of the rows whose values fail p, going through the
+    // pages of its column that hold the rows still set
+    private void filter(Predicate p) throws DbException, TransactionAbortedException {
+        int b = rows.nextSetBit(0);
+        while (b >= 0) {
+            ColumnValues page = page(p.getField(), base + b);
+            page.filter(p.getOp(), p.getOperand(), rows, base);
+            b = rows.nextSetBit(page.firstRow() + page.numRows() - base);
+        }
+    }
+
+    private Tuple readRow(int row) throws DbException, TransactionAbortedException {
+        TupleDesc td = f.getTupleDesc();
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < read.length; c++) {
+            if (read[c]) {
+                ColumnValues p = page(c, row);
+                t.setField(c, p.getValue(row - p.firstRow()));
+                continue;
+            }
+            ColumnPageId pid = f.pageFor(c, row);
+            int s = row - f.firstRow(pid);
+            t.deferField(c, () -> {
+                try {
+                    // never lock on behalf of a transaction that may be over
+                    ColumnValues p = (ColumnValues) (open
+                            ? Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)
+                            : Database.getBufferPool().getPageUnlocked(pid));
+                    return p.getValue(s);
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        t.setRecordId(new RecordId(new ColumnPageId(f.getId(), lead, pgNo), row - base));
+        return t;
+    }
+}
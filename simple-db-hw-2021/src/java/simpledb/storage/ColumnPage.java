@@ -0,0 +1,93 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ColumnPage holds the values of one column of a {@link ColumnFile} for a
+ * run of consecutive rows.  It is laid out like a HeapPage of a table with
+ * just that column: a header bit per slot, then the values, one per slot.
+ * Slot i of page p of a column holds the value of row p * slots + i, and
+ * its header bit is set while the row exists.
+ */
+public class ColumnPage extends HeapPage implements ColumnValues {
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, columnDesc(id), new PageImage(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    private ColumnPage(ColumnPageId id, TupleDesc td, PageImage image) {
+        super(id, td, image);
+    }
+
+    // a page over an image no one else holds
+    static ColumnPage wrap(ColumnPageId id, TupleDesc td, byte[] image) {
+        return new ColumnPage(id, td, new PageImage(image));
+    }
+
+    private static TupleDesc columnDesc(ColumnPageId id) {
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        return f.getColumnDesc(id.getColumn());
+    }
+
+    public ColumnPageId getId() {
+        return (ColumnPageId) pid;
+    }
+
+    public ColumnPage getBeforeImage() {
+        return new ColumnPage(getId(), td, beforeImageData());
+    }
+
+    public int firstRow() {
+        return pid.getPageNumber() * numSlots;
+    }
+
+    public int numRows() {
+        return numSlots;
+    }
+
+    public boolean isRowUsed(int i) {
+        return isSlotUsed(i);
+    }
+
+    /**
+     * Returns the value in a slot, or null if the slot is empty.
+     */
+    public Field getValue(int slot) {
+        Tuple t = getTuple(slot);
+        return t == null ? null : t.getField(0);
+    }
+
+    /**
+     * Puts a value in an empty slot.
+     * @throws DbException if the slot is in use
+     */
+    void insertValue(int slot, Field value) throws DbException {
+        if (isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " is in use");
+        }
+        Tuple t = new Tuple(td);
+        t.setField(0, value);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Empties a slot.
+     * @throws DbException if the slot is empty already
+     */
+    public void deleteValue(int slot) throws DbException {
+        if (!isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " is empty");
+        }
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+/** Unique identifier for ColumnPage objects: a page of the file of one
+    column of a {@link ColumnFile}, numbered within that column. */
+public class ColumnPageId extends HeapPageId {
+
+    private final int column;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of one
+     * column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table
+     * @param pgNo The page number in that column's file.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        super(tableId, pgNo);
+        this.column = column;
+    }
+
+    /** @return the column of the table whose values the page holds */
+    public int getColumn() {
+        return column;
+    }
+
+    public int hashCode() {
+        return 31 * (31 * (31 * getTableId() + column) + getPageNumber()) + 11;
+    }
+
+    public boolean equals(Object o) {
+        return super.equals(o) && ((ColumnPageId) o).column == column;
+    }
+
+    public int[] serialize() {
+        return new int[]{getTableId(), column, getPageNumber()};
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + getTableId() + ", " + column + ", " + getPageNumber() + ")";
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+
+import java.util.BitSet;
+
+/**
+ * The values of one column of a {@link ColumnFile} for a run of
+ * consecutive rows, as held by a page of the column's file.
+ */
+interface ColumnValues {
+
+    /** @return the row the page's first value is for */
+    int firstRow();
+
+    /** @return the number of rows the page has room for, or holds */
+    int numRows();
+
+    /** @return whether row firstRow() + i exists */
+    boolean isRowUsed(int i);
+
+    /** @return the value of row firstRow() + i, or null if it does not exist */
+    Field getValue(int i);
+
+    /**
+     * Remove row firstRow() + i.
+     * @throws DbException if it does not exist
+     */
+    void deleteValue(int i) throws DbException;
+
+    /**
+     * Clear the bits of rows whose values on this page fail a predicate.
+     * Bit b of rows stands for row base + b; bits for rows that are not on
+     * this page are left alone.
+     */
+    default void filter(Predicate.Op op, Field operand, BitSet rows, int base) {
+        int end = firstRow() + numRows();
+        for (int b = rows.nextSetBit(Math.max(0, firstRow() - base)); b >= 0 && base + b < end;
+             b = rows.nextSetBit(b + 1)) {
+            Field v = getValue(base + b - firstRow());
+            if (v == null || !v.compare(op, operand))
+                rows.clear(b);
+        }
+    }
+}
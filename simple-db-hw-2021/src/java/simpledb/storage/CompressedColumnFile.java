@@ -0,0 +1,150 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * CompressedColumnFile is a {@link ColumnFile} whose pages are {@link
+ * CompressedColumnPage}s: each page holds as many rows as fit once its
+ * values are encoded, so low-cardinality and narrow-range columns take a
+ * fraction of the pages they otherwise would.  Scans test predicates on the
+ * encoded values.
+ * <p>
+ * As pages hold varying numbers of rows, the row a page starts at is kept
+ * in its header, and read from there into a directory the first time the
+ * page is looked for.  Rows are only ever added after the last, so the
+ * space of deleted rows is not reused.
+ */
+public class CompressedColumnFile extends ColumnFile {
+
+    // the first row of each page of each column, for the pages seen so far
+    private final int[][] firstRows;
+    private final int[] known;
+
+    /**
+     * Constructs a compressed column file whose columns are stored next to
+     * f.
+     *
+     * @see ColumnFile#ColumnFile
+     */
+    public CompressedColumnFile(File f, TupleDesc td) {
+        super(f, td);
+        this.firstRows = new int[td.numFields()][16];
+        this.known = new int[td.numFields()];
+    }
+
+    Page wrapPage(ColumnPageId pid, byte[] image) {
+        return CompressedColumnPage.wrap(pid, getColumnDesc(pid.getColumn()).getFieldType(0), image);
+    }
+
+    public synchronized void reload() throws IOException {
+        super.reload();
+        Arrays.fill(known, 0);
+    }
+
+    // read the first rows of the pages of a column added since the last
+    // call; the rows of a page never change once it is written
+    private synchronized void refresh(int column) {
+        int n = numPages(column);
+        if (known[column] == n) {
+            return;
+        }
+        if (firstRows[column].length < n) {
+            firstRows[column] = Arrays.copyOf(firstRows[column], Math.max(n, firstRows[column].length * 2));
+        }
+        byte[] header = new byte[4];
+        try {
+            for (int i = known[column]; i < n; i++) {
+                getPageFile(column).read((long) BufferPool.getPageSize() * i, header);
+                firstRows[column][i] = ByteBuffer.wrap(header).getInt();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        known[column] = n;
+    }
+
+    synchronized ColumnPageId pageFor(int column, int row) {
+        // only the last page seen might have been followed by others
+        if (known[column] == 0 || row >= firstRows[column][known[column] - 1]) {
+            refresh(column);
+        }
+        int i = Arrays.binarySearch(firstRows[column], 0, known[column], row);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0) {
+            throw new NoSuchElementException("no page of column " + column + " holds row " + row);
+        }
+        return new ColumnPageId(getId(), column, i);
+    }
+
+    synchronized int firstRow(ColumnPageId pid) {
+        if (pid.getPageNumber() >= known[pid.getColumn()]) {
+            refresh(pid.getColumn());
+        }
+        return firstRows[pid.getColumn()][pid.getPageNumber()];
+    }
+
+    // the last page of a column, or null if it has none
+    private CompressedColumnPage lastPage(TransactionId tid, int column)
+            throws DbException, TransactionAbortedException {
+        int n = numPages(column);
+        if (n == 0) {
+            return null;
+        }
+        return (CompressedColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(getId(), column, n - 1), Permissions.READ_WRITE);
+    }
+
+    // a new page at the end of a column, starting at row
+    private CompressedColumnPage addPage(TransactionId tid, int column, int row)
+            throws DbException, IOException, TransactionAbortedException {
+        ColumnPageId pid = new ColumnPageId(getId(), column, numPages(column));
+        writePage(wrapPage(pid, CompressedColumnPage.createEmptyPageData(row)));
+        return (CompressedColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(getTupleDesc())) {
+            throw new DbException("Mismatch tupleDesc");
+        }
+        // the new row goes after the last of every column: they end at the
+        // same row unless an insert that added a page was rolled back
+        CompressedColumnPage[] last = new CompressedColumnPage[numColumns()];
+        int row = 0;
+        for (int c = 0; c < last.length; c++) {
+            last[c] = lastPage(tid, c);
+            if (last[c] != null) {
+                row = Math.max(row, last[c].firstRow() + last[c].numRows());
+            }
+        }
+        List<Page> pages = new ArrayList<>();
+        for (int c = 0; c < last.length; c++) {
+            CompressedColumnPage page = last[c];
+            if (page == null || !page.append(row, t.getField(c))) {
+                page = addPage(tid, c, row);
+                if (!page.append(row, t.getField(c))) {
+                    throw new DbException("value of column " + c + " does not fit on a page");
+                }
+            }
+            pages.add(page);
+        }
+        Page first = pages.get(0);
+        t.setRecordId(new RecordId(first.getId(), row - ((ColumnValues) first).firstRow()));
+        return pages;
+    }
+}
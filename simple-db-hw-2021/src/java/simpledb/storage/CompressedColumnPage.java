@@ -0,0 +1,252 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * CompressedColumnPage holds the values of one column of a {@link
+ * CompressedColumnFile} for a run of consecutive rows, as many as fit once
+ * encoded.  The page is laid out as
+ * <pre>
+ *   first row (int), number of rows (int), encoding (byte),
+ *   a bit per row, set while the row exists,
+ *   the values of all the rows, in the encoding
+ * </pre>
+ * where the encoding (see {@link ColumnEncoding}) is whichever takes the
+ * fewest bytes for the values the page holds when it is written.  Rows are
+ * only ever added after the last; a deleted row keeps its value and only
+ * loses its bit.
+ * <p>
+ * A page read from disk keeps its values encoded, reads them one at a time
+ * and tests predicates on them as they are.  Adding a value decodes them.
+ */
+public class CompressedColumnPage implements Page, ColumnValues {
+
+    private static final int HEADER_SIZE = 9;
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int firstRow;
+    private int numRows;
+    private final BitSet used;
+
+    // the values as read, until one is added
+    private byte[] image;
+    private int valuesOffset;
+    private ColumnEncoding.Reader reader;
+    // the values once one has been added, and what is known of them
+    private Field[] values;
+    private ColumnEncoding.Stats stats;
+    private Set<Field> distinct;
+
+    private byte[] before;
+    private final Object beforeLock = new Object();
+
+    private boolean dirty = false;
+    private TransactionId lastDirtyTid;
+
+    /**
+     * Create a CompressedColumnPage from bytes read from disk, in the format
+     * described above.
+     */
+    public CompressedColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, columnType(id), Arrays.copyOf(data, BufferPool.getPageSize()));
+    }
+
+    private CompressedColumnPage(ColumnPageId id, Type type, byte[] image) {
+        this.pid = id;
+        this.type = type;
+        ByteBuffer in = ByteBuffer.wrap(image);
+        this.firstRow = in.getInt(0);
+        this.numRows = in.getInt(4);
+        ColumnEncoding encoding = ColumnEncoding.values()[image[8]];
+        int bitmapSize = bitmapSize(numRows);
+        this.used = BitSet.valueOf(Arrays.copyOfRange(image, HEADER_SIZE, HEADER_SIZE + bitmapSize));
+        this.image = image;
+        this.valuesOffset = HEADER_SIZE + bitmapSize;
+        this.reader = encoding.reader(type, image, valuesOffset, numRows);
+        // the image is never changed, so it is its own before image
+        this.before = image;
+    }
+
+    // a page over an image no one else holds
+    static CompressedColumnPage wrap(ColumnPageId id, Type type, byte[] image) {
+        return new CompressedColumnPage(id, type, image);
+    }
+
+    private static Type columnType(ColumnPageId id) {
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        return f.getColumnDesc(id.getColumn()).getFieldType(0);
+    }
+
+    private static int bitmapSize(int rows) {
+        return (rows + 7) / 8;
+    }
+
+    /**
+     * @return the image of an empty page whose first value will be for the
+     *   given row
+     */
+    public static byte[] createEmptyPageData(int firstRow) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer.wrap(data).putInt(firstRow);
+        return data;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public int firstRow() {
+        return firstRow;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public boolean isRowUsed(int i) {
+        return used.get(i);
+    }
+
+    public Field getValue(int i) {
+        if (!used.get(i)) {
+            return null;
+        }
+        return values != null ? values[i] : reader.get(i);
+    }
+
+    public void deleteValue(int i) throws DbException {
+        if (!used.get(i)) {
+            throw new DbException("row " + (firstRow + i) + " of " + pid + " does not exist");
+        }
+        used.clear(i);
+    }
+
+    public void filter(Predicate.Op op, Field operand, BitSet rows, int base) {
+        if (values != null) {
+            ColumnValues.super.filter(op, operand, rows, base);
+        } else {
+            reader.filter(op, operand, rows, firstRow - base);
+        }
+    }
+
+    // decode the values, so more can be added
+    private void open() {
+        if (values != null) {
+            return;
+        }
+        values = new Field[Math.max(16, numRows * 2)];
+        stats = new ColumnEncoding.Stats(type);
+        distinct = new HashSet<>();
+        for (int i = 0; i < numRows; i++) {
+            values[i] = reader.get(i);
+            stats.add(values[i], distinct.add(values[i]));
+        }
+        image = null;
+        reader = null;
+    }
+
+    /**
+     * Add the value of a row after the last on this page, if it fits once
+     * encoded.  Rows between the last and this one are filled with the same
+     * value and left out.
+     *
+     * @return whether there was room for it
+     */
+    boolean append(int row, Field value) {
+        int end = firstRow + numRows;
+        if (row < end) {
+            throw new IllegalArgumentException("row " + row + " is before the end of " + pid);
+        }
+        open();
+        int added = row - end + 1;
+        ColumnEncoding.Stats next = new ColumnEncoding.Stats(stats);
+        boolean unseen = !distinct.contains(value);
+        for (int i = 0; i < added; i++) {
+            next.add(value, unseen && i == 0);
+        }
+        long size = HEADER_SIZE + bitmapSize(numRows + added)
+                + ColumnEncoding.choose(next).size(next);
+        if (size > BufferPool.getPageSize()) {
+            return false;
+        }
+        if (numRows + added > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, numRows + added));
+        }
+        Arrays.fill(values, numRows, numRows + added, value);
+        numRows += added;
+        used.set(row - firstRow);
+        stats = next;
+        distinct.add(value);
+        return true;
+    }
+
+    public byte[] getPageData() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(firstRow);
+        buf.putInt(numRows);
+        if (values == null) {
+            // unchanged but for deletes: the values are copied as they are
+            buf.put(image[8]);
+            putBitmap(buf);
+            buf.put(image, valuesOffset, image.length - valuesOffset);
+            return;
+        }
+        ColumnEncoding encoding = ColumnEncoding.choose(stats);
+        buf.put((byte) encoding.ordinal());
+        putBitmap(buf);
+        encoding.encode(buf, values, stats);
+        PageBuffers.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
+    }
+
+    private void putBitmap(ByteBuffer buf) {
+        byte[] bits = used.toByteArray();
+        int size = bitmapSize(numRows);
+        buf.put(bits, 0, Math.min(bits.length, size));
+        PageBuffers.putZeros(buf, size - Math.min(bits.length, size));
+    }
+
+    public CompressedColumnPage getBeforeImage() {
+        byte[] image;
+        synchronized (beforeLock) {
+            image = before;
+        }
+        return wrap(pid, type, image);
+    }
+
+    public void setBeforeImage() {
+        synchronized (beforeLock) {
+            before = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.lastDirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastDirtyTid : null;
+    }
+
+    public String toString() {
+        return "CompressedColumnPage(" + pid + ", rows " + firstRow + " to " + (firstRow + numRows) + ")";
+    }
+}
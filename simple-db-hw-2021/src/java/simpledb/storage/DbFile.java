@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -73,6 +74,57 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile, for a
+     * scan that needs only some of their fields.  Files that store columns
+     * apart (see {@link ColumnFile}) read only those; others read every
+     * field, as {@link #iterator(TransactionId)} does.
+     *
+     * @param columns the indexes of the fields needed, or null for all
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all the given predicates, for a scan that needs only some of their
+     * fields.  By default the tuples are read as by {@link
+     * #iterator(TransactionId, int[])} and tested one at a time; files that
+     * can test values before building tuples (see {@link ColumnFile})
+     * override this.
+     *
+     * @param columns the indexes of the fields needed, or null for all
+     * @param predicates the predicates the tuples returned satisfy
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        DbFileIterator all = iterator(tid, columns);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                all.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                all.rewind();
+            }
+
+            public void close() {
+                super.close();
+                all.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (all.hasNext()) {
+                    Tuple t = all.next();
+                    if (predicates.stream().allMatch(p -> p.filter(t)))
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,182 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, for each page of a {@link HeapFile}, roughly how
+ * much room the page has left, so an insert can go straight to a page that
+ * can take the tuple instead of trying every page in turn.
+ * <p>
+ * Each page gets a level of 4 bits, from {@link #FULL} (no room) up to
+ * {@link #MAX_LEVEL}; the file decides what a level means.  The levels are
+ * kept next to the table file, two pages to a byte, in a file named after
+ * it with <tt>.fsm</tt> appended.  A page's entry is written when the page
+ * itself is, so the map on disk describes the pages on disk.
+ * <p>
+ * The map is only a hint.  It is not logged, so after a crash, an abort or
+ * a restore an entry may be wrong either way: callers check the page they
+ * are sent to and correct its entry.  A page with no entry, e.g. one
+ * written before the map existed, is at {@link #MAX_LEVEL} until then.
+ * Deleting the map file is always safe.
+ */
+public class FreeSpaceMap implements Closeable {
+
+    /** Level of a page with no room. */
+    public static final int FULL = 0;
+    /** Level of an empty page, and of pages with no entry yet. */
+    public static final int MAX_LEVEL = 15;
+
+    private final File file;
+    private RandomAccessFile raf; // opened on the first write
+
+    private byte[] levels;     // as on disk: page p in byte p / 2, low nibble first
+    private int numPages;
+    private final BitSet hasRoom = new BitSet(); // pages above FULL
+    private int lowestRoom;    // no page below this has room
+
+    /**
+     * Load the map of a table file.
+     *
+     * @param tableFile the table file; the map lives next to it
+     * @param numPages the number of pages the table has; entries past it
+     *   are stale and ignored
+     */
+    public FreeSpaceMap(File tableFile, int numPages) throws IOException {
+        this.file = fileOf(tableFile);
+        this.levels = new byte[Math.max(16, (numPages + 1) / 2)];
+        this.numPages = numPages;
+        int known = 0;
+        if (file.exists()) {
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                int len = (int) Math.min(in.length(), (numPages + 1) / 2);
+                in.readFully(levels, 0, len);
+                known = Math.min(numPages, 2 * len);
+            }
+        }
+        for (int p = 0; p < numPages; p++) {
+            if (p >= known) {
+                store(p, MAX_LEVEL);
+            }
+            if (level(p) > FULL) {
+                hasRoom.set(p);
+            }
+        }
+    }
+
+    /** @return the file the map of a table file is kept in */
+    public static File fileOf(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    private int level(int page) {
+        int b = levels[page >> 1];
+        return (page & 1) == 0 ? b & 0xF : (b >> 4) & 0xF;
+    }
+
+    private void store(int page, int level) {
+        int i = page >> 1;
+        if (i >= levels.length) {
+            levels = Arrays.copyOf(levels, Math.max(i + 1, 2 * levels.length));
+        }
+        if ((page & 1) == 0) {
+            levels[i] = (byte) ((levels[i] & 0xF0) | level);
+        } else {
+            levels[i] = (byte) ((levels[i] & 0x0F) | (level << 4));
+        }
+    }
+
+    /** @return the level of a page, or {@link #MAX_LEVEL} for a page past
+        the end of the map */
+    public synchronized int getLevel(int page) {
+        return page < numPages ? level(page) : MAX_LEVEL;
+    }
+
+    /**
+     * Find a page whose level is at least the given one.
+     *
+     * @param minLevel the lowest acceptable level, above {@link #FULL}
+     * @param from the first page to consider
+     * @return the lowest such page at or after from, or -1 if there is none
+     */
+    public synchronized int findPage(int minLevel, int from) {
+        if (from <= lowestRoom) {
+            int first = hasRoom.nextSetBit(lowestRoom);
+            lowestRoom = first < 0 ? numPages : first;
+            from = lowestRoom;
+        }
+        for (int p = hasRoom.nextSetBit(from); p >= 0; p = hasRoom.nextSetBit(p + 1)) {
+            if (level(p) >= minLevel) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Set the level of a page in memory, growing the map if the page is
+     * new.
+     */
+    public synchronized void setLevel(int page, int level) {
+        if (level < FULL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level " + level);
+        }
+        if (numPages < page) {
+            lowestRoom = Math.min(lowestRoom, numPages);
+        }
+        for (int p = numPages; p < page; p++) {
+            store(p, MAX_LEVEL);
+            hasRoom.set(p);
+        }
+        numPages = Math.max(numPages, page + 1);
+        store(page, level);
+        if (level > FULL) {
+            hasRoom.set(page);
+            lowestRoom = Math.min(lowestRoom, page);
+        } else {
+            hasRoom.clear(page);
+        }
+    }
+
+    /**
+     * Set the level of a page and write its entry to disk.  The write is
+     * not forced: the map is a hint.
+     */
+    public synchronized void writeLevel(int page, int level) throws IOException {
+        setLevel(page, level);
+        writeLevels(page, page + 1);
+    }
+
+    /**
+     * Write the entries of the pages from first up to end, whose levels
+     * are set, to disk, e.g. after setting those of many new pages at
+     * once.  As with {@link #writeLevel}, the write is not forced.
+     */
+    public synchronized void writeLevels(int first, int end) throws IOException {
+        if (end <= first) {
+            return;
+        }
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        int from = first >> 1;
+        int to = ((end - 1) >> 1) + 1;
+        // a gap of zeroes would read back as full pages
+        from = (int) Math.min(from, raf.length());
+        raf.seek(from);
+        raf.write(levels, from, to - from);
+    }
+
+    /** Close the map file, if it was opened. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
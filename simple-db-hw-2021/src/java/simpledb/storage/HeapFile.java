@@ -22,10 +22,22 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** How a HeapFile lays out its pages. */
+    public enum PageFormat {
+        /** Fixed-size slots, see {@link HeapPage} */
+        FIXED,
+        /** Variable-length records behind a slot directory, see
+            {@link SlottedHeapPage} */
+        SLOTTED
+    }
+
     private File file;
-    private RandomAccessFile rf;
+    private PageFile pageFile;
     private TupleDesc td;
+    private PageFormat format;
     private Iterator<Tuple> it;
+    private FreeSpaceMap fsm; // loaded on first use
+    private PageFile overflow; // opened on first use
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -35,16 +47,69 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading it through memory mappings.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            whether to read pages through a {@link MappedPageFile};
+     *            worth it for tables that are read much more than written
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages in
+     * the given format.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            whether to read pages through a {@link MappedPageFile}
+     * @param format
+     *            the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, PageFormat format) {
         this.file = f;
         this.td = td;
+        this.format = format;
         try{
-            this.rf = new RandomAccessFile(f, "rw");
-        } catch (FileNotFoundException e){
+            this.pageFile = mapped ? new MappedPageFile(f) : new PageFile(f);
+        } catch (IOException e){
             e.printStackTrace();
         }
         //TODO: iterator?
     }
 
+    /**
+     * Deletes a table file, with the files a HeapFile keeps next to it:
+     * its {@link FreeSpaceMap} and its overflow pages.
+     */
+    public static void delete(File f) {
+        for (File side : new File[] { FreeSpaceMap.fileOf(f), overflowFile(f) }) {
+            side.delete();
+        }
+        f.delete();
+    }
+
+    /**
+     * Deletes a table file, as {@link #delete} does, when the virtual
+     * machine exits; for temporary tables.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        FreeSpaceMap.fileOf(f).deleteOnExit();
+        overflowFile(f).deleteOnExit();
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -83,49 +148,179 @@ public class HeapFile implements DbFile {
         if (pid.getTableId() != this.getId()) {
             throw new NoSuchElementException();
         }
-        FileInputStream fis = null;
-        try
-        {
-            fis = new FileInputStream(this.file);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
         int pageSize = BufferPool.getPageSize();
-        int pgNo = pid.getPageNumber();
-        int offSet = pageSize * pgNo;
-        long fileLength = this.file.length();
-        int size = Math.min((int) fileLength - offSet, pageSize);
-        byte[] pageData = new byte[size];
-        try
-        {
-            rf.seek(offSet);
-            rf.readFully(pageData);
-            return new HeapPage((HeapPageId) pid, pageData);
+        long offset = (long) pageSize * pid.getPageNumber();
+        try {
+            if (pid instanceof OverflowPageId) {
+                PageFile of = getOverflowPageFile();
+                if (offset >= of.size() && offset >= of.refreshSize()) {
+                    throw new IllegalArgumentException("Read past end of overflow file");
+                }
+                byte[] pageData = new byte[pageSize];
+                of.read(offset, pageData);
+                return OverflowPage.wrap((OverflowPageId) pid, pageData);
+            }
+            if (offset >= pageFile.size() && offset >= pageFile.refreshSize()) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
+            if (pageFile instanceof MappedPageFile && format == PageFormat.FIXED) {
+                // decode straight from the mapping; slotted pages change
+                // their image in place, so they are read into a copy
+                PageImage mapped = ((MappedPageFile) pageFile).image(offset, pageSize);
+                if (mapped != null) {
+                    return HeapPage.wrap((HeapPageId) pid, mapped);
+                }
+            }
+            // a short last page reads as padded with zeroes
+            byte[] pageData = new byte[pageSize];
+            pageFile.read(offset, pageData);
+            return newPage((HeapPageId) pid, pageData);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (IndexOutOfBoundsException e) {
-            System.out.println("fileLength: " + fileLength);
-            System.out.println("PageSize: " + pageSize);
-            System.out.println("PgNo: " + pgNo);
-            System.out.println("offSet: " + offSet);
-            System.out.println("size: " + offSet);
         }
         return null;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int offset = BufferPool.getPageSize() * page.getId().getPageNumber();
-        rf.seek(offset);
-        rf.write(page.getPageData());
+        long offset = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
+        if (page instanceof OverflowPage) {
+            getOverflowPageFile().write(offset, page);
+            page.markDirty(false, null);
+            return;
+        }
+        pageFile.write(offset, page);
         page.markDirty(false, null);
+        getFreeSpaceMap().writeLevel(page.getId().getPageNumber(), ((HeapPage) page).spaceLevel());
+    }
+
+    /**
+     * Returns the free space map of this HeapFile, loading it on first use.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (fsm == null) {
+            fsm = new FreeSpaceMap(file, numPages());
+        }
+        return fsm;
+    }
+
+    /**
+     * Returns the layout of the pages of this HeapFile.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    // a page of this file over an image no one else holds
+    private HeapPage newPage(HeapPageId pid, byte[] image) {
+        if (format == PageFormat.SLOTTED) {
+            return SlottedHeapPage.wrap(pid, image);
+        }
+        return HeapPage.wrap(pid, image);
+    }
+
+    /**
+     * Returns the file the overflow pages of this HeapFile are kept in,
+     * whether or not it exists yet.
+     *
+     * @see OverflowPage
+     */
+    public File getOverflowFile() {
+        return overflowFile(file);
+    }
+
+    private static File overflowFile(File f) {
+        return new File(f.getPath() + ".toast");
+    }
+
+    /**
+     * Returns the PageFile of the overflow pages of this HeapFile, creating
+     * the file on first use.
+     */
+    public synchronized PageFile getOverflowPageFile() throws IOException {
+        if (overflow == null) {
+            overflow = new PageFile(getOverflowFile());
+        }
+        return overflow;
+    }
+
+    // write the strings of t too long for a row to new overflow pages,
+    // adding the pages to dirtied; returns the number of the first page of
+    // each such field and -1 for the others, or null if there are none
+    private int[] writeOverflow(Tuple t, List<Page> dirtied) throws IOException {
+        int[] first = null;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (!SlottedHeapPage.needsOverflow(f)) {
+                continue;
+            }
+            if (first == null) {
+                first = new int[td.numFields()];
+                Arrays.fill(first, -1);
+            }
+            String s = ((StringField) f).getValue();
+            byte[] value = new byte[s.length()];
+            for (int j = 0; j < value.length; j++)
+                value[j] = (byte) s.charAt(j);
+            // last chunk first, so each page knows the next
+            int chunks = (value.length + OverflowPage.capacity() - 1) / OverflowPage.capacity();
+            int next = -1;
+            for (int c = chunks - 1; c >= 0; c--) {
+                byte[] image = OverflowPage.createPageData(next, value, c * OverflowPage.capacity());
+                // appending allocates the page, atomically
+                next = (int) (getOverflowPageFile().append(image) / BufferPool.getPageSize());
+                dirtied.add(OverflowPage.wrap(new OverflowPageId(getId(), next), image));
+            }
+            first[i] = next;
+        }
+        return first;
+    }
+
+    // insert t into a page, pointing it at its overflow pages if it has any
+    private static void insertInto(HeapPage page, Tuple t, int[] overflow) throws DbException {
+        if (overflow != null) {
+            ((SlottedHeapPage) page).insertTuple(t, overflow);
+        } else {
+            page.insertTuple(t);
+        }
+    }
+
+    /**
+     * Returns whether this HeapFile reads its pages through memory mappings.
+     */
+    public boolean isMapped() {
+        return pageFile instanceof MappedPageFile;
+    }
+
+    /**
+     * Returns the PageFile this HeapFile reads and writes through.
+     */
+    public PageFile getPageFile() {
+        return pageFile;
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) Math.ceil(file.length() * 1.0 / BufferPool.getPageSize());
+        try {
+            return pageCount(pageFile.refreshSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile as of its last write,
+     * without asking the file system.
+     */
+    int cachedNumPages() {
+        return pageCount(pageFile.size());
+    }
+
+    private static int pageCount(long size) {
+        int pageSize = BufferPool.getPageSize();
+        return (int) ((size + pageSize - 1) / pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -135,27 +330,42 @@ public class HeapFile implements DbFile {
         if (!t.getTupleDesc().equals(td)) {
             throw new DbException("Mismatch tupleDesc");
         }
-        HeapPage page = null;
-        for (int i = 0; i < numPages(); i += 1) {
+        List<Page> pages = new ArrayList<>();
+        int[] overflow = format == PageFormat.SLOTTED ? writeOverflow(t, pages) : null;
+        // try the pages the free space map says have room, skipping those
+        // other transactions hold rather than waiting for them
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        LockManager locks = Database.getBufferPool().getLockManager();
+        int numPages = numPages();
+        for (int i = fsm.findPage(1, 0); i >= 0 && i < numPages; i = fsm.findPage(1, i + 1)) {
             HeapPageId pid = new HeapPageId(this.getId(), i);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
-                page.insertTuple(t);
-                List<Page> pages = new ArrayList<>();
+            LockType held = locks.lockHeld(tid, pid);
+            if (held != LockType.EXCLUSIVE_LOCK && !locks.acquireLock(tid, pid, Permissions.READ_WRITE)) {
+                continue;
+            }
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                insertInto(page, t, overflow);
+                fsm.setLevel(i, page.spaceLevel());
                 pages.add(page);
                 return pages;
             }
+            // the map was stale, or the tuple is too long for what is
+            // left; the page is untouched, so let it go
+            fsm.setLevel(i, page.spaceLevel());
+            if (held == LockType.NO_LOCK) {
+                Database.getBufferPool().unsafeReleasePage(tid, pid);
+            }
         }
         // if all the pages have no empty slots
-        byte[] pageData = HeapPage.createEmptyPageData();
-        HeapPageId newPid = new HeapPageId(this.getId(), numPages());
-        HeapPage appendPage = new HeapPage(newPid, pageData);
+        HeapPageId newPid = new HeapPageId(this.getId(), numPages);
+        HeapPage appendPage = newPage(newPid, HeapPage.createEmptyPageData());
 
         writePage(appendPage); // write page before inserting the tuple
-        appendPage.insertTuple(t);
+        insertInto(appendPage, t, overflow);
+        fsm.setLevel(numPages, appendPage.spaceLevel());
 
         //writePage(appendPage); // write page
-        List<Page> pages = new ArrayList<>();
         pages.add(appendPage);
         return pages;
     }
@@ -176,6 +386,11 @@ public class HeapFile implements DbFile {
         } catch (DbException e) {
             e.printStackTrace();
         }
+        try {
+            getFreeSpaceMap().setLevel(page.getId().getPageNumber(), page.spaceLevel());
+        } catch (IOException e) {
+            throw new DbException("cannot read the free space map: " + e.getMessage());
+        }
         ArrayList<Page> pages = new ArrayList<>();
         pages.add(page);
         return pages;
@@ -70,12 +70,13 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
+    * Assume format of the input file is:<br>
     * int,...,int\n<br>
     * int,...,int\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, with fields of the types in typeAr.
+    * Longs, doubles and timestamps are written as {@link Type#parse(String)}
+    * reads them, e.g. 2021-03-14 or 2021-03-14 15:09:26 for a timestamp.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -147,6 +148,15 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
+            else if (typeAr[fieldNo] != Type.STRING_TYPE) {
+                // longs, doubles and dates/timestamps, written as
+                // Type.parse(String) reads them
+                try {
+                    typeAr[fieldNo].parse(s).serialize(pageStream);
+                } catch (IllegalArgumentException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
@@ -56,7 +56,7 @@ public class HeapFileIterator implements DbFileIterator{
                 return true;
             }
             currPage += 1;
-            if (currPage >= file.numPages()) {
+            if (currPage >= file.cachedNumPages() && currPage >= file.numPages()) {
                 PageIterator = null;
                 return false;
             }
@@ -96,7 +96,7 @@ public class HeapFileIterator implements DbFileIterator{
             //print
             // System.out.println();
 
-            if (currPage >= file.numPages()) {
+            if (currPage >= file.cachedNumPages() && currPage >= file.numPages()) {
                 PageIterator = null;
                 throw new NoSuchElementException();
             }
@@ -6,6 +6,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
 
@@ -22,10 +23,13 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    // the page as read; tuples are decoded from it when first asked for
+    final PageImage data;
+    final Tuple[] tuples; // null for empty slots and slots not decoded yet
     final int numSlots;
+    private int numEmptySlots;
 
-    byte[] oldData;
+    PageImage oldData;
     private final Byte oldDataLock= (byte) 0;
 
     private BitSet bitset;
@@ -50,27 +54,76 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(Arrays.copyOf(data, BufferPool.getPageSize()), id);
+    }
+
+    /**
+     * Create a HeapPage from a page image in a buffer, e.g. a view of a
+     * memory-mapped table file.
+     *
+     * @see MappedPageFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(copy(data), id);
+    }
+
+    // a page over an image no one else holds or changes, without copying it
+    static HeapPage wrap(HeapPageId id, byte[] image) {
+        return wrap(id, new PageImage(image));
+    }
+
+    // a page over an image, e.g. a view of a mapped file, without copying it
+    static HeapPage wrap(HeapPageId id, PageImage image) {
+        return new HeapPage(id, Database.getCatalog().getTupleDesc(id.getTableId()), image);
+    }
+
+    static byte[] copy(ByteBuffer data) {
+        byte[] image = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(image, 0, Math.min(image.length, data.remaining()));
+        return image;
+    }
+
+    // the page keeps image, which nothing else may change (the arguments
+    // are swapped to tell this apart from the public, copying constructor)
+    private HeapPage(byte[] image, HeapPageId id) {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), new PageImage(image));
+    }
+
+    /**
+     * A page of tuples of td over image; for pages that do not hold whole
+     * rows of their table (see {@link ColumnPage}).
+     */
+    HeapPage(HeapPageId id, TupleDesc td, PageImage image) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.data = image;
+        // the header is small and needed for every access, so it is read
+        // now; the tuples are left where they are
+        header = image.copyOf(0, getHeaderSize());
+        numEmptySlots = numSlots;
+        for (int i=0; i<header.length; i++) {
+            // ignore the bits past the last slot
+            int bits = Math.min(8, numSlots - 8 * i);
+            numEmptySlots -= Integer.bitCount(header[i] & ((1 << bits) - 1));
         }
-        dis.close();
-
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
 
+        // the image is never changed, so it is its own before image
+        oldData = image;
+    }
 
+    /**
+     * For subclasses that lay pages out differently; they override every
+     * method that reads the fixed-size slots, which this leaves empty.
+     */
+    HeapPage(HeapPageId id, TupleDesc td) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = 0;
+        this.data = null;
+        this.header = new byte[0];
+        this.tuples = new Tuple[0];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -92,25 +145,22 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        // before images are replaced, never changed
+        return wrap(pid, beforeImageData());
+    }
+
+    // the image of the page as of the last setBeforeImage
+    PageImage beforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData;
         }
-        return null;
     }
     
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = new PageImage(getPageData());
         }
     }
 
@@ -121,37 +171,25 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    // where a slot starts in the page image
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, decoding it (lazily, field by field) the
+     * first time it is asked for, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
@@ -167,64 +205,30 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(out));
+        return out;
+    }
 
-            // empty slot
+    public void writePageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.put(header);
+        int size = td.getSize();
+        for (int i=0; i<numSlots; i++) {
+            int offset = slotOffset(i);
+            Tuple t = tuples[i];
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+                PageBuffers.putZeros(buf, size);
+            } else if (t == null || t.isImageOf(data, offset)) {
+                // never decoded, or decoded but unchanged: copy the bytes
+                data.get(offset, buf, size);
+            } else {
+                for (int j=0; j<td.numFields(); j++) {
+                    t.getField(j).serialize(buf);
                 }
-                continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-
-        return baos.toByteArray();
+        PageBuffers.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
     }
 
     /**
@@ -252,7 +256,7 @@ public class HeapPage implements Page {
         RecordId targetRid = t.getRecordId();
         PageId targetPageId = targetRid.getPageId();
         int tupleno = targetRid.getTupleNumber();
-        Tuple tp = this.tuples[tupleno];
+        Tuple tp = getTuple(tupleno);
         if (tp == null || (!tp.getTupleDesc().equals(t.getTupleDesc())) || (!tp.toString().equals(t.toString()))) {
             throw new DbException("Target tuple is not existed.");
         } else
@@ -272,13 +276,11 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(td) || getNumEmptySlots() == 0) {
             throw new DbException("The page has no empty slots");
         }
-        int index = -1;
-        for (int i = 0; i < getNumTuples(); i += 1) {
-            if (!isSlotUsed(i)) {
-                index = i;
-                break;
-            }
-        }
+        // skip whole header bytes of used slots
+        int b = 0;
+        while (header[b] == (byte) 0xFF)
+            b++;
+        int index = 8 * b + Integer.numberOfTrailingZeros(~header[b]);
         t.setRecordId(new RecordId(pid, index));
         this.tuples[index] = t;
         markSlotUsed(index, true);
@@ -309,13 +311,33 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        for (int i = 0; i < numSlots; i += 1) {
-            if (!isSlotUsed(i)) {
-                count += 1;
-            }
+        return numEmptySlots;
+    }
+
+    /**
+     * Returns the number of slots on this page, used or not.
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns whether t would fit on this page.
+     */
+    boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns the free space map level of this page: above FULL while a
+     * tuple fits, then the fraction of slots that are empty.
+     */
+    int spaceLevel() {
+        int empty = getNumEmptySlots();
+        if (empty == 0) {
+            return FreeSpaceMap.FULL;
         }
-        return count;
+        return Math.max(1, empty * FreeSpaceMap.MAX_LEVEL / numSlots);
     }
 
     /**
@@ -333,12 +355,15 @@ public class HeapPage implements Page {
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(int i, boolean value) {
         if (i >= numSlots) {
             throw new NoSuchElementException();
         }
         int pageIndex = i / 8;
         int pageOffset = i % 8;
+        if (isSlotUsed(i) != value) {
+            numEmptySlots += value ? -1 : 1;
+        }
         if (!value) {
             header[pageIndex] = (byte) (header[pageIndex] & ~(0x00 | (byte)1 << pageOffset));
         } else {
@@ -355,4 +380,3 @@ public class HeapPage implements Page {
     }
 
 }
-
@@ -51,7 +51,8 @@ public class HeapPageId implements PageId {
         if (this == o) {
             return true;
         }
-        if (!(o instanceof HeapPageId)) {
+        // pages of other kinds that share this id's fields are not equal
+        if (o == null || o.getClass() != getClass()) {
             return false;
         } else {
             HeapPageId hpId = (HeapPageId) o;
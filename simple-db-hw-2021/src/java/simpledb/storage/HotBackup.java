@@ -0,0 +1,318 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Properties;
+
+/**
+ * HotBackup takes a backup of a running database and restores it, to its
+ * latest state or to an earlier point.
+ * <p>
+ * A backup is a directory (a bundle) holding a copy of every table file,
+ * the log from the oldest record recovery needs, and a manifest.  It is
+ * taken without stopping transactions:
+ * <ol>
+ * <li> A checkpoint is taken and the log is pinned from the oldest record
+ * recovery from that checkpoint would read (see {@link
+ * LogFile#pinCheckpoint}).
+ * <li> Each table file is copied page by page with FileChannel.transferTo
+ * while transactions go on changing it, so the copy is fuzzy: every page
+ * is as of some moment during the copy, and may even be torn.
+ * <li> The log is forced and copied up to its durable end, the
+ * consistent LSN.  Replaying the log to at least that point repairs
+ * every page of the copy: every change made to a page since the
+ * checkpoint is in it, starting with a full image.
+ * </ol>
+ * Until the backup is closed, {@link #archiveLog} copies the log written
+ * since into the bundle, so the database can later be restored to any
+ * point between the consistent LSN and the last archived record.
+ * <p>
+ * {@link #restore} writes the table files back where they came from and
+ * cuts the archived log at the chosen LSN or commit time; reopening the
+ * tables and running {@link LogFile#recover} then replays it.  Table ids
+ * are derived from the paths of their files, so tables must be restored
+ * to the same paths, and the log must use the same segment size.
+ */
+public class HotBackup implements Closeable {
+
+    private static final String MANIFEST = "backup.properties";
+    static final String LOG = "log";
+    // suffix of the copy of a table's overflow file
+    static final String OVERFLOW = ".toast";
+
+    private final File dir;
+    private final LogFile log;
+    private final Properties manifest;
+    private long archivedLsn;
+    private boolean closed;
+
+    private HotBackup(File dir, LogFile log, Properties manifest, long archivedLsn) {
+        this.dir = dir;
+        this.log = log;
+        this.manifest = manifest;
+        this.archivedLsn = archivedLsn;
+    }
+
+    /**
+     * Back up every table in the catalog, and the log, into the given
+     * directory.  The log stays pinned at the end of the backup until the
+     * returned object is closed.
+     *
+     * @param dir an empty or missing directory for the bundle
+     */
+    public static HotBackup start(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create backup directory " + dir);
+        }
+        LogFile log = Database.getLogFile();
+        Properties manifest = new Properties();
+        manifest.setProperty("startTime", Long.toString(System.currentTimeMillis()));
+        long checkpoint = log.pinCheckpoint();
+        long startLsn = log.getRecoveryStart(checkpoint);
+        try {
+            int n = 0;
+            Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+            while (it.hasNext()) {
+                int tableId = it.next();
+                DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+                File file = pageFile(table).getFile();
+                String copy = n + "-" + file.getName();
+                copyPages(file, new File(dir, copy));
+                File overflow = overflowFile(table);
+                if (overflow != null) {
+                    copyPages(overflow, new File(dir, copy + OVERFLOW));
+                    manifest.setProperty("table." + n + ".overflow", copy + OVERFLOW);
+                }
+                // the files of the other columns of a table stored by column
+                if (table instanceof ColumnFile) {
+                    ColumnFile cf = (ColumnFile) table;
+                    for (int c = 1; c < cf.numColumns(); c++) {
+                        File column = cf.getColumnFile(c);
+                        String columnCopy = n + "-" + column.getName();
+                        copyPages(column, new File(dir, columnCopy));
+                        manifest.setProperty("table." + n + ".column." + c + ".copy", columnCopy);
+                        manifest.setProperty("table." + n + ".column." + c + ".path", column.getAbsolutePath());
+                    }
+                }
+                manifest.setProperty("table." + n + ".id", Integer.toString(tableId));
+                manifest.setProperty("table." + n + ".name", Database.getCatalog().getTableName(tableId));
+                manifest.setProperty("table." + n + ".path", file.getAbsolutePath());
+                manifest.setProperty("table." + n + ".copy", copy);
+                n++;
+            }
+            manifest.setProperty("tables", Integer.toString(n));
+
+            long consistentLsn = log.getDurableLsn();
+            File bundleLog = new File(dir, LOG);
+            log.copyLog(bundleLog, startLsn, consistentLsn);
+            try (RandomAccessFile raf = new RandomAccessFile(bundleLog, "rw")) {
+                raf.setLength(0);
+                raf.writeLong(checkpoint);
+            }
+            manifest.setProperty("segmentSize", Long.toString(log.getSegmentSize()));
+            manifest.setProperty("checkpointLsn", Long.toString(checkpoint));
+            manifest.setProperty("startLsn", Long.toString(startLsn));
+            manifest.setProperty("consistentLsn", Long.toString(consistentLsn));
+            manifest.setProperty("consistentTime", Long.toString(System.currentTimeMillis()));
+
+            // hold the log from the end of the copy instead
+            log.pinLog(consistentLsn);
+            HotBackup backup = new HotBackup(dir, log, manifest, consistentLsn);
+            try {
+                backup.saveManifest(consistentLsn);
+            } catch (IOException e) {
+                backup.close();
+                throw e;
+            }
+            return backup;
+        } finally {
+            log.unpinLog(startLsn);
+        }
+    }
+
+    // the overflow file of a table, if it has one
+    static File overflowFile(DbFile f) {
+        if (f instanceof HeapFile && ((HeapFile) f).getOverflowFile().exists()) {
+            return ((HeapFile) f).getOverflowFile();
+        }
+        return null;
+    }
+
+    static PageFile pageFile(DbFile f) throws IOException {
+        if (f instanceof HeapFile) {
+            return ((HeapFile) f).getPageFile();
+        } else if (f instanceof BTreeFile) {
+            return ((BTreeFile) f).getPageFile();
+        } else if (f instanceof ColumnFile) {
+            // the other columns are copied after it
+            return ((ColumnFile) f).getPageFile(0);
+        }
+        throw new IOException("cannot back up table " + f.getId() + " of type " + f.getClass().getName());
+    }
+
+    // one transferTo per page, so the copy never holds more than a page
+    // of the file at once
+    static void copyPages(File from, File to) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(from, "r");
+             RandomAccessFile out = new RandomAccessFile(to, "rw")) {
+            FileChannel src = in.getChannel();
+            FileChannel dst = out.getChannel();
+            dst.truncate(0);
+            long size = src.size();
+            int pageSize = BufferPool.getPageSize();
+            for (long pos = 0; pos < size; pos += pageSize) {
+                long len = Math.min(pageSize, size - pos);
+                long done = 0;
+                while (done < len) {
+                    done += src.transferTo(pos + done, len - done, dst);
+                }
+            }
+            dst.force(true);
+        }
+    }
+
+    /** @return the LSN of the checkpoint recovery of a restore starts from */
+    public long getCheckpointLsn() {
+        return Long.parseLong(manifest.getProperty("checkpointLsn"));
+    }
+
+    /** @return the LSN a restore must replay the log to, at least */
+    public long getConsistentLsn() {
+        return Long.parseLong(manifest.getProperty("consistentLsn"));
+    }
+
+    /** @return the end of the log archived so far */
+    public synchronized long getArchivedLsn() {
+        return archivedLsn;
+    }
+
+    /**
+     * Copy the log written since the last call (or since the backup) into
+     * the bundle, so it can be restored up to now.
+     *
+     * @return the end of the archived log
+     */
+    public synchronized long archiveLog() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("backup has been closed");
+        }
+        long end = log.getDurableLsn();
+        if (end > archivedLsn) {
+            log.copyLog(new File(dir, LOG), archivedLsn, end);
+            log.pinLog(end);
+            log.unpinLog(archivedLsn);
+            archivedLsn = end;
+            saveManifest(end);
+        }
+        return archivedLsn;
+    }
+
+    /** Stop archiving and release the log. */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            log.unpinLog(archivedLsn);
+        }
+    }
+
+    private void saveManifest(long end) throws IOException {
+        manifest.setProperty("archivedLsn", Long.toString(end));
+        manifest.setProperty("archivedTime", Long.toString(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(new File(dir, MANIFEST))) {
+            manifest.store(out, "SimpleDB backup");
+        }
+    }
+
+    /**
+     * Restore a backup, replaying the archived log through the given LSN.
+     * Nothing may be using the restored tables or log meanwhile; reset
+     * the database afterwards, which reopens the log, and recover it.
+     *
+     * @param dir the backup bundle
+     * @param logFile the log to restore into, normally the database's
+     * @param stopLsn keep every record starting at or before this LSN;
+     *   Long.MAX_VALUE for all of them
+     * @return the LSN the log was cut at
+     * @throws IllegalArgumentException if that is before the consistent LSN
+     */
+    public static long restore(File dir, File logFile, long stopLsn) throws IOException {
+        return restore(dir, logFile, stopLsn, Long.MAX_VALUE);
+    }
+
+    /**
+     * Restore a backup, replaying the archived log up to a point in time:
+     * transactions that committed later are rolled back.
+     *
+     * @param millis keep commits made at or before this time, in
+     *   milliseconds since the epoch
+     * @see #restore(File, File, long)
+     */
+    public static long restoreToTime(File dir, File logFile, long millis) throws IOException {
+        return restore(dir, logFile, Long.MAX_VALUE, millis);
+    }
+
+    static Properties loadManifest(File dir) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = new FileInputStream(new File(dir, MANIFEST))) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+
+    private static long restore(File dir, File logFile, long stopLsn, long stopMillis) throws IOException {
+        Properties manifest = loadManifest(dir);
+        long segmentSize = Long.parseLong(manifest.getProperty("segmentSize"));
+        long checkpoint = Long.parseLong(manifest.getProperty("checkpointLsn"));
+        long startLsn = Long.parseLong(manifest.getProperty("startLsn"));
+        long consistentLsn = Long.parseLong(manifest.getProperty("consistentLsn"));
+
+        LogFile archive = new LogFile(new File(dir, LOG), segmentSize);
+        try {
+            long point = archive.findRestorePoint(checkpoint, stopLsn, stopMillis);
+            if (point < consistentLsn) {
+                throw new IllegalArgumentException("restore point " + point
+                        + " is before the end of the backup at " + consistentLsn);
+            }
+
+            int tables = Integer.parseInt(manifest.getProperty("tables"));
+            for (int n = 0; n < tables; n++) {
+                copyPages(new File(dir, manifest.getProperty("table." + n + ".copy")),
+                        new File(manifest.getProperty("table." + n + ".path")));
+                String overflow = manifest.getProperty("table." + n + ".overflow");
+                if (overflow != null) {
+                    copyPages(new File(dir, overflow),
+                            new File(manifest.getProperty("table." + n + ".path") + OVERFLOW));
+                }
+                for (int c = 1; manifest.getProperty("table." + n + ".column." + c + ".copy") != null; c++) {
+                    copyPages(new File(dir, manifest.getProperty("table." + n + ".column." + c + ".copy")),
+                            new File(manifest.getProperty("table." + n + ".column." + c + ".path")));
+                }
+            }
+
+            LogSegments target = new LogSegments(logFile, segmentSize);
+            target.reset();
+            target.close();
+            archive.copyLog(logFile, startLsn, point);
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(0);
+                raf.writeLong(checkpoint);
+                raf.getFD().sync();
+            }
+            return point;
+        } finally {
+            archive.close();
+        }
+    }
+}
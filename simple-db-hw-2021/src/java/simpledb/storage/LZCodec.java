@@ -0,0 +1,180 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZCodec is a small LZ77 compressor in the style of the LZ4 block format,
+ * used to compress log record payloads.  It trades ratio for speed: one
+ * hash probe per position, no entropy coding.  Page images compress well
+ * with it because they are mostly fixed-width tuples and zero padding.
+ * <p>
+ * The output is a series of sequences, each a token byte (literal count in
+ * the high nibble, match length - 4 in the low nibble, 15 meaning more
+ * length bytes follow), the literals, and a two-byte little-endian match
+ * offset.  The last sequence has literals only.
+ * <p>
+ * A codec instance holds its hash table and is not thread-safe;
+ * decompression is static.
+ */
+public class LZCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 12;
+    // after this many misses in a row, start skipping ahead faster
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    /** @return the most bytes compressing len bytes can produce */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compress src[off, off + len) into dst starting at dstOff.  dst must
+     * have room for {@link #maxCompressedLength}(len) bytes.
+     *
+     * @return the number of bytes written to dst
+     */
+    public int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        Arrays.fill(table, -1);
+        int end = off + len;
+        int anchor = off;
+        int i = off;
+        int o = dstOff;
+        int misses = 0;
+        while (i + MIN_MATCH <= end) {
+            int seq = readInt(src, i);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i += 1 + (misses++ >> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            int matchLen = MIN_MATCH;
+            while (i + matchLen < end && src[ref + matchLen] == src[i + matchLen]) {
+                matchLen++;
+            }
+
+            o = writeLiterals(src, anchor, i - anchor, matchLen - MIN_MATCH, dst, o);
+            int offset = i - ref;
+            dst[o++] = (byte) offset;
+            dst[o++] = (byte) (offset >>> 8);
+            if (matchLen - MIN_MATCH >= 15) {
+                o = writeLength(matchLen - MIN_MATCH - 15, dst, o);
+            }
+            i += matchLen;
+            anchor = i;
+        }
+        o = writeLiterals(src, anchor, end - anchor, 0, dst, o);
+        return o - dstOff;
+    }
+
+    /**
+     * Decompress src[off, off + len), which must decode to exactly rawLen
+     * bytes, into dst starting at dstOff.
+     *
+     * @throws IOException if the input is not valid compressed data
+     */
+    public static void decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int rawLen)
+        throws IOException {
+        int end = off + len;
+        int i = off;
+        int o = dstOff;
+        int oEnd = dstOff + rawLen;
+        while (true) {
+            if (i >= end) {
+                throw corrupt();
+            }
+            int token = src[i++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (i >= end) {
+                        throw corrupt();
+                    }
+                    b = src[i++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > end - i || literals > oEnd - o) {
+                throw corrupt();
+            }
+            System.arraycopy(src, i, dst, o, literals);
+            i += literals;
+            o += literals;
+            if (i == end) {
+                break; // the last sequence has no match
+            }
+
+            if (end - i < 2) {
+                throw corrupt();
+            }
+            int offset = (src[i++] & 0xff) | (src[i++] & 0xff) << 8;
+            int matchLen = token & 15;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    if (i >= end) {
+                        throw corrupt();
+                    }
+                    b = src[i++] & 0xff;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            int ref = o - offset;
+            if (offset == 0 || ref < dstOff || matchLen > oEnd - o) {
+                throw corrupt();
+            }
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, o, matchLen);
+                o += matchLen;
+            } else {
+                // overlapping match: a repeating pattern
+                for (int k = 0; k < matchLen; k++) {
+                    dst[o++] = dst[ref++];
+                }
+            }
+        }
+        if (o != oEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("corrupt compressed data");
+    }
+
+    // a token and its literals; the match length nibble comes from the caller
+    private static int writeLiterals(byte[] src, int from, int count, int matchCode, byte[] dst, int o) {
+        dst[o++] = (byte) (Math.min(count, 15) << 4 | Math.min(matchCode, 15));
+        if (count >= 15) {
+            o = writeLength(count - 15, dst, o);
+        }
+        System.arraycopy(src, from, dst, o, count);
+        return o + count;
+    }
+
+    private static int writeLength(int n, byte[] dst, int o) {
+        while (n >= 255) {
+            dst[o++] = (byte) 255;
+            n -= 255;
+        }
+        dst[o++] = (byte) n;
+        return o;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
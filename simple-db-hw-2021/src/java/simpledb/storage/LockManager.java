@@ -11,9 +11,6 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.locks.*;
-enum LockType {
-    NO_LOCK, SHARED_LOCK, EXCLUSIVE_LOCK,
-}
 public class LockManager {
     public class PageLock{
         public TransactionId tid;
@@ -109,6 +106,16 @@ public class LockManager {
         }
     }
 
+    // tidOwnLock, safe to call while other transactions lock pages
+    LockType lockHeld(TransactionId tid, PageId pid) {
+        globalLock.lock();
+        try {
+            return tidOwnLock(tid, pid);
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
     public LockType tidOwnLock(TransactionId tid, PageId pid) {
         if (!pidToLocks.containsKey(pid) || pidToLocks.get(pid).isEmpty()) {
             return LockType.NO_LOCK;
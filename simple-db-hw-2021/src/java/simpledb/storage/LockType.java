@@ -0,0 +1,9 @@
+package simpledb.storage;
+
+/**
+ * The lock a transaction holds on a page, as the {@link LockManager} keeps
+ * track of it.
+ */
+enum LockType {
+    NO_LOCK, SHARED_LOCK, EXCLUSIVE_LOCK,
+}
@@ -0,0 +1,250 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer is the in-memory staging area that sits in front of the log
+ * file.  Appending a record is split into three steps so that threads do
+ * not have to serialize on a single monitor:
+ *
+ * <ul>
+ * <li> {@link #reserve} claims an LSN range with a compare-and-swap on the
+ * end of the log.  The LSN of a record is its byte offset in the log.
+ * <li> {@link #write} copies the already serialized record into its
+ * reserved range of a circular byte array.  Any number of threads may be
+ * copying at the same time.
+ * <li> {@link #flushTo} is the single writer: whichever thread holds the
+ * flush monitor pushes the longest contiguous run of completed records to
+ * the {@link LogStore}, so one write call covers many records (group
+ * commit).
+ * </ul>
+ *
+ * Records larger than the buffer itself are written straight to the store
+ * once everything before them has been flushed.
+ *
+ * @see LogFile
+ */
+public class LogBuffer {
+
+    /** Default capacity of the circular buffer, in bytes. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private final byte[] buf;
+    private LogStore store;
+
+    // next LSN to hand out; advanced with a CAS by reserve()
+    private final AtomicLong reserved = new AtomicLong();
+    // everything below this LSN has been written to the channel
+    private volatile long flushed;
+    // everything below this LSN has been forced to disk
+    private volatile long durable;
+    // start LSN -> length of records that are copied in but not yet flushed
+    private final Map<Long, Integer> filled = new ConcurrentSkipListMap<>();
+
+    private final Object flushLock = new Object();
+    private final Object forceLock = new Object();
+    private volatile int waiters = 0;
+
+    /**
+     * Create a buffer appending to the given store.
+     *
+     * @param store where flushed records go
+     * @param endOfLog the current length of the log, i.e. the first LSN to hand out
+     * @param capacity the size of the circular buffer in bytes
+     */
+    public LogBuffer(LogStore store, long endOfLog, int capacity) {
+        this.buf = new byte[capacity];
+        reset(store, endOfLog);
+    }
+
+    /**
+     * Create a buffer appending to a single file, where an LSN is a file
+     * offset.
+     */
+    public LogBuffer(FileChannel channel, long endOfLog, int capacity) {
+        this(new ChannelStore(channel), endOfLog, capacity);
+    }
+
+    /**
+     * Point the buffer at a (possibly new) store.  Must only be called when
+     * no appends are in flight and the buffer has been drained.
+     */
+    public void reset(LogStore store, long endOfLog) {
+        this.store = store;
+        this.filled.clear();
+        this.reserved.set(endOfLog);
+        this.flushed = endOfLog;
+        this.durable = endOfLog;
+    }
+
+    /** @return the LSN the next reserved record will start at */
+    public long getEndLsn() {
+        return reserved.get();
+    }
+
+    /** @return the LSN below which every record has reached the store */
+    public long getFlushedLsn() {
+        return flushed;
+    }
+
+    /** @return the LSN below which every record has been forced to disk */
+    public long getDurableLsn() {
+        return durable;
+    }
+
+    /**
+     * Reserve len bytes at the end of the log.
+     *
+     * @return the LSN of the first reserved byte
+     */
+    public long reserve(int len) {
+        while (true) {
+            long start = reserved.get();
+            if (reserved.compareAndSet(start, start + len)) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Copy a record into a range previously obtained from {@link #reserve}.
+     * Blocks while the circular buffer has no room for the range.
+     */
+    public void write(long lsn, byte[] data, int len) throws IOException {
+        if (len > buf.length) {
+            writeThrough(lsn, data, len);
+            return;
+        }
+        // the record at 'flushed' never waits here, so this cannot deadlock
+        while (lsn + len - flushed > buf.length) {
+            flushTo(lsn);
+        }
+        int pos = (int) (lsn % buf.length);
+        int first = Math.min(len, buf.length - pos);
+        System.arraycopy(data, 0, buf, pos, first);
+        if (first < len) {
+            System.arraycopy(data, first, buf, 0, len - first);
+        }
+        filled.put(lsn, len);
+        if (waiters > 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write every record that starts below lsn to the store.  Waits for
+     * threads that reserved earlier ranges to finish copying them in.
+     */
+    public void flushTo(long lsn) throws IOException {
+        if (flushed >= lsn) {
+            return;
+        }
+        synchronized (flushLock) {
+            waiters++;
+            try {
+                drainUntil(lsn);
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Flush every record reserved so far and force the store to disk.
+     * Concurrent callers share a single fsync.
+     */
+    public void force() throws IOException {
+        long target = reserved.get();
+        flushTo(target);
+        if (durable >= target) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durable < target) {
+                long upTo = flushed;
+                store.force();
+                durable = upTo;
+            }
+        }
+    }
+
+    // drain until everything below lsn is in the store. caller holds flushLock.
+    private void drainUntil(long lsn) throws IOException {
+        while (flushed < lsn) {
+            if (!drain()) {
+                try {
+                    flushLock.wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while flushing log", e);
+                }
+            }
+        }
+    }
+
+    // write the contiguous run of filled records starting at 'flushed'.
+    // caller holds flushLock. returns false if nothing could be written.
+    private boolean drain() throws IOException {
+        long start = flushed;
+        long end = start;
+        Integer len;
+        while ((len = filled.remove(end)) != null) {
+            end += len;
+        }
+        if (end == start) {
+            return false;
+        }
+        long pos = start;
+        while (pos < end) {
+            int idx = (int) (pos % buf.length);
+            int n = (int) Math.min(end - pos, buf.length - idx);
+            store.write(ByteBuffer.wrap(buf, idx, n), pos);
+            pos += n;
+        }
+        flushed = end;
+        flushLock.notifyAll();
+        return true;
+    }
+
+    private void writeThrough(long lsn, byte[] data, int len) throws IOException {
+        synchronized (flushLock) {
+            waiters++;
+            try {
+                drainUntil(lsn);
+                store.write(ByteBuffer.wrap(data, 0, len), lsn);
+                flushed = lsn + len;
+                flushLock.notifyAll();
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /** A single log file, written with positional channel writes. */
+    private static class ChannelStore implements LogStore {
+        private final FileChannel channel;
+
+        ChannelStore(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(ByteBuffer src, long lsn) throws IOException {
+            while (src.hasRemaining()) {
+                lsn += channel.write(src, lsn);
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            channel.force(true);
+        }
+    }
+}
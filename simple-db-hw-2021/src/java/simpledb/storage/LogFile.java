@@ -6,8 +6,17 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -18,9 +27,18 @@ two-phase locking discipline are followed.  <p>
 <u> Locking note: </u>
 <p>
 
-Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
+Appending a record (BEGIN, UPDATE, COMMIT) is not synchronized: the
+record is serialized by the calling thread and handed to a {@link
+LogBuffer}, which reserves its LSN range with a CAS and lets a single
+writer flush contiguous runs of records to the file.  Appenders hold the
+read side of appendLock; operations that read or rewrite the log file
+(rollback, checkpoint, truncation, recovery) take the write side, which
+waits for in-flight appends and then drains the buffer.
+
+<p>
+
+Those maintenance methods are synchronized; many of the methods in
+BufferPool are also synchronized (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
 pages (on checkpoints and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
@@ -43,57 +61,225 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log file itself holds a single long integer: the LSN of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> Log records are stored in fixed-size segment files next to the log
+file (see {@link LogSegments}).  Together the segments form one address
+space, and the LSN of a record is its position in that space.  Log
+records are variable length and may span two segments.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with its total length in bytes and the
+CRC32C of everything after these two integers (see {@link CRC32C}),
+followed by an integer type and a long integer transaction id.  The
+length lets readers skip a record without parsing it; a record whose
+length or checksum does not hold up marks the end of the log.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with two long integers: the LSN of the
+previous record of the same transaction (-1 for its first record, and
+for records that belong to no transaction), and the LSN where the record
+itself began.  The first of these chains a transaction's records
+backward, so rollback visits only the transaction's own records.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
-<li> ABORT, COMMIT, and BEGIN records contain no additional data
+<li> ABORT and BEGIN records contain no additional data
+
+<li> COMMIT records hold the commit time, a long integer of milliseconds
+since the epoch, so an archived log can be replayed up to a point in
+time (see {@link HotBackup})
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
+after image.  These images are serialized Page objects: a one-byte page
+type tag, the page id (a one-byte id type tag followed by the id's
+fields), the length of the page data and the data itself; the tags are
+those of {@link PageCodecs}.  They can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  An UPDATE record is only
+written for the first change to a page after a checkpoint.
+
+<li> DELTA records describe every later change to that page.  They hold
+the page's type tag and id (as in a page image), followed
+by a {@link PageDelta}: the byte ranges that changed with their old and
+new contents.
+
+<li> The payload of an UPDATE or DELTA record may be compressed with
+{@link LZCodec} (see {@link #setCompression}).  Such a record has
+COMPRESSED_FLAG set in its type, and its payload is the uncompressed
+length, the compressed length and the compressed bytes.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first and last log records.  The
+format of the record is an integer count of the number of transactions,
+as well as a long integer transaction id, a long integer first record
+offset and a long integer last record offset for each active
+transaction.  This is followed by the dirty page table:
+an integer count of pages, and for each page its tagged id, and
+the long integer offset of the first record logged for it that may not
+yet be in its file (its recLSN).
 
 </ul>
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private RandomAccessFile raf; // holds the LSN of the last checkpoint
+    private final LogSegments segments;
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    // set in the type of a record whose payload is compressed
+    static final int COMPRESSED_FLAG = 0x100;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
-
-    long currentOffset = -1;//protected by this
+    // length and CRC32C ahead of the type
+    final static int RECORD_HEADER_SIZE = 2 * INT_SIZE;
+    // a record with no payload
+    final static int MIN_RECORD_SIZE = RECORD_HEADER_SIZE + INT_SIZE + 3 * LONG_SIZE;
+    // the previous LSN and start LSN at the end of every record
+    final static int RECORD_TRAILER_SIZE = 2 * LONG_SIZE;
+    static final long NO_PREV_LSN = -1;
+
+    private static int redoThreads = Runtime.getRuntime().availableProcessors();
+    private static volatile boolean compression = true;
+    private static volatile long asyncCommitWindowMillis = 10;
+    // payloads smaller than this are never worth compressing
+    private static final int MIN_COMPRESS_SIZE = 64;
+
+    // appenders hold the read lock, log maintenance holds the write lock
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private final LogBuffer buffer;
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    final Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+    // the newest record of each active transaction, the head of its chain
+    private final Map<Long,Long> tidToLastLogRecord = new ConcurrentHashMap<>();
+    // pages with a full image in the log since the last checkpoint
+    private final Set<PageId> imagedSinceCheckpoint = ConcurrentHashMap.newKeySet();
+    // dirty page table: page -> offset of the first record logged for it
+    // since it was last written to its file
+    final Map<PageId,Long> dirtyPages = new ConcurrentHashMap<>();
+    // pinned LSN -> number of pins; guarded by this
+    private final TreeMap<Long, Integer> logPins = new TreeMap<>();
+    // primary table id -> local table id, for a replica's copy of the log
+    private volatile Map<Integer, Integer> tableMap;
+    // LSN of the last checkpoint record, or of the first record if none
+    private volatile long checkpointOffset = 0;
+
+    // asynchronous commits not yet known to be durable, roughly oldest
+    // first: {LSN of the COMMIT record, System.nanoTime() of the commit}
+    private final Queue<long[]> asyncCommits = new ConcurrentLinkedQueue<>();
+    private volatile long maxAsyncCommitLagNanos = 0;
+    private AsyncCommitFlusher flusher; // started by the first async commit
+
+    /** Growable array a record is serialized into before it is copied
+        into the log buffer; one per appending thread. */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+        final CRC32C crc = new CRC32C();
+        long tid; // the record's transaction, or -1
+        // for compressing this record's payload, created on first use
+        LZCodec codec;
+        byte[] scratch;
+        RecordBuffer packed;
+
+        RecordBuffer() {
+            super(2 * BufferPool.getPageSize() + 256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void patchInt(int off, int v) {
+            for (int i = INT_SIZE - 1; i >= 0; i--) {
+                buf[off + i] = (byte) v;
+                v >>>= 8;
+            }
+        }
+
+        void patchLong(int off, long v) {
+            for (int i = LONG_SIZE - 1; i >= 0; i--) {
+                buf[off + i] = (byte) v;
+                v >>>= 8;
+            }
+        }
+    }
+
+    private static final ThreadLocal<RecordBuffer> recordBuffers = ThreadLocal.withInitial(RecordBuffer::new);
+
+    /** The type tag and id of a page as logged ahead of its image or delta. */
+    static class PageRef {
+        final int pageTag;
+        final PageId pid;
+
+        PageRef(int pageTag, PageId pid) {
+            this.pageTag = pageTag;
+            this.pid = pid;
+        }
+
+        Page newPage(byte[] data) throws IOException {
+            return PageCodecs.decode(pageTag, pid, data);
+        }
+    }
+
+    /** An UPDATE or DELTA record read back from the log. */
+    static class LoggedUpdate {
+        final PageRef page;
+        final byte[] before; // UPDATE records only
+        final byte[] after;  // UPDATE records only
+        final PageDelta delta; // DELTA records only
+
+        LoggedUpdate(PageRef page, byte[] before, byte[] after, PageDelta delta) {
+            this.page = page;
+            this.before = before;
+            this.after = after;
+            this.delta = delta;
+        }
+
+        /** Reapply this change to the working copy of its page. */
+        void redo(Map<PageId, byte[]> working) throws IOException {
+            if (delta == null) {
+                working.put(page.pid, after);
+            } else {
+                delta.redo(workingImage(working));
+            }
+        }
+
+        /** Revert this change on the working copy of its page. */
+        void undo(Map<PageId, byte[]> working) throws IOException {
+            if (delta == null) {
+                working.put(page.pid, before);
+            } else {
+                delta.undo(workingImage(working));
+            }
+        }
+
+        // the page as recovery has rebuilt it so far, or as it is on disk
+        private byte[] workingImage(Map<PageId, byte[]> working) {
+            byte[] data = working.get(page.pid);
+            if (data == null) {
+                DbFile file = Database.getCatalog().getDatabaseFile(page.pid.getTableId());
+                // table files read through one shared handle, so parallel
+                // redo workers take turns
+                synchronized (file) {
+                    data = file.readPage(page.pid).getPageData();
+                }
+                working.put(page.pid, data);
+            }
+            return data;
+        }
+    }
 
-    final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
     class LogRecord {
         static int REDO = 0;
         static int UNDO = 1;
@@ -117,9 +303,30 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+
+        @param f The log file's name; segments are stored next to it
+        @param segmentSize The size of each log segment, in bytes
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
+        this(f, new LogSegments(f, segmentSize));
+    }
+
+    /** Constructor.
+
+        @param f The log file's name
+        @param segments Where the log records are stored, e.g. a {@link
+        MappedLogSegments}
+    */
+    public LogFile(File f, LogSegments segments) throws IOException {
 	    this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        this.segments = segments;
         recoveryUndecided = true;
+        buffer = new LogBuffer(segments, segments.getEndLsn(), LogBuffer.DEFAULT_CAPACITY);
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -136,19 +343,161 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                if (recoveryUndecided) {
+                    raf.seek(0);
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    segments.reset();
+                    buffer.reset(segments, 0);
+                    checkpointOffset = 0;
+                    recoveryUndecided = false;
+                }
+            }
+        }
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /** Start serializing a record of the given type; the caller appends
+        the payload and hands the buffer to {@link #append}. */
+    private RecordBuffer startRecord(int type, long tid) throws IOException {
+        RecordBuffer rec = recordBuffers.get();
+        rec.reset();
+        rec.out.writeInt(0); // length and checksum, patched by append
+        rec.out.writeInt(0);
+        rec.out.writeInt(type);
+        rec.out.writeLong(tid);
+        rec.tid = tid;
+        return rec;
+    }
+
+    /** Finish a record with its length, previous and start LSNs and
+        checksum and copy it into the log buffer.  Many threads may be in
+        here at once.
+        @return the LSN (file offset) the record starts at */
+    private long append(RecordBuffer rec) throws IOException {
+        rec.out.writeLong(0); // previous and start LSN, patched once the LSN is known
+        rec.out.writeLong(0);
+        int len = rec.size();
+        rec.patchInt(0, len);
+        // checksum everything but the trailer outside the lock
+        rec.crc.reset();
+        rec.crc.update(rec.array(), RECORD_HEADER_SIZE, len - RECORD_HEADER_SIZE - RECORD_TRAILER_SIZE);
+        appendLock.readLock().lock();
+        try {
+            long lsn;
+            long prev = NO_PREV_LSN;
+            if (rec.tid == NO_CHECKPOINT_ID) {
+                lsn = buffer.reserve(len);
+            } else {
+                // reserve and link atomically, as pages of one transaction
+                // may be logged by several threads
+                long[] linked = new long[2];
+                tidToLastLogRecord.compute(rec.tid, (tid, last) -> {
+                    linked[0] = buffer.reserve(len);
+                    linked[1] = last == null ? NO_PREV_LSN : last;
+                    return linked[0];
+                });
+                lsn = linked[0];
+                prev = linked[1];
+            }
+            rec.patchLong(len - RECORD_TRAILER_SIZE, prev);
+            rec.patchLong(len - LONG_SIZE, lsn);
+            rec.crc.update(rec.array(), len - RECORD_TRAILER_SIZE, RECORD_TRAILER_SIZE);
+            rec.patchInt(INT_SIZE, (int) rec.crc.getValue());
+            buffer.write(lsn, rec.array(), len);
+            return lsn;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    /** Compress the payload of an UPDATE or DELTA record if compression
+        is on and it makes the record smaller.  A compressed record has
+        {@link #COMPRESSED_FLAG} set in its type, and its payload is the
+        uncompressed length, the compressed length and the {@link LZCodec}
+        output.
+        @return the buffer to append: rec itself or a compressed copy */
+    private RecordBuffer compress(RecordBuffer rec) throws IOException {
+        int header = RECORD_HEADER_SIZE + INT_SIZE + LONG_SIZE;
+        int rawLen = rec.size() - header;
+        if (!compression || rawLen < MIN_COMPRESS_SIZE) {
+            return rec;
+        }
+        if (rec.codec == null) {
+            rec.codec = new LZCodec();
+            rec.packed = new RecordBuffer();
+        }
+        int max = LZCodec.maxCompressedLength(rawLen);
+        if (rec.scratch == null || rec.scratch.length < max) {
+            rec.scratch = new byte[max];
+        }
+        int compLen = rec.codec.compress(rec.array(), header, rawLen, rec.scratch, 0);
+        if (compLen + 2 * INT_SIZE >= rawLen) {
+            return rec;
+        }
+        byte[] b = rec.array();
+        int t = RECORD_HEADER_SIZE;
+        int type = (b[t] & 0xff) << 24 | (b[t + 1] & 0xff) << 16 | (b[t + 2] & 0xff) << 8 | (b[t + 3] & 0xff);
+        RecordBuffer packed = rec.packed;
+        packed.reset();
+        packed.tid = rec.tid;
+        packed.out.writeInt(0); // length and checksum
+        packed.out.writeInt(0);
+        packed.out.writeInt(type | COMPRESSED_FLAG);
+        packed.write(b, t + INT_SIZE, LONG_SIZE); // tid
+        packed.out.writeInt(rawLen);
+        packed.out.writeInt(compLen);
+        packed.write(rec.scratch, 0, compLen);
+        return packed;
+    }
+
+    /** @return a reader positioned at the type of the record at the given
+        LSN, past its length and checksum; only for records already known
+        to be intact */
+    private LogReader openRecord(long lsn) {
+        return new LogReader(segments, lsn + RECORD_HEADER_SIZE);
+    }
+
+    /** @return the payload of a record, positioned just after its type
+        and transaction id: in itself, or a stream over the decompressed
+        payload if the type has {@link #COMPRESSED_FLAG} set */
+    private static DataInput payload(int recordType, DataInput in) throws IOException {
+        if ((recordType & COMPRESSED_FLAG) == 0) {
+            return in;
+        }
+        int rawLen = in.readInt();
+        int compLen = in.readInt();
+        if (rawLen < 0 || compLen < 0 || compLen > LZCodec.maxCompressedLength(rawLen)) {
+            throw new IOException("corrupt compressed record");
+        }
+        byte[] comp = new byte[compLen];
+        in.readFully(comp);
+        byte[] raw = new byte[rawLen];
+        LZCodec.decompress(comp, 0, compLen, raw, 0, rawLen);
+        return new DataInputStream(new ByteArrayInputStream(raw));
+    }
+
+    /** Wait for in-flight appends, take exclusive ownership of the log
+        file and push everything buffered into it.  Must be paired with
+        {@link #endExclusive}. */
+    private void beginExclusive() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            buffer.flushTo(buffer.getEndLsn());
+        } catch (IOException e) {
+            appendLock.writeLock().unlock();
+            throw e;
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    private void endExclusive() {
+        appendLock.writeLock().unlock();
     }
     
     /** Write an abort record to the log for the specified tid, force
@@ -170,12 +519,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                append(startRecord(ABORT_RECORD, tid.getId()));
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
     }
@@ -185,17 +532,146 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        append(commitRecord(tid));
         force();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToLastLogRecord.remove(tid.getId());
+    }
+
+    private RecordBuffer commitRecord(TransactionId tid) throws IOException {
+        RecordBuffer rec = startRecord(COMMIT_RECORD, tid.getId());
+        rec.out.writeLong(System.currentTimeMillis());
+        return rec;
+    }
+
+    /** Write a commit record for the specified tid without waiting for
+        it to reach the disk.  A background thread forces the log within
+        {@link #setAsyncCommitWindow} milliseconds, so a crash loses at
+        most the asynchronous commits of that window; they are lost
+        whole, since their changes can only reach the table files after
+        their records are durable.  See {@link #getAsyncCommitLagMillis}.
+
+        @param tid The committing transaction.
+    */
+    public void logCommitAsync(TransactionId tid) throws IOException {
+        preAppend();
+        Debug.log("ASYNC COMMIT " + tid.getId());
+        long lsn = append(commitRecord(tid));
+        tidToFirstLogRecord.remove(tid.getId());
+        tidToLastLogRecord.remove(tid.getId());
+        asyncCommits.add(new long[] { lsn, System.nanoTime() });
+        AsyncCommitFlusher f;
+        synchronized (asyncCommits) {
+            if (flusher == null) {
+                flusher = new AsyncCommitFlusher();
+                flusher.start();
+            }
+            f = flusher;
+        }
+        f.wakeUp();
+    }
+
+    /** @return how long, in milliseconds, the oldest asynchronous commit
+        not yet durable has been waiting; 0 if there is none */
+    public long getAsyncCommitLagMillis() {
+        retireAsyncCommits();
+        long[] oldest = asyncCommits.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest[1]) / 1000000;
+    }
+
+    /** @return the number of asynchronous commits not yet durable */
+    public int getPendingAsyncCommits() {
+        retireAsyncCommits();
+        return asyncCommits.size();
+    }
+
+    /** @return the longest any asynchronous commit has waited to become
+        durable, in milliseconds */
+    public long getMaxAsyncCommitLagMillis() {
+        retireAsyncCommits();
+        return maxAsyncCommitLagNanos / 1000000;
+    }
+
+    /** Set how long an asynchronous commit may wait before the log is
+        forced on its behalf. */
+    public static void setAsyncCommitWindow(long millis) {
+        asyncCommitWindowMillis = millis;
+    }
+
+    /** @return how long an asynchronous commit may wait before the log is
+        forced on its behalf, in milliseconds */
+    public static long getAsyncCommitWindow() {
+        return asyncCommitWindowMillis;
+    }
+
+    // drop the asynchronous commits that have reached the disk, noting
+    // how long they took
+    private void retireAsyncCommits() {
+        long durable = buffer.getDurableLsn();
+        long now = System.nanoTime();
+        long[] oldest;
+        while ((oldest = asyncCommits.peek()) != null && oldest[0] < durable) {
+            if (asyncCommits.remove(oldest)) {
+                maxAsyncCommitLagNanos = Math.max(maxAsyncCommitLagNanos, now - oldest[1]);
+            }
+        }
+    }
+
+    /**
+     * Forces the log on behalf of asynchronous commits: once one is
+     * pending, waits out the commit window so that every commit arriving
+     * meanwhile shares the same fsync, then forces.
+     */
+    private class AsyncCommitFlusher extends Thread {
+        private volatile boolean running = true;
+
+        AsyncCommitFlusher() {
+            super("simpledb-async-commit-flusher");
+            setDaemon(true);
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    synchronized (this) {
+                        while (running && asyncCommits.isEmpty()) {
+                            wait();
+                        }
+                        if (running) {
+                            wait(Math.max(1, asyncCommitWindowMillis));
+                        }
+                    }
+                    if (running) {
+                        force();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    // try again next round
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            wakeUp();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -206,10 +682,9 @@ public class LogFile {
 
         @see Page#getBeforeImage
     */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
         /* update record conists of
 
@@ -219,90 +694,209 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        // a checkpoint must not fall between deciding on the record type
+        // and registering the page in the dirty page table
+        appendLock.readLock().lock();
+        try {
+            appendUpdate(tid, before, after);
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    private void appendUpdate(TransactionId tid, Page before, Page after) throws IOException {
+        PageId pid = after.getId();
+        if (imagedSinceCheckpoint.contains(pid)) {
+            // the page has a full image since the checkpoint, so recovery
+            // can rebuild it from the changed ranges alone
+            ByteBuffer oldData = PageBuffers.scratch(0);
+            ByteBuffer newData = PageBuffers.scratch(1);
+            before.writePageData(oldData);
+            after.writePageData(newData);
+            if (oldData.position() != newData.position()) {
+                throw new IllegalArgumentException("page images differ in size");
+            }
+            PageDelta delta = PageDelta.diff(oldData.array(), newData.array(), newData.position());
+            if (delta.getEncodedSize() < 2 * BufferPool.getPageSize()) {
+                RecordBuffer rec = startRecord(DELTA_RECORD, tid.getId());
+                writePageId(rec.out, after);
+                delta.writeTo(rec.out);
+                long lsn = append(compress(rec));
+                dirtyPages.putIfAbsent(pid, lsn);
+
+                Debug.log("DELTA, offset = " + lsn + ", ranges = " + delta.numRanges());
+                return;
+            }
+        }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        RecordBuffer rec = startRecord(UPDATE_RECORD, tid.getId());
+        writePageData(rec.out,before);
+        writePageData(rec.out,after);
+        long lsn = append(compress(rec));
+        imagedSinceCheckpoint.add(pid);
+        dirtyPages.putIfAbsent(pid, lsn);
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        Debug.log("WRITE, offset = " + lsn);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
+    void writePageData(DataOutput raf, Page p) throws IOException{
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        // page type tag
+        // id type tag
+        // id fields
+        // page data length
+        // page data
+
+        writePageId(raf, p);
+        ByteBuffer pageData = PageBuffers.scratch(0);
+        p.writePageData(pageData);
+        raf.writeInt(pageData.position());
+        raf.write(pageData.array(), 0, pageData.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** Write the page type tag and tagged id of a page */
+    void writePageId(DataOutput raf, Page p) throws IOException {
+        raf.writeByte(PageCodecs.pageTag(p.getClass()));
+        PageCodecs.writeId(raf, p.getId());
+    }
+
+    private PageRef readPageId(DataInput raf) throws IOException {
+        int pageTag = raf.readUnsignedByte();
+        return new PageRef(pageTag, readId(raf));
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    // a tagged page id, moved to its local table if there is a table map
+    private PageId readId(DataInput raf) throws IOException {
+        PageId pid = PageCodecs.readId(raf);
+        Map<Integer, Integer> map = tableMap;
+        Integer local = map == null ? null : map.get(pid.getTableId());
+        return local == null ? pid : PageCodecs.withTableId(pid, local);
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+    /** Read page ids of the given tables as ids of other tables, e.g. to
+        apply a primary's log to a replica's copies of its tables, whose
+        files (and so ids) differ.
+        @param map primary table id -> local table id */
+    void setTableMap(Map<Integer, Integer> map) {
+        tableMap = map;
+    }
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+    /** Read the active transaction list of a CHECKPOINT record, positioned
+        just after its type and transaction id: tid -> first record offset.
+        If lastRecords is not null, tid -> last record offset goes there. */
+    private Map<Long, Long> readActiveTransactions(DataInput raf, Map<Long, Long> lastRecords) throws IOException {
+        Map<Long, Long> active = new HashMap<>();
+        int tidListSize = raf.readInt();
+        for (int i = 0; i < tidListSize; i += 1) {
+            long tid = raf.readLong();
+            active.put(tid, raf.readLong());
+            long last = raf.readLong();
+            if (lastRecords != null) {
+                lastRecords.put(tid, last);
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+        }
+        return active;
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** Read the dirty page table of a CHECKPOINT record, positioned just
+        after its active transaction list: page -> recLSN */
+    private Map<PageId, Long> readDirtyPages(DataInput raf) throws IOException {
+        Map<PageId, Long> dirty = new HashMap<>();
+        int numPages = raf.readInt();
+        for (int i = 0; i < numPages; i += 1) {
+            PageId pid = readId(raf);
+            dirty.put(pid, raf.readLong());
+        }
+        return dirty;
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /** Note that a page has been written to its file, so it no longer
+        needs redo from the log.  Called by the buffer pool after the
+        write that follows {@link #logWrite}. */
+    public void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    Page readPageData(DataInput raf) throws IOException {
+        PageRef ref = readPageId(raf);
+        int pageSize = raf.readInt();
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData); //read before image
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+        //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+        return ref.newPage(pageData);
+    }
+
+    /** Read the body of an UPDATE or DELTA record, positioned just after
+        its type and transaction id; the type may carry {@link
+        #COMPRESSED_FLAG} */
+    private LoggedUpdate readUpdate(int recordType, DataInput in) throws IOException {
+        DataInput raf = payload(recordType, in);
+        if ((recordType & ~COMPRESSED_FLAG) == UPDATE_RECORD) {
+            // keep the raw images; pages are only built when installed
+            readPageId(raf);
+            byte[] before = new byte[raf.readInt()];
+            raf.readFully(before);
+            PageRef ref = readPageId(raf);
+            byte[] after = new byte[raf.readInt()];
+            raf.readFully(after);
+            return new LoggedUpdate(ref, before, after, null);
         }
-        return newPage;
+        PageRef ref = readPageId(raf);
+        return new LoggedUpdate(ref, null, null, PageDelta.readFrom(raf));
+    }
 
+    /** Write rebuilt page images back to their files and replace any
+        cached copies in the buffer pool. */
+    void installPages(Map<PageId, byte[]> working, Map<PageId, PageRef> refs) throws IOException {
+        for (Map.Entry<PageId, byte[]> e : working.entrySet()) {
+            PageId pid = e.getKey();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = refs.get(pid).newPage(e.getValue());
+            file.writePage(page);
+            pageWritten(pid);
+            Database.getBufferPool().installPage(page);
+        }
+    }
+
+    /** Undo the UPDATE and DELTA records of one or more transactions on
+        the working copies of their pages.  Each transaction's records are
+        found by following its chain of previous LSNs back from its newest
+        record, so no other transaction's records are read; records of
+        different transactions are undone newest first overall.
+        @param lastRecords the newest record of each transaction */
+    private void undo(Collection<Long> lastRecords, Map<PageId, byte[]> working, Map<PageId, PageRef> refs)
+        throws IOException {
+        PriorityQueue<Long> toUndo = new PriorityQueue<>(Collections.reverseOrder());
+        toUndo.addAll(lastRecords);
+        LogReader in = new LogReader(segments, segments.getStartLsn());
+        while (!toUndo.isEmpty()) {
+            long lsn = toUndo.poll();
+            in.seek(lsn);
+            int length = in.readInt();
+            in.readInt(); // checksum, verified when the log was scanned
+            int recordType = in.readInt();
+            in.readLong();
+            if (isUpdate(recordType & ~COMPRESSED_FLAG)) {
+                LoggedUpdate update = readUpdate(recordType, in);
+                refs.put(update.page.pid, update.page);
+                update.undo(working);
+            }
+            in.seek(lsn + length - RECORD_TRAILER_SIZE);
+            long prev = in.readLong();
+            if (prev != NO_PREV_LSN) {
+                toUndo.add(prev);
+            }
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
@@ -310,149 +904,243 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        // register the BEGIN before a checkpoint or truncation can run
+        appendLock.readLock().lock();
+        try {
+            long lsn = append(startRecord(BEGIN_RECORD, tid.getId()));
+            tidToFirstLogRecord.put(tid.getId(), lsn);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+            Debug.log("BEGIN OFFSET = " + lsn);
+        } finally {
+            appendLock.readLock().unlock();
+        }
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+
+    /** Checkpoint the log and write a checkpoint record.
+        <p>
+        The checkpoint is fuzzy: it records the active transactions and the
+        dirty page table but writes no pages, and it does not lock the
+        buffer pool, so transactions keep running while it is taken.
+        Committed pages are written at commit (or, for asynchronous
+        commits, later by the buffer pool), and a {@link BackgroundWriter}
+        can write out the rest and take checkpoints as the log grows.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset;
+            // no BEGIN or UPDATE may slip in between the snapshot of
+            // active transactions and dirty pages and the record itself
+            beginExclusive();
+            try {
+                Map<Long, Long> active = new HashMap<>(tidToFirstLogRecord);
+                Map<Long, Long> last = new HashMap<>(tidToLastLogRecord);
+                Map<PageId, Long> dirty = new HashMap<>(dirtyPages);
+                // the next change to any page logs a full image again
+                imagedSinceCheckpoint.clear();
+                RecordBuffer rec = startRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                rec.out.writeInt(active.size());
+                for (Map.Entry<Long, Long> e : active.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    rec.out.writeLong(e.getKey());
+                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + e.getValue());
+                    rec.out.writeLong(e.getValue());
+                    rec.out.writeLong(last.getOrDefault(e.getKey(), e.getValue()));
                 }
 
+                //write the dirty page table
+                rec.out.writeInt(dirty.size());
+                for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                    PageCodecs.writeId(rec.out, e.getKey());
+                    rec.out.writeLong(e.getValue());
+                }
+                startCpOffset = append(rec);
+                force();
+
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                checkpointOffset = startCpOffset;
+                //Debug.log("CP OFFSET = " + startCpOffset);
+            } finally {
+                endExclusive();
             }
         }
 
         logTruncate();
     }
 
+    /** @return the number of bytes logged since the last checkpoint */
+    public long getBytesSinceCheckpoint() {
+        return buffer.getEndLsn() - checkpointOffset;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Segments that lie wholly before the oldest record
+        recovery could need are recycled; nothing else is touched, so
+        appends carry on meanwhile. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
         raf.seek(0);
         long cpLoc = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
-        long minLogRecord = cpLoc;
+        long minLogRecord = getRecoveryStart(cpLoc);
+        if (!logPins.isEmpty()) {
+            minLogRecord = Math.min(minLogRecord, logPins.firstKey());
+        }
+        Debug.log("TRUNCATING LOG; RECYCLING SEGMENTS BEFORE LSN " + minLogRecord);
+        segments.recycleBefore(minLogRecord);
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    /** @return the oldest record that recovery from the given checkpoint
+        reads: the checkpoint itself, the first record of each transaction
+        active at it, or the oldest recLSN in its dirty page table */
+    public synchronized long getRecoveryStart(long checkpoint) throws IOException {
+        long minLogRecord = checkpoint;
+        LogReader in = openRecord(checkpoint);
+        int cpType = in.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = in.readLong();
+
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        for (long firstLogRecord : readActiveTransactions(in, null).values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        // redo starts at the oldest recLSN, so those records stay too
+        for (long recLSN : readDirtyPages(in).values()) {
+            minLogRecord = Math.min(minLogRecord, recLSN);
+        }
+        return minLogRecord;
+    }
 
-            int numOutstanding = raf.readInt();
+    /** Take a checkpoint and pin the log from the oldest record recovery
+        from it would read, as one step, so no truncation falls in
+        between.  Used to start a {@link HotBackup}.
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        @return the LSN of the checkpoint record
+    */
+    public long pinCheckpoint() throws IOException {
+        synchronized (this) {
+            logCheckpoint();
+            long cp = checkpointOffset;
+            pinLog(getRecoveryStart(cp));
+            return cp;
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+    /** Keep every record from the given LSN on: truncation does not
+        recycle segments past the lowest pinned LSN.  While any pin is
+        held, rollbacks also log the page images they write, since a copy
+        of the table files taken meanwhile may hold changes of the
+        aborted transaction that replaying the log must undo.
+        Pins nest; each needs its own {@link #unpinLog}.
+    */
+    public synchronized void pinLog(long lsn) {
+        logPins.merge(lsn, 1, Integer::sum);
+    }
 
-        raf.seek(minLogRecord);
+    /** Release a pin taken with {@link #pinLog}. */
+    public synchronized void unpinLog(long lsn) {
+        logPins.computeIfPresent(lsn, (k, n) -> n == 1 ? null : n - 1);
+    }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+    /** @return the size of the log's segment files, in bytes */
+    public long getSegmentSize() {
+        return segments.getSegmentSize();
+    }
 
-                Debug.log("NEW START = " + newStart);
+    /** Force the log, then return the LSN up to which it is durable. */
+    public long getDurableLsn() throws IOException {
+        force();
+        return buffer.getDurableLsn();
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    /** @return the LSN up to which the log is on disk, without forcing it */
+    public long getFlushedLsn() {
+        return buffer.getDurableLsn();
+    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+    /** Read log bytes starting at the given LSN, as {@link
+        LogSegments#read} does; for shipping the log to a replica. */
+    int readLog(ByteBuffer dst, long lsn) throws IOException {
+        return segments.read(dst, lsn);
+    }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+    /** Store log bytes shipped from a primary at the same LSNs. */
+    void writeShipped(long lsn, byte[] data, int len) throws IOException {
+        segments.write(ByteBuffer.wrap(data, 0, len), lsn);
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** Drop the segments below the given LSN of a log only read. */
+    void recycleBefore(long lsn) throws IOException {
+        segments.recycleBefore(lsn);
+    }
 
-            } catch (EOFException e) {
-                break;
-            }
+    /** Visit the records of one transaction newest first, following its
+        chain of previous LSNs back from the given record. */
+    void walkChain(long last, RecordVisitor visitor) throws IOException {
+        LogReader in = new LogReader(segments, segments.getStartLsn());
+        long lsn = last;
+        while (lsn != NO_PREV_LSN) {
+            in.seek(lsn);
+            int length = in.readInt();
+            in.readInt();
+            int header = in.readInt();
+            long tid = in.readLong();
+            int recordType = header & ~COMPRESSED_FLAG;
+            visitor.visit(lsn, recordType, tid, isUpdate(recordType) ? readUpdate(header, in) : null);
+            in.seek(lsn + length - RECORD_TRAILER_SIZE);
+            lsn = in.readLong();
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+    /** Copy the durable log between two LSNs into the segments of another
+        log; see {@link LogSegments#copyTo}. */
+    public void copyLog(File base, long from, long to) throws IOException {
+        segments.copyTo(base, from, to);
+    }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    /** Find where to cut the log to replay it up to a point.  Scanning
+        from a record boundary, return the LSN of the first record that
+        starts after stopLsn, or the first COMMIT record with a commit
+        time after stopMillis, or the end of the log if there is neither.
+    */
+    long findRestorePoint(long fromLsn, long stopLsn, long stopMillis) throws IOException {
+        long[] point = { Long.MAX_VALUE };
+        long end = scanRecords(fromLsn, (recordOffset, recordType, recordTid, update) -> {
+            if (recordOffset >= point[0]) {
+                return;
+            }
+            if (recordOffset > stopLsn) {
+                point[0] = recordOffset;
+            } else if (recordType == COMMIT_RECORD) {
+                LogReader in = openRecord(recordOffset);
+                in.readInt();
+                in.readLong();
+                if (in.readLong() > stopMillis) {
+                    point[0] = recordOffset;
+                }
+            }
+        });
+        return Math.min(point[0], end);
+    }
 
-        currentOffset = raf.getFilePointer();
+    /** Close the log without writing anything, e.g. an archived log that
+        was only read. */
+    synchronized void close() throws IOException {
+        raf.close();
+        segments.close();
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -471,49 +1159,59 @@ public class LogFile {
                 if (!tidToFirstLogRecord.containsKey(tid.getId())) {
                     return;
                 }
-                Set<PageId> rollbackPid = new HashSet<>();
-                long firstrecordOffset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(firstrecordOffset);
-                long currEnd = raf.length();
-                while (raf.getFilePointer() < currEnd) {
-                    int recordType = raf.readInt();
-                    long recordTid = raf.readLong();
-                    switch(recordType) {
-                        case UPDATE_RECORD: {
-                            Page beforeImg = readPageData(raf);
-                            Page afterImg = readPageData(raf);
-                            if (recordTid == tid.getId() && !rollbackPid.contains(beforeImg.getId())) {
-                                DbFile tableFile = Database.getCatalog().getDatabaseFile(beforeImg.getId().getTableId());
-                                tableFile.writePage(beforeImg);
-                                rollbackPid.add(beforeImg.getId());
-                                Database.getBufferPool().discardPage(beforeImg.getId());
-                            }
-                            break;
-                        }
-                        case CHECKPOINT_RECORD: {
-                            int tidListSize = raf.readInt();
-                            for (int i = 0; i < tidListSize; i += 1) {
-                                raf.readLong();
-                                raf.readLong();
-                            }
-                            break;
-                        }
-                        default:
+                beginExclusive();
+                try {
+                    // walk this transaction's own records newest first
+                    Map<PageId, byte[]> working = new HashMap<>();
+                    Map<PageId, PageRef> refs = new HashMap<>();
+                    Long last = tidToLastLogRecord.get(tid.getId());
+                    if (last != null) {
+                        undo(Collections.singleton(last), working, refs);
+                    }
+                    if (!logPins.isEmpty()) {
+                        logRollbackImages(working, refs);
                     }
-                    raf.readLong();
+                    installPages(working, refs);
+                } finally {
+                    endExclusive();
                 }
             }
         }
     }
 
+    /** Log the pages a rollback is about to write as UPDATE records of no
+        transaction, which recovery redoes like any other change.  Without
+        them, replaying the log over a copy of a table file that caught an
+        aborted transaction's change would keep that change, since redo
+        skips aborted transactions. */
+    private void logRollbackImages(Map<PageId, byte[]> working, Map<PageId, PageRef> refs) throws IOException {
+        for (Map.Entry<PageId, byte[]> e : working.entrySet()) {
+            PageId pid = e.getKey();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            RecordBuffer rec = startRecord(UPDATE_RECORD, NO_CHECKPOINT_ID);
+            writePageData(rec.out, file.readPage(pid));
+            writePageData(rec.out, refs.get(pid).newPage(e.getValue()));
+            append(compress(rec));
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
+            AsyncCommitFlusher f;
+            synchronized (asyncCommits) {
+                f = flusher;
+                flusher = null;
+            }
+            if (f != null) {
+                f.shutdown();
+            }
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -526,7 +1224,7 @@ public class LogFile {
     */
     // There were four types of transactions:
     // We need to scan from the checkpoints to generate the redo and undo list.
-    // checkPoint: Active transaction List when setting checkpoint. Flush all the dirty pages to disk.
+    // checkPoint: Active transaction List and dirty page table when setting checkpoint.
     // Redo: Transaction commit after the last checkpoint.
     //       for the same page written request, we need to update the page by the order of log
     // Undo: Transaction begin but haven't commit or submit.
@@ -541,20 +1239,22 @@ public class LogFile {
 
     public synchronized long getRecoverOffset(){
         try {
+            buffer.flushTo(buffer.getEndLsn());
             raf.seek(0);
             long checkPoint = raf.readLong();
             if(checkPoint == -1){
                 return -1L;
             }else {
                 // 移动到检查点,并略过日志头（type,tid信息）
-                raf.seek(checkPoint);
-                raf.readInt();
-                raf.readLong();
-                int keySize = raf.readInt();
+                LogReader in = openRecord(checkPoint);
+                in.readInt();
+                in.readLong();
+                int keySize = in.readInt();
                 long recoverOffset = Long.MAX_VALUE;
                 while (keySize-- > 0) {
-                    raf.readLong();
-                    long offset = raf.readLong();
+                    in.readLong();
+                    long offset = in.readLong();
+                    in.readLong();
                     if(offset < recoverOffset){
                         recoverOffset = offset;
                     }
@@ -572,187 +1272,408 @@ public class LogFile {
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Recovery follows ARIES:
+     * <ul>
+     * <li> Analysis scans forward from the last checkpoint (or from the
+     * oldest recLSN in its dirty page table, if earlier) to rebuild the
+     * set of transactions that never finished and the dirty page table.
+     * <li> Redo repeats history from the oldest recLSN.  A record is
+     * applied only if its page is in the dirty page table and the record
+     * is no older than the page's recLSN; every other page is already on
+     * disk.  Records of transactions that aborted before the crash are
+     * skipped, since rollback wrote their pages back directly.  Records
+     * are applied by a pool of {@link #setRedoThreads} threads,
+     * partitioned by page (see {@link ParallelRedo}).
+     * <li> Undo reverts the changes of unfinished transactions newest first
+     * and logs an ABORT record for each, so a later recovery does not
+     * undo them again.
+     * </ul>
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                raf = new RandomAccessFile(logFile, "rw");
-                raf.seek(0);
-                long lastWrittenCheckpoint = raf.readLong();
-                long scanStartOffset = 0;
-                long recoveryStartOffset = Long.MAX_VALUE;
-                Set<Long> UndoTid = new HashSet<>();
-                Set<Long> RedoTid = new HashSet<>();
-                Set<PageId> undoPageIds = new HashSet<>();
-                //
-                if (lastWrittenCheckpoint == NO_CHECKPOINT_ID) {
-                    scanStartOffset = 8;
-                    recoveryStartOffset = 8;
-                } else {
-                    raf.seek(lastWrittenCheckpoint);
-                    int recordType = raf.readInt();
-                    assert(recordType == CHECKPOINT_RECORD);
-                    raf.readLong(); // read -1
-                    int tidListSize = raf.readInt();
-                    for (int i = 0; i < tidListSize; i += 1) {
-                        long tid = raf.readLong();
-                        long offsetOfFirstRecord = raf.readLong();
-                        recoveryStartOffset = Math.min(recoveryStartOffset, offsetOfFirstRecord);
-                        UndoTid.add(tid);
-                    }
-                    if (recoveryStartOffset == Long.MAX_VALUE) {
-                        recoveryStartOffset = 8;
+                beginExclusive();
+                try {
+                    recoveryUndecided = false;
+                    long lastWrittenCheckpoint = readCheckpointPointer();
+                    Map<Long, Long> losers = new HashMap<>();
+                    long end = replay(lastWrittenCheckpoint, losers);
+
+                    // new records go after whatever survived the crash
+                    segments.truncate(end);
+                    buffer.reset(segments, end);
+                    checkpointOffset = lastWrittenCheckpoint == NO_CHECKPOINT_ID ? segments.getStartLsn() : lastWrittenCheckpoint;
+                    for (Map.Entry<Long, Long> e : losers.entrySet()) {
+                        tidToLastLogRecord.put(e.getKey(), e.getValue());
+                        append(startRecord(ABORT_RECORD, e.getKey()));
+                        tidToLastLogRecord.remove(e.getKey());
                     }
-                    raf.readLong();
-                    scanStartOffset = raf.getFilePointer();
-                    // reach the end of CHECKPOINT_RECORD
-                    // scan from here to decide the undo and redo list
+                    force();
+                } finally {
+                    endExclusive();
                 }
+            }
+        }
+    }
 
-                raf.seek(scanStartOffset);
+    /** Bring the table files to the state the log describes, like {@link
+        #recover}, but without touching the log: it is neither cut at its
+        end nor given ABORT records for the transactions that never
+        finished.  Used by a {@link LogReplica}, whose log must stay a
+        byte-for-byte copy of the primary's.
 
-                while (raf.getFilePointer() < raf.length()) {
-                    int recordType = raf.readInt();
-                    long recordTid = raf.readLong();
-                    switch (recordType) {
-                        case UPDATE_RECORD: {
-                            Page beforeImg = readPageData(raf);
-                            Page afterImg = readPageData(raf);
-                            break;
-                        }
-                        // IF transaction abort, add to UndoLost
-                        // IF transaction commit, add to UndoLost
-                        case ABORT_RECORD: {
-                            UndoTid.remove(recordTid);
-                            break;
-                        }
-                        case COMMIT_RECORD: {
-                            UndoTid.remove(recordTid);
-                            RedoTid.add(recordTid);
-                            break;
-                        }
-                        // IF transaction begins, add to FailTransactionList
-                        case BEGIN_RECORD: {
-                            UndoTid.add(recordTid);
-                            break;
-                        }
+        @param losers filled with the newest record of each transaction
+        that never finished, whose changes have been undone
+        @return the end of the intact log
+    */
+    long replayWithoutLogging(Map<Long, Long> losers) throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                beginExclusive();
+                try {
+                    return replay(readCheckpointPointer(), losers);
+                } finally {
+                    endExclusive();
+                }
+            }
+        }
+    }
 
-                        case CHECKPOINT_RECORD: {
-                            int tidListSize = raf.readInt();
-                            for (int i = 0; i < tidListSize; i += 1) {
-                                raf.readLong();
-                                raf.readLong();
-                            }
-                        }
-                        default:
+    private long readCheckpointPointer() throws IOException {
+        raf.seek(0);
+        return raf.length() < LONG_SIZE ? NO_CHECKPOINT_ID : raf.readLong();
+    }
+
+    /** Analysis, redo and undo, as described at {@link #recover}.
+        @param loserChains filled with the newest record of each loser
+        @return the end of the intact log */
+    private long replay(long lastWrittenCheckpoint, Map<Long, Long> loserChains) throws IOException {
+        // analysis
+        Map<Long, Long> losers = new HashMap<>(); // tid -> first record
+        Map<Long, Long> lastRecords = new HashMap<>(); // tid -> newest record
+        Set<Long> aborted = new HashSet<>();
+        Map<PageId, Long> dirty = new HashMap<>();
+        long scanStartOffset = segments.getStartLsn();
+        if (lastWrittenCheckpoint != NO_CHECKPOINT_ID) {
+            LogReader in = openRecord(lastWrittenCheckpoint);
+            int recordType = in.readInt();
+            assert(recordType == CHECKPOINT_RECORD);
+            in.readLong(); // read -1
+            losers.putAll(readActiveTransactions(in, lastRecords));
+            dirty.putAll(readDirtyPages(in));
+            scanStartOffset = lastWrittenCheckpoint;
+            for (long recLSN : dirty.values()) {
+                scanStartOffset = Math.min(scanStartOffset, recLSN);
+            }
+        }
+        long end = scanRecords(scanStartOffset, (recordOffset, recordType, recordTid, update) -> {
+            if (recordTid != NO_CHECKPOINT_ID && recordOffset >= lastRecords.getOrDefault(recordTid, NO_PREV_LSN)) {
+                lastRecords.put(recordTid, recordOffset);
+            }
+            switch (recordType) {
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                    dirty.putIfAbsent(update.page.pid, recordOffset);
+                    break;
+                case ABORT_RECORD:
+                    losers.remove(recordTid);
+                    aborted.add(recordTid);
+                    break;
+                case COMMIT_RECORD:
+                    losers.remove(recordTid);
+                    break;
+                case BEGIN_RECORD:
+                    losers.put(recordTid, recordOffset);
+                    break;
+                default:
+            }
+        });
+
+        // redo
+        Map<PageId, byte[]> working = new ConcurrentHashMap<>();
+        Map<PageId, PageRef> refs = new ConcurrentHashMap<>();
+        if (!dirty.isEmpty()) {
+            ParallelRedo redo = new ParallelRedo(redoThreads, working);
+            try {
+                scanRecords(Collections.min(dirty.values()), (recordOffset, recordType, recordTid, update) -> {
+                    if (update == null || aborted.contains(recordTid)) {
+                        return;
                     }
-                    raf.readLong();
-                }
+                    Long recLSN = dirty.get(update.page.pid);
+                    if (recLSN != null && recordOffset >= recLSN) {
+                        refs.put(update.page.pid, update.page);
+                        redo.submit(update);
+                    }
+                });
+            } finally {
+                redo.finish();
+            }
+        }
 
-                //we have found the undo list and redo list
+        // undo, walking back each loser's own records
+        for (long tid : losers.keySet()) {
+            loserChains.put(tid, lastRecords.getOrDefault(tid, losers.get(tid)));
+        }
+        undo(loserChains.values(), working, refs);
+        installPages(working, refs);
+        return end;
+    }
 
-                raf.seek(recoveryStartOffset);
+    /**
+     * Applies redo records on a pool of threads while recovery scans the
+     * log.  Records are partitioned by page: every record for a page goes
+     * to the same single-threaded worker and is applied in log order,
+     * while different pages are rebuilt concurrently.
+     */
+    private static class ParallelRedo {
+        // records handed to workers but not yet applied, to bound memory
+        private static final int MAX_PENDING = 1024;
+
+        private final ExecutorService[] workers;
+        private final Map<PageId, byte[]> working;
+        private final Semaphore pending = new Semaphore(MAX_PENDING);
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        ParallelRedo(int numThreads, Map<PageId, byte[]> working) {
+            this.workers = new ExecutorService[Math.max(1, numThreads)];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = Executors.newSingleThreadExecutor();
+            }
+            this.working = working;
+        }
 
+        void submit(LoggedUpdate update) throws IOException {
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            pending.acquireUninterruptibly();
+            int worker = Math.floorMod(update.page.pid.hashCode(), workers.length);
+            workers[worker].execute(() -> {
                 try {
-                    while (raf.getFilePointer() < raf.length()) {
-                        int recordType = raf.readInt();
-                        long recordTid = raf.readLong();
-                        switch (recordType) {
-                            case UPDATE_RECORD: {
-                                Page beforeImg = readPageData(raf);
-                                Page afterImg = readPageData(raf);
-                                assert(!(RedoTid.contains(recordTid) && UndoTid.contains(recordTid)));
-                                DbFile file = Database.getCatalog().getDatabaseFile(beforeImg.getId().getTableId());
-                                if (RedoTid.contains(recordTid)) {
-                                    file.writePage(afterImg);
-                                } else {
-                                    if (UndoTid.contains(recordTid) && !undoPageIds.contains(beforeImg.getId())) {
-                                        file.writePage(beforeImg);
-                                        undoPageIds.add(beforeImg.getId());
-                                    }
-                                }
-                                break;
-                            }
-                            case ABORT_RECORD: {
-                                break;
-                            }
-                            case COMMIT_RECORD: {
-                                break;
-                            }
-                            case BEGIN_RECORD: {
-                                break;
-                            }
-                            case CHECKPOINT_RECORD: {
-                                int tidListSize = raf.readInt();
-                                for (int i = 0; i < tidListSize; i += 1) {
-                                    raf.readLong();
-                                    raf.readLong();
-                                }
-                            }
-                            default:
-                        }
-                        raf.readLong();
+                    update.redo(working);
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, new IOException(e));
+                } finally {
+                    pending.release();
+                }
+            });
+        }
+
+        /** Wait for every submitted record to be applied. */
+        void finish() throws IOException {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+            try {
+                for (ExecutorService worker : workers) {
+                    while (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // keep waiting; redo has to complete
                     }
-                } catch (EOFException e) {
-                    // DO NOTHING HERE
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during redo", e);
+            }
+            if (failure.get() != null) {
+                throw failure.get();
             }
         }
     }
 
+    /** Set the number of threads recovery uses for redo. */
+    public static void setRedoThreads(int numThreads) {
+        redoThreads = numThreads;
+    }
+
+    /** @return the number of threads recovery uses for redo */
+    public static int getRedoThreads() {
+        return redoThreads;
+    }
+
+    /** Turn compression of UPDATE and DELTA record payloads on or off.
+        Records already in the log are read either way. */
+    public static void setCompression(boolean on) {
+        compression = on;
+    }
+
+    /** @return whether UPDATE and DELTA record payloads are compressed */
+    public static boolean getCompression() {
+        return compression;
+    }
+
+    /** Receives each record visited by {@link #scanRecords}. */
+    interface RecordVisitor {
+        /**
+         * @param update the change an UPDATE or DELTA record describes,
+         *   null for every other record type
+         */
+        void visit(long recordOffset, int recordType, long recordTid, LoggedUpdate update) throws IOException;
+    }
+
+    private static boolean isUpdate(int recordType) {
+        return recordType == UPDATE_RECORD || recordType == DELTA_RECORD;
+    }
+
+    /**
+     * Visit every intact record from the given offset to the end of the
+     * log.  The log ends at the first record whose length runs past the
+     * end of the log or is too short (the zero padding of a pre-allocated
+     * segment), whose checksum does not match (a write torn by a crash),
+     * or whose type is unknown.
+     *
+     * @return the offset just past the last intact record
+     */
+    long scanRecords(long offset, RecordVisitor visitor) throws IOException {
+        LogReader in = new LogReader(segments, offset);
+        CRC32C crc = new CRC32C();
+        byte[] body = new byte[0];
+        long end = offset;
+        try {
+            while (in.length() - end >= MIN_RECORD_SIZE) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < MIN_RECORD_SIZE || length > in.length() - end) {
+                    break;
+                }
+                int bodyLength = length - RECORD_HEADER_SIZE;
+                if (body.length < bodyLength) {
+                    body = new byte[Math.max(bodyLength, 2 * body.length)];
+                }
+                in.readFully(body, 0, bodyLength);
+                crc.reset();
+                crc.update(body, 0, bodyLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                DataInputStream rec = new DataInputStream(new ByteArrayInputStream(body, 0, bodyLength));
+                int header = rec.readInt();
+                int recordType = header & ~COMPRESSED_FLAG;
+                if (recordType < ABORT_RECORD || recordType > DELTA_RECORD
+                    || (header != recordType && !isUpdate(recordType))) {
+                    break;
+                }
+                long recordTid = rec.readLong();
+                LoggedUpdate update = null;
+                if (isUpdate(recordType)) {
+                    update = readUpdate(header, rec);
+                }
+                long recordOffset = end;
+                end += length;
+                visitor.visit(recordOffset, recordType, recordTid, update);
+            }
+        } catch (EOFException e) {
+            // cannot happen for records whose length fit in the log
+        }
+        return end;
+    }
+
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    public synchronized void print() throws IOException {
+        buffer.flushTo(buffer.getEndLsn());
 
         raf.seek(0);
+        System.out.println("checkpoint record at LSN " + raf.readLong());
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        LogReader in = new LogReader(segments, segments.getStartLsn());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                long recordStart = in.getPosition();
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < MIN_RECORD_SIZE) {
+                    System.out.println(recordStart + ": END OF LOG");
+                    break;
+                }
+                System.out.println(recordStart + ": RECORD LENGTH " + length + ", CRC32C " + Integer.toHexString(checksum));
+
+                int header = in.readInt();
+                int cpType = header & ~COMPRESSED_FLAG;
+                long cpTid = in.readLong();
+
+                System.out.println((in.getPosition() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((in.getPosition() - LONG_SIZE) + ": TID " + cpTid);
+
+                if (header != cpType) {
+                    // offsets within the payload are not log positions, so
+                    // just summarize it
+                    long payloadStart = in.getPosition();
+                    DataInput body = payload(header, in);
+                    System.out.println(payloadStart + " TO " + in.getPosition() + ": compressed payload");
+                    if (cpType == UPDATE_RECORD) {
+                        System.out.println(" (UPDATE)");
+                        Page before = readPageData(body);
+                        readPageData(body);
+                        System.out.println("  before and after image of table id " + before.getId().getTableId()
+                                + ", page number " + before.getId().getPageNumber());
+                    } else {
+                        System.out.println(" (DELTA)");
+                        PageRef ref = readPageId(body);
+                        PageDelta delta = PageDelta.readFrom(body);
+                        System.out.println("  table id " + ref.pid.getTableId() + ", page number "
+                                + ref.pid.getPageNumber() + ", " + delta.numRanges() + " changed ranges");
+                    }
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
+                    continue;
+                }
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": COMMIT TIME: " + new Date(in.readLong()));
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = in.readInt();
+                    System.out.println((in.getPosition() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        long lastRecord = in.readLong();
+                        System.out.println((in.getPosition() - 3 * LONG_SIZE) + ": TID: " + tid);
+                        System.out.println((in.getPosition() - 2 * LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        System.out.println((in.getPosition() - LONG_SIZE) + ": LAST LOG RECORD: " + lastRecord);
+                    }
+                    int numDirty = in.readInt();
+                    System.out.println((in.getPosition() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+
+                    while (numDirty-- > 0) {
+                        long pageStart = in.getPosition();
+                        PageId pid = PageCodecs.readId(in);
+                        long recLSN = in.readLong();
+                        System.out.println(pageStart + ": DIRTY PAGE: table " + pid.getTableId() + ", page " + pid.getPageNumber() + ", recLSN " + recLSN);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = in.getPosition();
+                    Page before = readPageData(in);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = in.getPosition();
+                    Page after = readPageData(in);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -760,9 +1681,25 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (in.getPosition()) + ": page data");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
+
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
+
+                    long deltaStart = in.getPosition();
+                    PageRef ref = readPageId(in);
+                    long rangesStart = in.getPosition();
+                    PageDelta delta = PageDelta.readFrom(in);
+
+                    System.out.println(deltaStart + ": table id " + ref.pid.getTableId() + ", page number " + ref.pid.getPageNumber());
+                    System.out.println(rangesStart + " TO " + in.getPosition() + ": " + delta.numRanges() + " changed ranges");
+
+                    System.out.println(in.getPosition() + ": PREVIOUS RECORD OF TRANSACTION: " + in.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -772,13 +1709,15 @@ public class LogFile {
                 break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Flush every record appended so far and force the log to disk.
+        Threads forcing at the same time share one fsync. */
+    public void force() throws IOException {
+        buffer.force();
+        if (!asyncCommits.isEmpty()) {
+            retireAsyncCommits();
+        }
     }
 
 }
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LogReader reads log records sequentially from {@link LogSegments},
+ * crossing segment boundaries transparently.  Reads are buffered, so
+ * scanning the log does not cost a system call per field the way
+ * RandomAccessFile.readInt() does.  Reading past the end of the log
+ * throws EOFException.
+ */
+public class LogReader extends DataInputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Source source;
+
+    /**
+     * @param segments the log to read
+     * @param lsn the LSN to start reading at
+     */
+    public LogReader(LogSegments segments, long lsn) {
+        this(new Source(segments, lsn));
+    }
+
+    private LogReader(Source source) {
+        super(source);
+        this.source = source;
+    }
+
+    /** Move to the given LSN. */
+    public void seek(long lsn) {
+        source.seek(lsn);
+    }
+
+    /** @return the LSN of the next byte to be read */
+    public long getPosition() {
+        return source.position();
+    }
+
+    /** @return the LSN just past the end of the log */
+    public long length() {
+        return source.segments.getEndLsn();
+    }
+
+    private static class Source extends InputStream {
+        final LogSegments segments;
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long bufStart; // LSN of buf[0]
+
+        Source(LogSegments segments, long lsn) {
+            this.segments = segments;
+            seek(lsn);
+        }
+
+        void seek(long lsn) {
+            bufStart = lsn;
+            buf.clear();
+            buf.limit(0);
+        }
+
+        long position() {
+            return bufStart + buf.position();
+        }
+
+        // refill the buffer from the current position; false at end of log
+        private boolean fill() throws IOException {
+            long pos = position();
+            buf.clear();
+            bufStart = pos;
+            int n = segments.read(buf, pos);
+            buf.flip();
+            return n > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long target = position() + n;
+            if (target <= bufStart + buf.limit()) {
+                buf.position((int) (target - bufStart));
+            } else {
+                seek(target);
+            }
+            return n;
+        }
+    }
+}
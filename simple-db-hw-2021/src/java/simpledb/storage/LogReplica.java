@@ -0,0 +1,378 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+/**
+ * LogReplica keeps read-only copies of a primary's tables up to date by
+ * applying the log a {@link LogShipper} streams to it, so queries can run
+ * on another process or machine.
+ * <p>
+ * A replica starts from a {@link HotBackup} of the primary.  Its tables
+ * are seeded from the backup's copies and brought to a consistent state
+ * the way recovery would (see {@link LogFile#replayWithoutLogging}); the
+ * transactions still running at that point are undone for now.  It then
+ * asks the primary for the log from there on, stores it at the same LSNs
+ * in a log of its own, and applies it:
+ * <ul>
+ * <li> Changes are held back until their transaction commits, then
+ * applied all at once under exclusive page locks, so local queries see
+ * whole transactions.  The changes of aborted transactions are dropped.
+ * <li> Changes to a page are applied in log order: a committed
+ * transaction waits while an earlier change to one of its pages is still
+ * pending.
+ * </ul>
+ * The primary's table ids are derived from its file paths, so records are
+ * read with a map from the primary's table ids to the replica's.
+ * <p>
+ * The replica keeps its state in memory: one that stops is seeded again
+ * from a backup.
+ */
+public class LogReplica implements Closeable {
+
+    // one logged change, waiting for its transaction
+    private static class Pending {
+        final long lsn;
+        final LogFile.LoggedUpdate update;
+        final List<Pending> unit; // every change of its transaction
+
+        Pending(long lsn, LogFile.LoggedUpdate update, List<Pending> unit) {
+            this.lsn = lsn;
+            this.update = update;
+            this.unit = unit;
+        }
+    }
+
+    private final LogFile wal;
+    private final Socket socket;
+    private final TransactionId applier = new TransactionId();
+
+    // changes of transactions that have not finished yet
+    private final Map<Long, List<Pending>> open = new HashMap<>();
+    // changes not yet applied, per page in log order
+    private final Map<PageId, ArrayDeque<Pending>> pageQueues = new HashMap<>();
+    // committed transactions not yet applied, in commit order
+    private final List<List<Pending>> committed = new ArrayList<>();
+
+    private long received;
+    private volatile long appliedLsn;
+    private volatile long primaryLsn;
+    private volatile long primaryTime;
+    private volatile long appliedPrimaryTime;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private LogReplica(LogFile wal, long end, Socket socket) {
+        this.wal = wal;
+        this.socket = socket;
+        this.received = end;
+        this.appliedLsn = end;
+        this.primaryLsn = end;
+    }
+
+    /**
+     * Seed the local tables from a backup and start following a primary.
+     *
+     * @param backupDir a {@link HotBackup} bundle of the primary
+     * @param walFile where to keep the replica's copy of the log
+     * @param tableMap primary table id -> id of the local copy, for every
+     *   table in the backup; see {@link #mapTablesByName}
+     * @param host the primary's {@link LogShipper}
+     * @param port the primary's {@link LogShipper}
+     */
+    public static LogReplica start(File backupDir, File walFile, Map<Integer, Integer> tableMap, String host, int port)
+        throws IOException {
+        Properties manifest = HotBackup.loadManifest(backupDir);
+        long segmentSize = Long.parseLong(manifest.getProperty("segmentSize"));
+        long startLsn = Long.parseLong(manifest.getProperty("startLsn"));
+        long archivedLsn = Long.parseLong(manifest.getProperty("archivedLsn"));
+        int tables = Integer.parseInt(manifest.getProperty("tables"));
+        for (int n = 0; n < tables; n++) {
+            int primaryId = Integer.parseInt(manifest.getProperty("table." + n + ".id"));
+            Integer localId = tableMap.get(primaryId);
+            if (localId == null) {
+                throw new IOException("no local copy of table " + manifest.getProperty("table." + n + ".name"));
+            }
+            DbFile table = Database.getCatalog().getDatabaseFile(localId);
+            PageFile local = HotBackup.pageFile(table);
+            HotBackup.copyPages(new File(backupDir, manifest.getProperty("table." + n + ".copy")), local.getFile());
+            local.reload();
+            String overflow = manifest.getProperty("table." + n + ".overflow");
+            if (overflow != null && table instanceof HeapFile) {
+                PageFile localOverflow = ((HeapFile) table).getOverflowPageFile();
+                HotBackup.copyPages(new File(backupDir, overflow), localOverflow.getFile());
+                localOverflow.reload();
+            }
+            for (int c = 1; manifest.getProperty("table." + n + ".column." + c + ".copy") != null; c++) {
+                if (!(table instanceof ColumnFile)) {
+                    throw new IOException("local copy of table " + manifest.getProperty("table." + n + ".name")
+                            + " is not stored by column");
+                }
+                PageFile column = ((ColumnFile) table).getPageFile(c);
+                HotBackup.copyPages(new File(backupDir, manifest.getProperty("table." + n + ".column." + c + ".copy")),
+                        column.getFile());
+                column.reload();
+            }
+            if (table instanceof ColumnFile) {
+                ((ColumnFile) table).reload();
+            }
+        }
+
+        LogSegments segments = new LogSegments(walFile, segmentSize);
+        segments.reset();
+        segments.close();
+        LogFile archive = new LogFile(new File(backupDir, HotBackup.LOG), segmentSize);
+        try {
+            archive.copyLog(walFile, startLsn, archivedLsn);
+        } finally {
+            archive.close();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(walFile, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(Long.parseLong(manifest.getProperty("checkpointLsn")));
+        }
+
+        LogFile wal = new LogFile(walFile, segmentSize);
+        wal.setTableMap(new HashMap<>(tableMap));
+        Map<Long, Long> losers = new HashMap<>();
+        long end = wal.replayWithoutLogging(losers);
+
+        Socket socket = new Socket(host, port);
+        LogReplica replica = new LogReplica(wal, end, socket);
+        // the unfinished transactions may still commit, so their undone
+        // changes wait like any others
+        List<Pending> undone = new ArrayList<>();
+        for (Map.Entry<Long, Long> e : losers.entrySet()) {
+            List<Pending> unit = replica.unit(e.getKey());
+            wal.walkChain(e.getValue(), (lsn, type, tid, update) -> {
+                if (update != null) {
+                    undone.add(new Pending(lsn, update, unit));
+                }
+            });
+        }
+        undone.sort(Comparator.comparingLong(p -> p.lsn));
+        for (Pending p : undone) {
+            replica.enqueue(p);
+        }
+
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeLong(end);
+        out.flush();
+        Thread t = new Thread(replica::follow, "log replica of " + host + ":" + port);
+        t.setDaemon(true);
+        t.start();
+        return replica;
+    }
+
+    /**
+     * Map the tables of a backup to the tables of the same names in the
+     * local catalog.
+     *
+     * @return primary table id -> local table id
+     */
+    public static Map<Integer, Integer> mapTablesByName(File backupDir) throws IOException {
+        Properties manifest = HotBackup.loadManifest(backupDir);
+        Map<Integer, Integer> map = new HashMap<>();
+        int tables = Integer.parseInt(manifest.getProperty("tables"));
+        for (int n = 0; n < tables; n++) {
+            String name = manifest.getProperty("table." + n + ".name");
+            try {
+                map.put(Integer.parseInt(manifest.getProperty("table." + n + ".id")),
+                        Database.getCatalog().getTableId(name));
+            } catch (NoSuchElementException e) {
+                throw new IOException("no local table named " + name);
+            }
+        }
+        return map;
+    }
+
+    /** @return the LSN up to which the primary's log has been applied,
+        leaving aside transactions that have not committed yet */
+    public long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    /** @return how many bytes of durable log the primary had, when it
+        last said, that the replica has not applied yet */
+    public long getLagBytes() {
+        return Math.max(0, primaryLsn - appliedLsn);
+    }
+
+    /** @return how long ago, in the primary's time, the primary logged
+        the oldest change the replica has not applied yet; 0 if caught up */
+    public long getLagMillis() {
+        if (appliedLsn >= primaryLsn) {
+            return 0;
+        }
+        return Math.max(0, primaryTime - appliedPrimaryTime);
+    }
+
+    /** @return why the replica stopped following the primary, or null */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    private List<Pending> unit(long tid) {
+        return open.computeIfAbsent(tid, k -> new ArrayList<>());
+    }
+
+    private void enqueue(Pending p) {
+        p.unit.add(p);
+        pageQueues.computeIfAbsent(p.update.page.pid, k -> new ArrayDeque<>()).add(p);
+    }
+
+    private void follow() {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] data = new byte[0];
+            while (!closed) {
+                long lsn = in.readLong();
+                int len = in.readInt();
+                long time = in.readLong();
+                long durable = in.readLong();
+                if (data.length < len) {
+                    data = new byte[len];
+                }
+                in.readFully(data, 0, len);
+                if (len > 0) {
+                    if (lsn != received) {
+                        throw new IOException("expected log at LSN " + received + ", got " + lsn);
+                    }
+                    wal.writeShipped(lsn, data, len);
+                    received = lsn + len;
+                }
+                primaryTime = time;
+                long parsed = wal.scanRecords(appliedLsn, this::onRecord);
+                applyCommitted();
+                if (parsed == received) {
+                    appliedPrimaryTime = time;
+                }
+                appliedLsn = parsed;
+                primaryLsn = durable;
+                // pending changes are held in memory, so the log before
+                // the next record is no longer needed
+                wal.recycleBefore(parsed);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+        }
+    }
+
+    private void onRecord(long lsn, int type, long tid, LogFile.LoggedUpdate update) {
+        switch (type) {
+        case LogFile.UPDATE_RECORD:
+        case LogFile.DELTA_RECORD:
+            if (tid == LogFile.NO_CHECKPOINT_ID) {
+                // a page image written by a rollback: committed state
+                List<Pending> unit = new ArrayList<>();
+                enqueue(new Pending(lsn, update, unit));
+                committed.add(unit);
+            } else {
+                enqueue(new Pending(lsn, update, unit(tid)));
+            }
+            break;
+        case LogFile.COMMIT_RECORD:
+            List<Pending> unit = open.remove(tid);
+            if (unit != null) {
+                committed.add(unit);
+            }
+            break;
+        case LogFile.ABORT_RECORD:
+            List<Pending> dropped = open.remove(tid);
+            if (dropped != null) {
+                for (Pending p : dropped) {
+                    pageQueues.get(p.update.page.pid).remove(p);
+                }
+            }
+            break;
+        default:
+        }
+    }
+
+    // apply every committed transaction whose changes are next in line on
+    // all of their pages, until none is
+    private void applyCommitted() throws IOException {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Iterator<List<Pending>> it = committed.iterator(); it.hasNext(); ) {
+                List<Pending> unit = it.next();
+                if (isNext(unit)) {
+                    apply(unit);
+                    it.remove();
+                    progress = true;
+                }
+            }
+        }
+        pageQueues.values().removeIf(ArrayDeque::isEmpty);
+    }
+
+    private boolean isNext(List<Pending> unit) {
+        for (Pending p : unit) {
+            if (pageQueues.get(p.update.page.pid).peekFirst().unit != unit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void apply(List<Pending> unit) throws IOException {
+        Map<PageId, byte[]> working = new HashMap<>();
+        Map<PageId, LogFile.PageRef> refs = new HashMap<>();
+        for (Pending p : unit) {
+            lock(p.update.page.pid);
+        }
+        try {
+            for (Pending p : unit) {
+                p.update.redo(working);
+                refs.put(p.update.page.pid, p.update.page);
+                pageQueues.get(p.update.page.pid).pollFirst();
+            }
+            wal.installPages(working, refs);
+        } finally {
+            Database.getBufferPool().getLockManager().releaseLock(applier);
+        }
+    }
+
+    // wait out the local queries reading the page
+    private void lock(PageId pid) throws IOException {
+        LockManager locks = Database.getBufferPool().getLockManager();
+        try {
+            while (!locks.acquireLock(applier, pid, Permissions.READ_WRITE)) {
+                Thread.sleep(1);
+            }
+        } catch (TransactionAbortedException | InterruptedException e) {
+            throw new IOException("cannot lock " + pid, e);
+        }
+    }
+
+    /** Stop following the primary. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        wal.close();
+    }
+}
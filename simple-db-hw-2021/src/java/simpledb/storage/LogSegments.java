@@ -0,0 +1,309 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the log as a series of fixed-size segment files.  LSNs
+ * are global: segment n holds LSNs [n * segmentSize, (n + 1) * segmentSize)
+ * and is named after the log file with n appended in hex, e.g.
+ * <tt>log.000000000000002a</tt>.  A record may span two segments.
+ * <p>
+ * Once a checkpoint has moved the recovery horizon past a segment, {@link
+ * #recycleBefore} drops it without touching the rest of the log: the file
+ * is emptied and kept as a spare for the next segment, or deleted if
+ * enough spares exist.  Either way the cost does not depend on how much
+ * log is still live.
+ * <p>
+ * Segments are written with positional FileChannel writes; see {@link
+ * MappedLogSegments} for a memory-mapped alternative.
+ */
+public class LogSegments implements LogStore {
+
+    /** Default size of a segment file, in bytes. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L << 20;
+
+    /** Emptied segments kept around for reuse. */
+    private static final int MAX_SPARES = 2;
+
+    private final File dir;
+    private final String name;
+    protected final long segmentSize;
+
+    // segment number -> open file, for every segment on disk
+    private final TreeMap<Long, RandomAccessFile> segments = new TreeMap<>();
+    private final Deque<File> spares = new ArrayDeque<>();
+    // segments written since the last force
+    private final Set<Long> unforced = new HashSet<>();
+    private long startLsn;
+    private long endLsn;
+
+    /**
+     * Open the segments of the log named by base, creating none until
+     * something is written.
+     *
+     * @param base the log file; segments live next to it
+     * @param segmentSize the size of each segment in bytes
+     */
+    public LogSegments(File base, long segmentSize) throws IOException {
+        this.dir = base.getAbsoluteFile().getParentFile();
+        this.name = base.getName();
+        this.segmentSize = segmentSize;
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String fileName = f.getName();
+                if (fileName.startsWith(name + ".spare")) {
+                    spares.add(f);
+                } else if (fileName.length() == name.length() + 17 && fileName.startsWith(name + ".")) {
+                    try {
+                        long n = Long.parseLong(fileName.substring(name.length() + 1), 16);
+                        segments.put(n, new RandomAccessFile(f, "rw"));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            startLsn = endLsn = 0;
+        } else {
+            startLsn = segments.firstKey() * segmentSize;
+            Map.Entry<Long, RandomAccessFile> last = segments.lastEntry();
+            endLsn = last.getKey() * segmentSize + last.getValue().length();
+        }
+    }
+
+    /** @return the size of each segment in bytes */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** @return the lowest LSN still stored */
+    public synchronized long getStartLsn() {
+        return startLsn;
+    }
+
+    /** @return the LSN just past the last byte written */
+    public synchronized long getEndLsn() {
+        return endLsn;
+    }
+
+    /** @return the number of segment files holding log data */
+    public synchronized int numSegments() {
+        return segments.size();
+    }
+
+    @Override
+    public void write(ByteBuffer src, long lsn) throws IOException {
+        while (src.hasRemaining()) {
+            long n = lsn / segmentSize;
+            int off = (int) (lsn % segmentSize);
+            int len = (int) Math.min(src.remaining(), segmentSize - off);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            FileChannel channel = segment(n, true).getChannel();
+            long pos = off;
+            while (part.hasRemaining()) {
+                pos += channel.write(part, pos);
+            }
+            src.position(src.position() + len);
+            lsn += len;
+            written(n, lsn);
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (Long n : takeUnforced()) {
+            RandomAccessFile f = segment(n, false);
+            if (f != null) {
+                f.getChannel().force(true);
+            }
+        }
+    }
+
+    /** Record that segment n now holds data up to lsn. */
+    protected synchronized void written(long n, long lsn) {
+        unforced.add(n);
+        endLsn = Math.max(endLsn, lsn);
+    }
+
+    /** @return the segments written since the last call, which need forcing */
+    protected synchronized Long[] takeUnforced() {
+        Long[] toForce = unforced.toArray(new Long[0]);
+        unforced.clear();
+        return toForce;
+    }
+
+    /** Called when segment n is closed, recycled or deleted. */
+    protected void dropped(long n) {
+    }
+
+    /**
+     * Read bytes starting at the given LSN, stopping at the end of the
+     * segment that holds it.
+     *
+     * @return the number of bytes read, or -1 at the end of the log
+     */
+    public int read(ByteBuffer dst, long lsn) throws IOException {
+        RandomAccessFile f;
+        synchronized (this) {
+            if (lsn >= endLsn) {
+                return -1;
+            }
+            if (lsn < startLsn) {
+                throw new IOException("LSN " + lsn + " has been recycled");
+            }
+            f = segments.get(lsn / segmentSize);
+        }
+        int off = (int) (lsn % segmentSize);
+        long available;
+        synchronized (this) {
+            available = Math.min(segmentSize - off, endLsn - lsn);
+        }
+        if (dst.remaining() > available) {
+            dst.limit(dst.position() + (int) available);
+        }
+        return f.getChannel().read(dst, off);
+    }
+
+    /**
+     * Copy the log between two LSNs into the segments of another log,
+     * each byte at the same LSN, with FileChannel.transferTo.  The target
+     * segments are created as needed and must use the same segment size.
+     *
+     * @param base the other log's file; its segments live next to it
+     */
+    public void copyTo(File base, long from, long to) throws IOException {
+        File targetDir = base.getAbsoluteFile().getParentFile();
+        long lsn = from;
+        while (lsn < to) {
+            long n = lsn / segmentSize;
+            long off = lsn % segmentSize;
+            long len = Math.min(segmentSize - off, to - lsn);
+            RandomAccessFile f;
+            synchronized (this) {
+                if (lsn < startLsn || to > endLsn) {
+                    throw new IOException("LSNs " + from + " to " + to + " are not all in the log");
+                }
+                f = segments.get(n);
+            }
+            try (RandomAccessFile target = new RandomAccessFile(segmentFile(targetDir, base.getName(), n), "rw")) {
+                FileChannel out = target.getChannel();
+                out.position(off);
+                long done = 0;
+                while (done < len) {
+                    done += f.getChannel().transferTo(off + done, len - done, out);
+                }
+                out.force(true);
+            }
+            lsn += len;
+        }
+    }
+
+    /**
+     * Drop every segment that lies entirely below the given LSN.
+     */
+    public synchronized void recycleBefore(long lsn) throws IOException {
+        long last = lsn / segmentSize; // first segment to keep
+        while (!segments.isEmpty() && segments.firstKey() < last) {
+            Map.Entry<Long, RandomAccessFile> e = segments.pollFirstEntry();
+            dropped(e.getKey());
+            e.getValue().close();
+            unforced.remove(e.getKey());
+            File f = segmentFile(e.getKey());
+            if (spares.size() < MAX_SPARES) {
+                File spare = new File(dir, name + ".spare" + e.getKey());
+                try (RandomAccessFile empty = new RandomAccessFile(f, "rw")) {
+                    empty.setLength(0);
+                }
+                if (f.renameTo(spare)) {
+                    spares.add(spare);
+                    continue;
+                }
+            }
+            f.delete();
+        }
+        startLsn = Math.max(startLsn, Math.min(last * segmentSize, endLsn));
+    }
+
+    /**
+     * Discard everything at or after the given LSN, e.g. a record torn by
+     * a crash.
+     */
+    public synchronized void truncate(long lsn) throws IOException {
+        long keep = lsn / segmentSize;
+        while (!segments.isEmpty() && segments.lastKey() > keep) {
+            Map.Entry<Long, RandomAccessFile> e = segments.pollLastEntry();
+            dropped(e.getKey());
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        RandomAccessFile f = segments.get(keep);
+        if (f != null) {
+            f.setLength(lsn % segmentSize);
+        }
+        endLsn = Math.min(endLsn, lsn);
+    }
+
+    /**
+     * Throw away the whole log and start again at LSN 0.
+     */
+    public synchronized void reset() throws IOException {
+        for (Map.Entry<Long, RandomAccessFile> e : segments.entrySet()) {
+            dropped(e.getKey());
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        segments.clear();
+        unforced.clear();
+        startLsn = endLsn = 0;
+    }
+
+    /** Close every segment file. */
+    public synchronized void close() throws IOException {
+        for (Map.Entry<Long, RandomAccessFile> e : segments.entrySet()) {
+            dropped(e.getKey());
+            e.getValue().close();
+        }
+        segments.clear();
+    }
+
+    private File segmentFile(long n) {
+        return segmentFile(dir, name, n);
+    }
+
+    private static File segmentFile(File dir, String name, long n) {
+        return new File(dir, String.format("%s.%016x", name, n));
+    }
+
+    /** @return the open file for segment n, created (from a spare if
+        possible) if asked, or null */
+    protected synchronized RandomAccessFile segment(long n, boolean create) throws IOException {
+        RandomAccessFile f = segments.get(n);
+        if (f == null && create) {
+            File file = segmentFile(n);
+            File spare = spares.poll();
+            if (spare != null && !spare.renameTo(file)) {
+                spare.delete();
+            }
+            f = new RandomAccessFile(file, "rw");
+            segments.put(n, f);
+            if (segments.size() == 1) {
+                startLsn = n * segmentSize;
+            }
+        }
+        return f;
+    }
+}
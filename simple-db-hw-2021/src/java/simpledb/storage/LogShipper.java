@@ -0,0 +1,150 @@
+package simpledb.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LogShipper streams a primary's log to {@link LogReplica}s over TCP.
+ * <p>
+ * A replica connects and sends the LSN it needs next.  From then on the
+ * shipper sends it every byte of the log as soon as the byte is durable,
+ * in frames of
+ * <pre>
+ *   long lsn, int length, long primary time (ms), long primary durable LSN,
+ *   length bytes of log
+ * </pre>
+ * and a frame with no bytes every {@link #HEARTBEAT_MILLIS} when there is
+ * nothing to send, so the replica can tell how far behind it is.  The
+ * bytes are the log exactly as on disk; records may be split across
+ * frames.
+ * <p>
+ * Each connection pins the log from the next LSN it will send (see {@link
+ * LogFile#pinLog}), so a slow replica holds back log truncation rather than
+ * losing records.
+ */
+public class LogShipper implements Closeable {
+
+    /** How often an idle connection sends an empty frame. */
+    public static final long HEARTBEAT_MILLIS = 100;
+    // how long to wait before looking for more durable log
+    private static final long POLL_MILLIS = 1;
+    private static final int MAX_FRAME = 64 * 1024;
+
+    private final LogFile log;
+    private final ServerSocket server;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Start accepting replicas.
+     *
+     * @param log the log to ship, normally the database's
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public LogShipper(LogFile log, int port) throws IOException {
+        this.log = log;
+        this.server = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept, "log shipper " + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** @return the port replicas connect to */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** @return the number of replicas connected */
+    public int getReplicaCount() {
+        return connections.size();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                connections.add(socket);
+                Thread t = new Thread(() -> ship(socket), "log shipper to " + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void ship(Socket socket) {
+        long lsn = -1;
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            lsn = in.readLong();
+            log.pinLog(lsn);
+            ByteBuffer buf = ByteBuffer.allocate(MAX_FRAME);
+            long lastSent = 0;
+            while (!closed) {
+                long durable = log.getFlushedLsn();
+                long now = System.currentTimeMillis();
+                if (durable > lsn) {
+                    buf.clear();
+                    buf.limit((int) Math.min(MAX_FRAME, durable - lsn));
+                    int n = log.readLog(buf, lsn);
+                    writeFrame(out, lsn, n, now, durable, buf.array());
+                    log.pinLog(lsn + n);
+                    log.unpinLog(lsn);
+                    lsn += n;
+                    lastSent = now;
+                } else if (now - lastSent >= HEARTBEAT_MILLIS) {
+                    writeFrame(out, lsn, 0, now, durable, buf.array());
+                    lastSent = now;
+                } else {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+        } catch (SocketException e) {
+            // the replica went away
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (lsn >= 0) {
+                log.unpinLog(lsn);
+            }
+            connections.remove(socket);
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, long lsn, int len, long now, long durable, byte[] data)
+        throws IOException {
+        out.writeLong(lsn);
+        out.writeInt(len);
+        out.writeLong(now);
+        out.writeLong(durable);
+        out.write(data, 0, len);
+        out.flush();
+    }
+
+    /** Stop accepting replicas and disconnect the ones connected. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket s : connections) {
+            s.close();
+        }
+    }
+}
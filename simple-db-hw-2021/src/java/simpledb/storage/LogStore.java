@@ -0,0 +1,24 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LogStore is where a {@link LogBuffer} puts the bytes of the log.  The log
+ * is a single address space of LSNs; the store decides how that space is
+ * laid out on disk.
+ *
+ * @see LogSegments
+ */
+public interface LogStore {
+
+    /**
+     * Write all remaining bytes of src at the given LSN.
+     */
+    void write(ByteBuffer src, long lsn) throws IOException;
+
+    /**
+     * Make every byte written so far durable.
+     */
+    void force() throws IOException;
+}
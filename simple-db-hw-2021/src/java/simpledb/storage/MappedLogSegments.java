@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MappedLogSegments is a {@link LogSegments} that appends by copying into
+ * memory-mapped segment files instead of calling FileChannel.write.  Each
+ * segment is mapped whole when it is first written, which pre-allocates
+ * it at its full size, so an append is a memcpy and the only system calls
+ * left on the log path are the msyncs done by {@link #force}.
+ * <p>
+ * Because segments are pre-allocated, the last segment of a log that was
+ * not shut down cleanly is padded with zeros after its last record.
+ * Recovery stops at the first record with an invalid type and truncates
+ * the log there.
+ */
+public class MappedLogSegments extends LogSegments {
+
+    private final Map<Long, MappedByteBuffer> maps = new ConcurrentHashMap<>();
+
+    /**
+     * @param base the log file; segments live next to it
+     * @param segmentSize the size of each segment in bytes; at most 2GB
+     */
+    public MappedLogSegments(File base, long segmentSize) throws IOException {
+        super(base, segmentSize);
+        if (segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("mapped segments must be smaller than 2GB");
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src, long lsn) throws IOException {
+        while (src.hasRemaining()) {
+            long n = lsn / segmentSize;
+            int off = (int) (lsn % segmentSize);
+            int len = (int) Math.min(src.remaining(), segmentSize - off);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            ByteBuffer dst = map(n).duplicate();
+            dst.position(off);
+            dst.put(part);
+            src.position(src.position() + len);
+            lsn += len;
+            written(n, lsn);
+        }
+    }
+
+    /**
+     * Force the written segments to disk.  MappedByteBuffer.force(int, int)
+     * only exists from Java 13 on, so the whole mapping is forced; msync
+     * only writes back pages that are dirty, which are the pages appended
+     * since the last force.
+     */
+    @Override
+    public void force() throws IOException {
+        for (Long n : takeUnforced()) {
+            MappedByteBuffer map = maps.get(n);
+            if (map != null) {
+                map.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void truncate(long lsn) throws IOException {
+        // the segment being shortened must not stay mapped past its end
+        maps.remove(lsn / segmentSize);
+        super.truncate(lsn);
+    }
+
+    @Override
+    protected void dropped(long n) {
+        maps.remove(n);
+    }
+
+    private MappedByteBuffer map(long n) throws IOException {
+        MappedByteBuffer map = maps.get(n);
+        if (map == null) {
+            synchronized (this) {
+                map = maps.get(n);
+                if (map == null) {
+                    map = segment(n, true).getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                    maps.put(n, map);
+                }
+            }
+        }
+        return map;
+    }
+}
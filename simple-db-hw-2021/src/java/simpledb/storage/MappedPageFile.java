@@ -0,0 +1,179 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * MappedPageFile is a {@link PageFile} that reads through read-only memory
+ * mappings of the file instead of FileChannel.read, for tables that are
+ * read much more than written.  A page read is then a lookup in the OS
+ * page cache with no system call, which makes the page cache a large
+ * second-level cache behind the {@link BufferPool}.
+ * <p>
+ * The file is mapped in chunks of {@link #CHUNK_SIZE} bytes, each when it
+ * is first read.  Writes still go through the channel; the mappings are
+ * shared, so they see them.  A chunk is only mapped up to the end of the
+ * file, so when a write grows the file past the end of the last mapping,
+ * that chunk is mapped again on its next read.  Java 8 cannot unmap, so
+ * replaced mappings go away when they are garbage collected.
+ * <p>
+ * Pages are decoded where they lie in the mappings (see {@link #image}),
+ * without a copy.  As the mappings see writes, each such image is copied
+ * before a write or truncate made here reaches its page; writes made
+ * elsewhere, e.g. a file copied over this one, are not seen in time, so
+ * the images of a file must be let go of before it is replaced.
+ */
+public class MappedPageFile extends PageFile {
+
+    /** Size of each mapped region.  A page that would straddle two is
+        read through the channel instead. */
+    public static final int CHUNK_SIZE = 1 << 26;
+
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0]; // guarded by this
+    // the images over the mappings that are still in use, by the position
+    // of their page
+    private final TreeMap<Long, List<ImageRef>> images = new TreeMap<>(); // guarded by this
+    private final ReferenceQueue<PageImage> unused = new ReferenceQueue<>();
+
+    private static final class ImageRef extends WeakReference<PageImage> {
+        final long position;
+
+        ImageRef(PageImage image, long position, ReferenceQueue<PageImage> q) {
+            super(image, q);
+            this.position = position;
+        }
+    }
+
+    public MappedPageFile(File file) throws IOException {
+        super(file);
+    }
+
+    /**
+     * Return a read-only view of part of the file, or null if it cannot
+     * be had from a single mapping.
+     *
+     * @param position the offset in the file
+     * @param len the number of bytes; all of them must be in the file
+     * @return a buffer with position 0 and limit len, or null
+     */
+    public ByteBuffer map(long position, int len) throws IOException {
+        int c = (int) (position / CHUNK_SIZE);
+        int off = (int) (position % CHUNK_SIZE);
+        long end = position + len;
+        if (off + len > CHUNK_SIZE || (end > size() && end > refreshSize())) {
+            return null;
+        }
+        ByteBuffer view = chunk(c, off + len).duplicate();
+        view.position(off);
+        view.limit(off + len);
+        return view.slice();
+    }
+
+    /**
+     * Return an image of part of the file to decode a page from in place,
+     * or null if it cannot be had from a single mapping.  The image keeps
+     * the bytes it has now: it is copied before they are written over.
+     *
+     * @see #map
+     */
+    PageImage image(long position, int len) throws IOException {
+        ByteBuffer view = map(position, len);
+        if (view == null) {
+            return null;
+        }
+        PageImage image = new PageImage(view.asReadOnlyBuffer());
+        synchronized (this) {
+            for (Reference<? extends PageImage> r; (r = unused.poll()) != null; ) {
+                ImageRef ref = (ImageRef) r;
+                List<ImageRef> refs = images.get(ref.position);
+                if (refs != null && refs.remove(ref) && refs.isEmpty()) {
+                    images.remove(ref.position);
+                }
+            }
+            images.computeIfAbsent(position, p -> new ArrayList<>()).add(new ImageRef(image, position, unused));
+        }
+        return image;
+    }
+
+    // copy the images of pages that overlap the bytes from start to end
+    private synchronized void detach(long start, long end) {
+        Map<Long, List<ImageRef>> hit = images.subMap(start - BufferPool.getPageSize() + 1, end);
+        for (Iterator<List<ImageRef>> it = hit.values().iterator(); it.hasNext(); ) {
+            for (ImageRef ref : it.next()) {
+                PageImage image = ref.get();
+                if (image != null) {
+                    image.detach();
+                }
+            }
+            it.remove();
+        }
+    }
+
+    // chunk c, mapped at least up to need bytes
+    private synchronized ByteBuffer chunk(int c, int need) throws IOException {
+        if (c >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, c + 1);
+        }
+        MappedByteBuffer m = chunks[c];
+        if (m == null || m.capacity() < need) {
+            long start = (long) c * CHUNK_SIZE;
+            long len = Math.min(CHUNK_SIZE, size() - start);
+            m = getChannel().map(FileChannel.MapMode.READ_ONLY, start, len);
+            chunks[c] = m;
+        }
+        return m;
+    }
+
+    @Override
+    public int read(long position, byte[] dst) throws IOException {
+        ByteBuffer view = map(position, dst.length);
+        if (view == null) {
+            return super.read(position, dst);
+        }
+        view.get(dst);
+        return dst.length;
+    }
+
+    @Override
+    protected void write(long position, ByteBuffer buf) throws IOException {
+        detach(position, position + buf.remaining());
+        long before = size();
+        super.write(position, buf);
+        if (size() > before) {
+            // the last mapping ends at the old end of the file
+            synchronized (this) {
+                int c = (int) ((before - 1) / CHUNK_SIZE);
+                if (before > 0 && c < chunks.length) {
+                    chunks[c] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        detach(size, Long.MAX_VALUE);
+        super.truncate(size);
+    }
+
+    @Override
+    public void reload() throws IOException {
+        // no mapping may reach past the end of the file, if it shrank
+        synchronized (this) {
+            chunks = new MappedByteBuffer[0];
+        }
+        super.reload();
+    }
+}
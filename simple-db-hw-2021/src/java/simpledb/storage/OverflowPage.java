@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * OverflowPage holds one chunk of a string too long to keep in its row
+ * (see {@link SlottedHeapPage#inlineLimit}).  A heap table keeps its
+ * overflow pages in a file of their own next to the table's (see {@link
+ * HeapFile#getOverflowFile}), so scans of the table never read them, but
+ * they go through the BufferPool and the log like any other page.
+ * <p>
+ * The page starts with the number of the overflow page with the next chunk
+ * (-1 after the last) and the length of this chunk, then the chunk.  The
+ * row holds the length of the value and the number of its first page.
+ * <p>
+ * A chunk is written once, when its value is inserted, and never changed,
+ * so readers follow the chain without locks.  Nothing reclaims the pages
+ * of deleted values.
+ */
+public class OverflowPage implements Page {
+
+    static final int HEADER_SIZE = 8;
+
+    private final OverflowPageId pid;
+    private final byte[] page;
+    private TransactionId dirtier;
+
+    /**
+     * Create an OverflowPage from bytes read from disk.
+     */
+    public OverflowPage(OverflowPageId id, byte[] data) throws IOException {
+        this(Arrays.copyOf(data, BufferPool.getPageSize()), id);
+    }
+
+    // a page over an image no one else holds
+    static OverflowPage wrap(OverflowPageId id, byte[] image) {
+        return new OverflowPage(image, id);
+    }
+
+    private OverflowPage(byte[] image, OverflowPageId id) {
+        this.pid = id;
+        this.page = image;
+    }
+
+    /** @return the most bytes of a value one page holds */
+    public static int capacity() {
+        return BufferPool.getPageSize() - HEADER_SIZE;
+    }
+
+    /**
+     * Build the image of an overflow page.
+     *
+     * @param next the page with the next chunk, or -1
+     * @param value the whole value
+     * @param offset where this page's chunk starts in value
+     */
+    static byte[] createPageData(int next, byte[] value, int offset) {
+        int len = Math.min(capacity(), value.length - offset);
+        byte[] image = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(image);
+        buf.putInt(next);
+        buf.putInt(len);
+        buf.put(value, offset, len);
+        return image;
+    }
+
+    /** @return the number of the page with the next chunk, or -1 */
+    public int getNext() {
+        return ByteBuffer.wrap(page).getInt(0);
+    }
+
+    /** @return the length of this page's chunk */
+    public int getChunkLength() {
+        return ByteBuffer.wrap(page).getInt(4);
+    }
+
+    /**
+     * Read a value back from its chain of overflow pages.
+     *
+     * @param tableId the table the value belongs to
+     * @param first the page with its first chunk
+     * @param length its length in bytes
+     */
+    static StringField readValue(int tableId, int first, int length) throws DbException {
+        byte[] value = new byte[length];
+        int offset = 0;
+        int pageNo = first;
+        while (offset < length) {
+            if (pageNo < 0) {
+                throw new DbException("overflow chain of page " + first + " ends early");
+            }
+            OverflowPage p = (OverflowPage) Database.getBufferPool()
+                    .getPageUnlocked(new OverflowPageId(tableId, pageNo));
+            int len = Math.min(p.getChunkLength(), length - offset);
+            if (len <= 0) {
+                throw new DbException("overflow page " + pageNo + " is empty");
+            }
+            System.arraycopy(p.page, HEADER_SIZE, value, offset, len);
+            offset += len;
+            pageNo = p.getNext();
+        }
+        return new StringField(new String(value), length);
+    }
+
+    public OverflowPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        buf.put(page);
+    }
+
+    // the image is never changed, so the page is its own before image
+    public OverflowPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
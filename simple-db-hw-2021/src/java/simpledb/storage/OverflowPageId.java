@@ -0,0 +1,51 @@
+package simpledb.storage;
+
+/** Unique identifier for OverflowPage objects: a page of the overflow file
+    of a heap table, numbered apart from the table's own pages. */
+public class OverflowPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific overflow page
+     * of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table's overflow file.
+     */
+    public OverflowPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the overflow file of the table */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * (31 * tableId + pgNo) + 7;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof OverflowPageId)) {
+            return false;
+        }
+        OverflowPageId other = (OverflowPageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "OverflowPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
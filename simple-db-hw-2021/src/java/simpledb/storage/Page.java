@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,16 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Write the bytes {@link #getPageData} would return into buf, from its
+   * position on, without building an array for them.  Used to flush and
+   * log pages through reused buffers.
+   *
+   * @param buf where to write; it must have room for a whole page
+   * @see PageBuffers
+   */
+  void writePageData(ByteBuffer buf);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,52 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageBuffers holds the buffers pages are serialized into with
+ * {@link Page#writePageData}, so flushing or logging a page does not
+ * allocate a new page-sized array each time.
+ */
+public class PageBuffers {
+
+    private static final ThreadLocal<ByteBuffer[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new ByteBuffer[2]);
+
+    // only ever read; grown (racily, which is harmless) to the longest run asked for
+    private static volatile byte[] zeros = new byte[0];
+
+    private PageBuffers() {
+    }
+
+    /**
+     * Return one of two heap buffers of a page each, kept per thread, for
+     * serializing a page whose bytes are used before the next call.
+     *
+     * @param slot 0 or 1, so that two pages can be compared
+     * @return the buffer, cleared and limited to the page size
+     */
+    public static ByteBuffer scratch(int slot) {
+        int len = BufferPool.getPageSize();
+        ByteBuffer[] buffers = SCRATCH.get();
+        ByteBuffer buf = buffers[slot];
+        if (buf == null || buf.capacity() < len) {
+            buf = ByteBuffer.allocate(len);
+            buffers[slot] = buf;
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    /**
+     * Put len zero bytes into buf, e.g. for empty slots and padding.
+     */
+    public static void putZeros(ByteBuffer buf, int len) {
+        byte[] z = zeros;
+        if (z.length < len) {
+            z = new byte[len];
+            zeros = z;
+        }
+        buf.put(z, 0, len);
+    }
+}
@@ -0,0 +1,252 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodecs is the registry that turns page images and page ids back into
+ * objects without reflection.  Every kind of page and every kind of page id
+ * has a small integer type tag and a codec; the log writes the tag (one
+ * byte) where it used to write a class name, and reading a record back is a
+ * table lookup and a constructor call.
+ * <p>
+ * The pages and ids that ship with SimpleDB are registered here.  Other
+ * kinds must be registered with {@link #registerPage} and {@link
+ * #registerId} before anything of that kind is logged or read back.
+ */
+public class PageCodecs {
+
+    /** Rebuilds pages of one kind from their id and serialized bytes. */
+    public interface PageCodec {
+        Page decode(PageId pid, byte[] data) throws IOException;
+    }
+
+    /** Writes and reads page ids of one kind, without their type tag. */
+    public interface IdCodec {
+        void write(DataOutput out, PageId pid) throws IOException;
+
+        PageId read(DataInput in) throws IOException;
+
+        /** @return the same page id in another table */
+        default PageId withTableId(PageId pid, int tableId) {
+            throw new UnsupportedOperationException("cannot move " + pid.getClass().getName() + " to another table");
+        }
+    }
+
+    public static final int HEAP_PAGE = 1;
+    public static final int BTREE_ROOT_PTR_PAGE = 2;
+    public static final int BTREE_INTERNAL_PAGE = 3;
+    public static final int BTREE_LEAF_PAGE = 4;
+    public static final int BTREE_HEADER_PAGE = 5;
+    public static final int SLOTTED_HEAP_PAGE = 6;
+    public static final int OVERFLOW_PAGE = 7;
+    public static final int COLUMN_PAGE = 8;
+    public static final int COMPRESSED_COLUMN_PAGE = 9;
+
+    public static final int HEAP_PAGE_ID = 1;
+    public static final int BTREE_PAGE_ID = 2;
+    public static final int OVERFLOW_PAGE_ID = 3;
+    public static final int COLUMN_PAGE_ID = 4;
+
+    private static final int MAX_TAG = 255;
+
+    private static final PageCodec[] pageCodecs = new PageCodec[MAX_TAG + 1];
+    private static final IdCodec[] idCodecs = new IdCodec[MAX_TAG + 1];
+    private static final Map<Class<?>, Integer> pageTags = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Integer> idTags = new ConcurrentHashMap<>();
+
+    static {
+        registerId(HEAP_PAGE_ID, HeapPageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                int tableId = in.readInt();
+                return new HeapPageId(tableId, in.readInt());
+            }
+
+            public PageId withTableId(PageId pid, int tableId) {
+                return new HeapPageId(tableId, pid.getPageNumber());
+            }
+        });
+        registerId(BTREE_PAGE_ID, BTreePageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+                out.writeByte(((BTreePageId) pid).pgcateg());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                int tableId = in.readInt();
+                int pgNo = in.readInt();
+                return new BTreePageId(tableId, pgNo, in.readUnsignedByte());
+            }
+
+            public PageId withTableId(PageId pid, int tableId) {
+                return new BTreePageId(tableId, pid.getPageNumber(), ((BTreePageId) pid).pgcateg());
+            }
+        });
+
+        registerId(OVERFLOW_PAGE_ID, OverflowPageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                int tableId = in.readInt();
+                return new OverflowPageId(tableId, in.readInt());
+            }
+
+            public PageId withTableId(PageId pid, int tableId) {
+                return new OverflowPageId(tableId, pid.getPageNumber());
+            }
+        });
+
+        registerId(COLUMN_PAGE_ID, ColumnPageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(((ColumnPageId) pid).getColumn());
+                out.writeInt(pid.getPageNumber());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                int tableId = in.readInt();
+                int column = in.readInt();
+                return new ColumnPageId(tableId, column, in.readInt());
+            }
+
+            public PageId withTableId(PageId pid, int tableId) {
+                return new ColumnPageId(tableId, ((ColumnPageId) pid).getColumn(), pid.getPageNumber());
+            }
+        });
+
+        registerPage(HEAP_PAGE, HeapPage.class,
+                (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        registerPage(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class,
+                (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+        registerPage(BTREE_INTERNAL_PAGE, BTreeInternalPage.class,
+                (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(BTREE_LEAF_PAGE, BTreeLeafPage.class,
+                (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(BTREE_HEADER_PAGE, BTreeHeaderPage.class,
+                (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+        registerPage(SLOTTED_HEAP_PAGE, SlottedHeapPage.class,
+                (pid, data) -> new SlottedHeapPage((HeapPageId) pid, data));
+        registerPage(OVERFLOW_PAGE, OverflowPage.class,
+                (pid, data) -> new OverflowPage((OverflowPageId) pid, data));
+        registerPage(COLUMN_PAGE, ColumnPage.class,
+                (pid, data) -> new ColumnPage((ColumnPageId) pid, data));
+        registerPage(COMPRESSED_COLUMN_PAGE, CompressedColumnPage.class,
+                (pid, data) -> new CompressedColumnPage((ColumnPageId) pid, data));
+    }
+
+    // B+ tree pages need the key field of the index they belong to
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /**
+     * Register the codec for a kind of page.
+     *
+     * @param tag the type tag, 1 to 255, unique among page kinds
+     * @param pageClass the class of the pages
+     * @param codec rebuilds pages of that class
+     */
+    public static synchronized void registerPage(int tag, Class<? extends Page> pageClass, PageCodec codec) {
+        checkTag(tag, pageCodecs);
+        pageCodecs[tag] = codec;
+        pageTags.put(pageClass, tag);
+    }
+
+    /**
+     * Register the codec for a kind of page id.
+     *
+     * @param tag the type tag, 1 to 255, unique among page id kinds
+     * @param idClass the class of the ids
+     * @param codec writes and reads ids of that class
+     */
+    public static synchronized void registerId(int tag, Class<? extends PageId> idClass, IdCodec codec) {
+        checkTag(tag, idCodecs);
+        idCodecs[tag] = codec;
+        idTags.put(idClass, tag);
+    }
+
+    private static void checkTag(int tag, Object[] codecs) {
+        if (tag < 1 || tag > MAX_TAG) {
+            throw new IllegalArgumentException("type tag " + tag + " is out of range");
+        }
+        if (codecs[tag] != null) {
+            throw new IllegalArgumentException("type tag " + tag + " is already registered");
+        }
+    }
+
+    /**
+     * @return the type tag of the given kind of page
+     * @throws IllegalArgumentException if it has not been registered
+     */
+    public static int pageTag(Class<? extends Page> pageClass) {
+        Integer tag = pageTags.get(pageClass);
+        if (tag == null) {
+            throw new IllegalArgumentException("no page codec registered for " + pageClass.getName());
+        }
+        return tag;
+    }
+
+    /**
+     * Rebuild a page from its serialized bytes.
+     *
+     * @param tag the type tag of the page, from {@link #pageTag}
+     * @param pid the id of the page
+     * @param data the page's bytes, as returned by {@link Page#getPageData}
+     */
+    public static Page decode(int tag, PageId pid, byte[] data) throws IOException {
+        PageCodec codec = tag > 0 && tag <= MAX_TAG ? pageCodecs[tag] : null;
+        if (codec == null) {
+            throw new IOException("unknown page type tag " + tag);
+        }
+        return codec.decode(pid, data);
+    }
+
+    /** Write a page id preceded by its type tag. */
+    public static void writeId(DataOutput out, PageId pid) throws IOException {
+        Integer tag = idTags.get(pid.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no id codec registered for " + pid.getClass().getName());
+        }
+        out.writeByte(tag);
+        idCodecs[tag].write(out, pid);
+    }
+
+    /** @return the given page id moved to another table */
+    public static PageId withTableId(PageId pid, int tableId) {
+        Integer tag = idTags.get(pid.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no id codec registered for " + pid.getClass().getName());
+        }
+        return idCodecs[tag].withTableId(pid, tableId);
+    }
+
+    /** Read a page id written by {@link #writeId}. */
+    public static PageId readId(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        IdCodec codec = idCodecs[tag];
+        if (codec == null) {
+            throw new IOException("unknown page id type tag " + tag);
+        }
+        return codec.read(in);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageDelta is the physiological body of a DELTA log record: the byte
+ * ranges of one page that differ between two images of it, together with
+ * their old and new contents.
+ * <p>
+ * Inserting or deleting a tuple on a HeapPage or BTreeLeafPage, or an
+ * entry on a BTreeInternalPage, touches one header byte and one slot, so
+ * the delta is two short ranges instead of two full page images.
+ * <p>
+ * Redo writes the new contents of each range and undo writes the old
+ * contents; both are idempotent, so a delta may be applied to a page that
+ * already reflects it.
+ *
+ * @see LogFile#logWrite
+ */
+public class PageDelta {
+
+    /** Ranges separated by fewer unchanged bytes than this are merged,
+        since every range costs two ints of overhead. */
+    private static final int MERGE_GAP = 8;
+
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int[] offsets, byte[][] before, byte[][] after) {
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Compute the ranges that differ between two images of the same page.
+     *
+     * @param oldData the page as it was
+     * @param newData the page as it is now; must be as long as oldData
+     */
+    public static PageDelta diff(byte[] oldData, byte[] newData) {
+        if (oldData.length != newData.length) {
+            throw new IllegalArgumentException("page images differ in size");
+        }
+        return diff(oldData, newData, newData.length);
+    }
+
+    /**
+     * Compute the ranges that differ between the first size bytes of two
+     * images of the same page, e.g. pages serialized into reused buffers.
+     */
+    public static PageDelta diff(byte[] oldData, byte[] newData, int size) {
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < size) {
+            if (oldData[i] == newData[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // exclusive end of the last changed byte
+            for (int j = end; j < size && j - end < MERGE_GAP; j++) {
+                if (oldData[j] != newData[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0];
+            int len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            System.arraycopy(oldData, start, before[r], 0, len);
+            System.arraycopy(newData, start, after[r], 0, len);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /** @return the number of changed ranges */
+    public int numRanges() {
+        return offsets.length;
+    }
+
+    /** @return the number of bytes {@link #writeTo} will produce */
+    public int getEncodedSize() {
+        int size = Integer.BYTES;
+        for (byte[] b : before) {
+            size += 2 * Integer.BYTES + 2 * b.length;
+        }
+        return size;
+    }
+
+    /** Apply the new contents of every range to a page image, in place. */
+    public void redo(byte[] page) {
+        apply(page, after);
+    }
+
+    /** Apply the old contents of every range to a page image, in place. */
+    public void undo(byte[] page) {
+        apply(page, before);
+    }
+
+    private void apply(byte[] page, byte[][] contents) {
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(contents[r], 0, page, offsets[r], contents[r].length);
+        }
+    }
+
+    /**
+     * Serialize this delta: the number of ranges, then for each range its
+     * offset, its length, the old bytes and the new bytes.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(before[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    /** Read a delta written by {@link #writeTo}. */
+    public static PageDelta readFrom(DataInput in) throws IOException {
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageFile is the file underneath a {@link HeapFile} or a BTreeFile.  It
+ * reads and writes with positional FileChannel calls, so there is no
+ * shared file pointer: any number of threads can read pages at once, and
+ * the reads reach the disk concurrently.
+ * <p>
+ * Bytes go through a direct buffer kept per thread, so the channel does
+ * not have to copy them into a temporary one on each call.  The size of
+ * the file is cached and grown by writes made here; {@link #refreshSize}
+ * picks up growth from elsewhere (another process, or a stream opened on
+ * the same path), and {@link #reload} anything else, e.g. a file copied
+ * over this one.
+ */
+public class PageFile implements Closeable {
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BufferPool.getPageSize()));
+
+    private final File file;
+    private final FileChannel channel;
+    private final AtomicLong size;
+
+    /**
+     * Open a file for reading and writing pages, creating it if it does not
+     * exist.
+     */
+    public PageFile(File file) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.size = new AtomicLong(channel.size());
+    }
+
+    /** @return the file this reads and writes */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the underlying channel, for bulk transfers */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /** @return the size of the file as of the last write or refresh */
+    public long size() {
+        return size.get();
+    }
+
+    /** @return the size of the file, asking the file system in case
+        someone else has grown it */
+    public long refreshSize() throws IOException {
+        long now = channel.size();
+        return size.accumulateAndGet(now, Math::max);
+    }
+
+    /** Forget the cached size, after the file has been replaced. */
+    public void reload() throws IOException {
+        size.set(channel.size());
+    }
+
+    /** Cut the file down to size bytes. */
+    public void truncate(long size) throws IOException {
+        channel.truncate(size);
+        reload();
+    }
+
+    // a direct buffer of at least len bytes, cleared and limited to len
+    private static ByteBuffer buffer(int len) {
+        ByteBuffer buf = BUFFERS.get();
+        if (buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(len);
+            BUFFERS.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    /**
+     * Read bytes at a position, stopping early at the end of the file.
+     *
+     * @param position the offset in the file
+     * @param dst filled from its start
+     * @return how many bytes were read; the rest of dst is untouched
+     */
+    public int read(long position, byte[] dst) throws IOException {
+        ByteBuffer buf = buffer(dst.length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                break;
+            }
+        }
+        int n = buf.position();
+        buf.flip();
+        buf.get(dst, 0, n);
+        return n;
+    }
+
+    /**
+     * Write bytes at a position, growing the file if they go past its end.
+     */
+    public void write(long position, byte[] src) throws IOException {
+        ByteBuffer buf = buffer(src.length);
+        buf.put(src);
+        buf.flip();
+        write(position, buf);
+    }
+
+    /**
+     * Write a page at a position, serializing it straight into the buffer
+     * the channel writes from rather than into a new array.
+     */
+    public void write(long position, Page page) throws IOException {
+        ByteBuffer buf = buffer(BufferPool.getPageSize());
+        page.writePageData(buf);
+        buf.flip();
+        write(position, buf);
+    }
+
+    /**
+     * Write all of buf, from position 0 to its limit, at a position in the
+     * file.
+     */
+    protected void write(long position, ByteBuffer buf) throws IOException {
+        int len = buf.remaining();
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+        size.accumulateAndGet(position + len, Math::max);
+    }
+
+    /**
+     * Write bytes at the end of the file.
+     *
+     * @return the position they were written at
+     */
+    public synchronized long append(byte[] src) throws IOException {
+        long position = refreshSize();
+        write(position, src);
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
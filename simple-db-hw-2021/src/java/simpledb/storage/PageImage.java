@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageImage is the image of a page as read, which a {@link HeapPage} and
+ * its tuples decode their fields from.  It is either an array of its own
+ * or a read-only view of a memory-mapped table file (see {@link
+ * MappedPageFile#image}), so a mapped page is decoded where it lies.
+ * <p>
+ * An image never changes.  A view is copied into an array of its own by
+ * {@link #detach}, which MappedPageFile calls before it writes over the
+ * page; a field being decoded while that happens is decoded again from the
+ * copy.
+ */
+final class PageImage {
+
+    private volatile ByteBuffer bytes;
+
+    /** An image over an array no one else holds or changes. */
+    PageImage(byte[] image) {
+        this.bytes = ByteBuffer.wrap(image);
+    }
+
+    /** An image over a view of a mapped file, with position 0. */
+    PageImage(ByteBuffer view) {
+        this.bytes = view;
+    }
+
+    /** @return the field of the given type at offset */
+    Field parse(Type type, int offset) {
+        while (true) {
+            ByteBuffer b = bytes;
+            Field f = type.parse(b, offset);
+            if (b == bytes) {
+                return f;
+            }
+        }
+    }
+
+    /** Copy len bytes at offset into buf. */
+    void get(int offset, ByteBuffer buf, int len) {
+        while (true) {
+            ByteBuffer b = bytes;
+            int start = buf.position();
+            ByteBuffer src = b.duplicate();
+            src.position(offset);
+            src.limit(offset + len);
+            buf.put(src);
+            if (b == bytes) {
+                return;
+            }
+            buf.position(start);
+        }
+    }
+
+    /** @return a copy of len bytes at offset */
+    byte[] copyOf(int offset, int len) {
+        byte[] out = new byte[len];
+        get(offset, ByteBuffer.wrap(out), len);
+        return out;
+    }
+
+    /**
+     * Copy a view into an array of its own, before the file under it
+     * changes.
+     */
+    synchronized void detach() {
+        ByteBuffer b = bytes;
+        if (b.hasArray()) {
+            return;
+        }
+        byte[] copy = new byte[b.capacity()];
+        ByteBuffer src = b.duplicate();
+        src.clear();
+        src.get(copy);
+        bytes = ByteBuffer.wrap(copy);
+    }
+}
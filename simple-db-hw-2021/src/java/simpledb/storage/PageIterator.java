@@ -14,7 +14,7 @@ public class PageIterator implements Iterator<Tuple> {
     public boolean hasNext() {
         while(true) {
             int nextId = slotId + 1;
-            if (nextId >= hp.numSlots) {
+            if (nextId >= hp.getNumSlots()) {
                 return false;
             }
             if (hp.isSlotUsed(nextId)) {
@@ -29,12 +29,12 @@ public class PageIterator implements Iterator<Tuple> {
     public Tuple next() {
         while(true) {
             int nextId = slotId + 1;
-            if (nextId >= hp.numSlots) {
+            if (nextId >= hp.getNumSlots()) {
                 throw new NoSuchElementException();
             }
             if (hp.isSlotUsed(nextId)) {
                 slotId = nextId;
-                return hp.tuples[slotId];
+                return hp.getTuple(slotId);
             }
             slotId += 1;
         }
@@ -0,0 +1,420 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores variable-length records, so a
+ * string takes the bytes it has rather than {@link Type#STRING_LEN} + 4.
+ * Tables choose it with {@link HeapFile.PageFormat#SLOTTED}.
+ * <p>
+ * The page starts with two ints, the number of entries in the slot
+ * directory and the offset of the lowest record (0 on a new page, meaning
+ * the end of the page).  The slot directory follows, one entry per slot:
+ * the offset and length of its record as unsigned shorts, with offset 0
+ * for an empty slot.  Records are packed from the end of the page towards
+ * the directory.  In a record, strings are an unsigned short length and
+ * their bytes; other fields are written as in a fixed-size page.
+ * <p>
+ * Strings longer than {@link #inlineLimit} are kept on {@link OverflowPage}s
+ * instead, which HeapFile writes before it inserts the row.  The row has
+ * 0xFFFF for the length, then the int length of the value and the int
+ * number of its first overflow page.  The value is only read from there
+ * when its field is.
+ * <p>
+ * A slot keeps its number, and so its tuples keep their RecordIds, for as
+ * long as the tuple is on the page.  Deleting a record leaves a hole;
+ * {@link #compact} closes them up, which insertTuple does when a record
+ * only fits that way.
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    static final int HEADER_SIZE = 8;
+    static final int ENTRY_SIZE = 4;
+    // in place of the length of a string kept on overflow pages
+    private static final int OVERFLOW = 0xFFFF;
+    private static final int POINTER_SIZE = 8;
+
+    // the page as it is now; changed in place, once it is no longer the
+    // before image (see writable)
+    private byte[] page;
+    private ByteBuffer buf;
+    private Tuple[] cache; // decoded tuples, by slot
+
+    private byte[] before; // never changed
+    private final Object beforeLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from bytes read from disk, in the format
+     * described above.  An array of zeroes is an empty page.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(Arrays.copyOf(data, BufferPool.getPageSize()), id);
+    }
+
+    // a page over an image no one else holds
+    static SlottedHeapPage wrap(HeapPageId id, byte[] image) {
+        return new SlottedHeapPage(image, id);
+    }
+
+    private SlottedHeapPage(byte[] image, HeapPageId id) {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()));
+        if (image.length > 0x10000) {
+            throw new IllegalArgumentException("slotted pages are at most 64KB");
+        }
+        this.page = image;
+        this.buf = ByteBuffer.wrap(image);
+        this.cache = new Tuple[entries()];
+        // the image is its own before image until the page is changed
+        this.before = image;
+    }
+
+    // make the page an array of its own, if it is still its before image,
+    // before it is changed
+    private void writable() {
+        synchronized (beforeLock) {
+            if (page == before) {
+                page = page.clone();
+                buf = ByteBuffer.wrap(page);
+            }
+        }
+    }
+
+    private int entries() {
+        return buf.getInt(0);
+    }
+
+    private int recordStart() {
+        int start = buf.getInt(4);
+        return start == 0 ? page.length : start;
+    }
+
+    private int entryOffset(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * ENTRY_SIZE) & 0xFFFF;
+    }
+
+    private int entryLength(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * ENTRY_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setEntry(int slot, int offset, int len) {
+        buf.putShort(HEADER_SIZE + slot * ENTRY_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + slot * ENTRY_SIZE + 2, (short) len);
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + entries() * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the length of the longest string kept in its row.
+     */
+    public static int inlineLimit() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    /**
+     * Returns whether a field is too long to keep in its row.
+     */
+    static boolean needsOverflow(Field f) {
+        return f instanceof StringField && ((StringField) f).getValue().length() > inlineLimit();
+    }
+
+    /**
+     * Returns the bytes a tuple's record takes on a slotted page.
+     */
+    static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needsOverflow(t.getField(i))) {
+                len += 2 + POINTER_SIZE;
+            } else if (td.getFieldType(i) == Type.STRING_TYPE) {
+                len += 2 + ((StringField) t.getField(i)).getValue().length();
+            } else {
+                len += td.getFieldType(i).getLen();
+            }
+        }
+        return len;
+    }
+
+    // the smallest record a tuple of this page's table can have
+    private int minRecordLength() {
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            len += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        }
+        return len;
+    }
+
+    // free bytes between the directory and the records
+    private int gap() {
+        return recordStart() - directoryEnd();
+    }
+
+    /**
+     * Returns the bytes that are free on this page, counting the holes
+     * left by deleted records.
+     */
+    public int getFreeSpace() {
+        int used = 0;
+        int n = entries();
+        for (int i = 0; i < n; i++) {
+            used += entryLength(i);
+        }
+        return page.length - directoryEnd() - used;
+    }
+
+    private int emptyEntries() {
+        int empty = 0;
+        int n = entries();
+        for (int i = 0; i < n; i++) {
+            if (entryOffset(i) == 0)
+                empty++;
+        }
+        return empty;
+    }
+
+    int getNumSlots() {
+        return entries();
+    }
+
+    public boolean isSlotUsed(int i) {
+        if (i >= entries()) {
+            throw new NoSuchElementException();
+        }
+        return entryOffset(i) != 0;
+    }
+
+    /**
+     * Returns how many more tuples of the smallest possible size fit on
+     * this page.
+     */
+    public int getNumEmptySlots() {
+        int free = getFreeSpace();
+        int min = minRecordLength();
+        int reusable = emptyEntries();
+        if (free <= reusable * min) {
+            return free / min;
+        }
+        return reusable + (free - reusable * min) / (min + ENTRY_SIZE);
+    }
+
+    boolean hasRoomFor(Tuple t) {
+        int need = recordLength(t) + (emptyEntries() > 0 ? 0 : ENTRY_SIZE);
+        return need <= getFreeSpace();
+    }
+
+    int spaceLevel() {
+        if (getNumEmptySlots() == 0) {
+            return FreeSpaceMap.FULL;
+        }
+        return Math.max(1, getFreeSpace() * FreeSpaceMap.MAX_LEVEL / (page.length - HEADER_SIZE));
+    }
+
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = cache[slotId];
+        if (t == null) {
+            t = decode(entryOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            cache[slotId] = t;
+        }
+        return t;
+    }
+
+    private Tuple decode(int offset) {
+        Tuple t = new Tuple(td);
+        int p = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            if (type == Type.STRING_TYPE) {
+                int len = buf.getShort(p) & 0xFFFF;
+                if (len == OVERFLOW) {
+                    int length = buf.getInt(p + 2);
+                    int first = buf.getInt(p + 6);
+                    t.deferField(i, () -> {
+                        try {
+                            return OverflowPage.readValue(pid.getTableId(), first, length);
+                        } catch (DbException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    p += 2 + POINTER_SIZE;
+                    continue;
+                }
+                String s = new String(page, p + 2, len);
+                t.setField(i, new StringField(s, Math.max(Type.STRING_LEN, len)));
+                p += 2 + len;
+            } else {
+                t.setField(i, type.parse(page, p));
+                p += type.getLen();
+            }
+        }
+        return t;
+    }
+
+    private void encode(Tuple t, int offset, int[] overflow) {
+        ByteBuffer out = buf.duplicate();
+        out.position(offset);
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (needsOverflow(f)) {
+                out.putShort((short) OVERFLOW);
+                out.putInt(((StringField) f).getValue().length());
+                out.putInt(overflow[i]);
+            } else if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                out.putShort((short) s.length());
+                for (int j = 0; j < s.length(); j++)
+                    out.put((byte) s.charAt(j));
+            } else {
+                f.serialize(out);
+            }
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the lowest empty slot or a
+     * new one, compacting the page first if its record only fits that way.
+     * @throws DbException if the tuple does not fit or tupledesc is
+     *         mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        insertTuple(t, null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, with its long strings already
+     * on overflow pages.
+     * @param overflow for each field kept on overflow pages, the number
+     *        of its first one
+     */
+    void insertTuple(Tuple t, int[] overflow) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("type mismatch, in insertTuple");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needsOverflow(t.getField(i)) && (overflow == null || overflow[i] < 0)) {
+                throw new DbException("field " + i + " is too long to insert without its overflow pages");
+            }
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("The page has no room for the tuple");
+        }
+        writable();
+        int n = entries();
+        int slot = 0;
+        while (slot < n && entryOffset(slot) != 0)
+            slot++;
+        int len = recordLength(t);
+        int need = len + (slot == n ? ENTRY_SIZE : 0);
+        if (need > gap()) {
+            compact();
+        }
+        if (slot == n) {
+            buf.putInt(0, n + 1);
+            if (cache.length <= slot) {
+                cache = Arrays.copyOf(cache, Math.max(8, 2 * cache.length));
+            }
+        }
+        int offset = recordStart() - len;
+        encode(t, offset, overflow);
+        buf.putInt(4, offset);
+        setEntry(slot, offset, len);
+        cache[slot] = null;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page.  Its bytes stay where they
+     * are until the page is compacted, unless they are the lowest record.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tried to delete tuple on invalid page or table");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= entries() || !isSlotUsed(slot)) {
+            throw new DbException("tried to delete null tuple.");
+        }
+        writable();
+        int offset = entryOffset(slot);
+        int len = entryLength(slot);
+        setEntry(slot, 0, 0);
+        cache[slot] = null;
+        Arrays.fill(page, offset, offset + len, (byte) 0);
+        if (offset == recordStart()) {
+            buf.putInt(4, offset + len == page.length ? 0 : offset + len);
+        }
+        // drop empty entries off the end of the directory
+        int n = entries();
+        while (n > 0 && entryOffset(n - 1) == 0)
+            n--;
+        buf.putInt(0, n);
+    }
+
+    /**
+     * Move the records together at the end of the page, so all the free
+     * space is in one piece.  Slot numbers do not change.
+     */
+    public void compact() {
+        writable();
+        int n = entries();
+        Integer[] slots = new Integer[n];
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            if (entryOffset(i) != 0)
+                slots[used++] = i;
+        }
+        // highest record first, so each moves towards the end of the page
+        // over bytes that have already been moved
+        Arrays.sort(slots, 0, used, (a, b) -> entryOffset(b) - entryOffset(a));
+        int end = page.length;
+        for (int i = 0; i < used; i++) {
+            int slot = slots[i];
+            int len = entryLength(slot);
+            end -= len;
+            System.arraycopy(page, entryOffset(slot), page, end, len);
+            setEntry(slot, end, len);
+        }
+        Arrays.fill(page, directoryEnd(), end, (byte) 0);
+        buf.putInt(4, end == page.length ? 0 : end);
+    }
+
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    public void writePageData(ByteBuffer out) {
+        out.put(page);
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        byte[] image;
+        synchronized (beforeLock) {
+            image = before;
+        }
+        // before images are replaced, never changed; the new page copies
+        // the image before it changes it
+        return new SlottedHeapPage(image, pid);
+    }
+
+    public void setBeforeImage() {
+        synchronized (beforeLock) {
+            // shared until the next change
+            before = page;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+
+/**
+ * Instance of Field that stores a point in time, as milliseconds since
+ * 1970-01-01 00:00:00 UTC.  Dates are timestamps at midnight.
+ */
+public class TimestampField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.MILLI_OF_SECOND, 0, 3, true)
+            .optionalEnd()
+            .toFormatter();
+
+    private final long value;
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param v The value of this field, in milliseconds since the epoch.
+     */
+    public TimestampField(long v) {
+        value = v;
+    }
+
+    /**
+     * Parse a date (yyyy-MM-dd) or a timestamp (yyyy-MM-dd HH:mm:ss, with
+     * optional fractional seconds), taken as UTC.
+     *
+     * @throws IllegalArgumentException if text is neither
+     */
+    public static TimestampField parse(String text) {
+        try {
+            if (text.length() <= 10) {
+                return new TimestampField(LocalDate.parse(text)
+                        .atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli());
+            }
+            return new TimestampField(LocalDateTime.parse(text, FORMAT)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("not a date or timestamp: " + text, e);
+        }
+    }
+
+    // midnights print as dates, so dates read back as they were written
+    private static String format(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        if (t.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return t.toLocalDate().toString();
+        }
+        return t.format(FORMAT);
+    }
+
+    public String toString() {
+        return format(value);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof TimestampField)) return false;
+        return ((TimestampField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    public void serialize(ByteBuffer buf) {
+        buf.putLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a TimestampField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        TimestampField other = (TimestampField) val;
+        int c = Long.compare(value, other.value);
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return c == 0;
+            case NOT_EQUALS:
+                return c != 0;
+            case GREATER_THAN:
+                return c > 0;
+            case GREATER_THAN_OR_EQ:
+                return c >= 0;
+            case LESS_THAN:
+                return c < 0;
+            case LESS_THAN_OR_EQ:
+                return c <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.TIMESTAMP_TYPE
+     */
+    public Type getType() {
+        return Type.TIMESTAMP_TYPE;
+    }
+}
@@ -1,9 +1,15 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Supplier;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -17,6 +23,11 @@ public class Tuple implements Serializable {
     private TupleDesc tupleDesc;
     private Field[] fields;
     private RecordId rid;
+    // where the fields not decoded yet are, if the tuple came from a page
+    private transient PageImage source;
+    private transient int sourceOffset;
+    // fields kept elsewhere, loaded the first time they are read
+    private transient List<Supplier<Field>> deferred;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -32,6 +43,57 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a page image the first
+     * time they are read.
+     *
+     * @param td the schema of the tuple
+     * @param data the page image
+     * @param offset where the tuple starts in data
+     */
+    Tuple(TupleDesc td, PageImage data, int offset) {
+        this(td);
+        this.source = data;
+        this.sourceOffset = offset;
+    }
+
+    /** @return true if the tuple is still exactly the bytes at offset in
+        data, so they can be copied instead of its fields serialized */
+    boolean isImageOf(PageImage data, int offset) {
+        return source == data && sourceOffset == offset;
+    }
+
+    /**
+     * Have the ith field loaded by loader the first time it is read, e.g.
+     * a long string from overflow pages, so a tuple whose field is never
+     * read never loads it.
+     */
+    void deferField(int i, Supplier<Field> loader) {
+        if (deferred == null) {
+            deferred = new ArrayList<>(Collections.nCopies(fields.length, null));
+        }
+        deferred.set(i, loader);
+    }
+
+    // decode every field still in the page image, and let go of it
+    private void decodeImage() {
+        if (source != null) {
+            for (int i = 0; i < fields.length; i++)
+                getField(i);
+            source = null;
+        }
+    }
+
+    // decode and load every field
+    private void decodeAll() {
+        decodeImage();
+        if (deferred != null) {
+            for (int i = 0; i < fields.length; i++)
+                getField(i);
+            deferred = null;
+        }
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -67,6 +129,10 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
+       decodeImage();
+       if (deferred != null) {
+           deferred.set(i, null);
+       }
        this.fields[i] = f;
     }
 
@@ -77,7 +143,19 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return this.fields[i];
+        Field f = this.fields[i];
+        if (f == null && source != null) {
+            int offset = sourceOffset;
+            for (int j = 0; j < i; j++)
+                offset += tupleDesc.getFieldType(j).getLen();
+            f = source.parse(tupleDesc.getFieldType(i), offset);
+            this.fields[i] = f;
+        } else if (f == null && deferred != null && deferred.get(i) != null) {
+            f = deferred.get(i).get();
+            this.fields[i] = f;
+            deferred.set(i, null);
+        }
+        return f;
     }
 
     /**
@@ -89,6 +167,7 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
+        decodeAll();
         String s = new String();
         for (Field field: fields) {
             s += field.toString() + ' ';
@@ -104,6 +183,7 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        decodeAll();
         return Arrays.stream(this.fields).iterator();
     }
 
@@ -112,6 +192,12 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
+        decodeImage(); // the page image is laid out by the old one
         this.tupleDesc = td;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
 }
@@ -12,6 +12,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private volatile boolean asyncCommit = false;
 
     public Transaction() {
         tid = new TransactionId();
@@ -31,6 +32,20 @@ public class Transaction {
         return tid;
     }
 
+    /** Choose whether {@link #commit} waits for the commit to reach the
+        disk.  An asynchronous commit returns as soon as its records are in
+        the log buffer and releases its locks; the log is forced in the
+        background within {@link simpledb.storage.LogFile#setAsyncCommitWindow}
+        milliseconds, and a crash before that loses the transaction. */
+    public void setAsyncCommit(boolean async) {
+        asyncCommit = async;
+    }
+
+    /** @return whether {@link #commit} returns before the commit is durable */
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,6 +59,14 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
+        if (started && !abort && asyncCommit) {
+            // log the pages and the commit record, release locks, and let
+            // the log be forced in the background
+            Database.getBufferPool().commitAsync(tid);
+            started = false;
+            return;
+        }
+
         if (started) {
             //write abort log record and rollback transaction
             if (abort) {
@@ -0,0 +1,145 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends TestUtil.TableFileTest {
+
+    // what the parser has to get right: signed ints, text with spaces in
+    // it and around it, and longs past the range of an int
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.LONG_TYPE},
+            new String[]{"offset", "label", "big"});
+
+    private File text;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // named after the table file, so it is deleted with it
+        text = new File(file.getPath() + ".txt");
+        hf = new HeapFile(file, TD);
+        Database.getCatalog().addTable(hf, "bulk");
+    }
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i - 500));
+        t.setField(1, new StringField("name " + i, Type.STRING_LEN));
+        t.setField(2, new LongField(i * 10000000000L));
+        return t;
+    }
+
+    // rows from to to, with a blank line and Windows line endings mixed in
+    private void write(int from, int to) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            for (int i = from; i < to; i++) {
+                out.print((i - 500) + ", name " + i + " ," + i * 10000000000L + (i % 7 == 0 ? "\r\n" : "\n"));
+                if (i == from + 3)
+                    out.print("\n");
+            }
+        }
+    }
+
+    private List<String> scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> rows = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Rows cut across many small chunks all load, in the order of the file,
+     * and an append adds to them.
+     */
+    @Test public void loadAndAppend() throws Exception {
+        write(0, 3000);
+        BulkLoader loader = new BulkLoader(hf, ',', 4, 1000);
+        assertEquals(3000, loader.load(text, false));
+        write(3000, 4000);
+        assertEquals(1000, loader.load(text, true));
+
+        List<String> rows = scan();
+        assertEquals(4000, rows.size());
+        for (int i = 0; i < rows.size(); i++)
+            assertEquals(tuple(i).toString(), rows.get(i));
+
+        // the levels of the loaded pages are on disk, as they would be had
+        // the pages been written through the buffer pool
+        try (FreeSpaceMap onDisk = new FreeSpaceMap(file, hf.numPages())) {
+            for (int p = 0; p < hf.numPages(); p++)
+                assertEquals(hf.getFreeSpaceMap().getLevel(p), onDisk.getLevel(p));
+            assertEquals(FreeSpaceMap.FULL, onDisk.getLevel(0));
+        }
+
+        // the last page of each chunk has room left, and inserts find it
+        int pages = hf.numPages();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(5000));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, hf.numPages());
+
+        // a fresh load replaces what was there
+        write(0, 10);
+        assertEquals(10, loader.load(text, false));
+        assertEquals(10, scan().size());
+    }
+
+    /**
+     * A malformed line fails the load and leaves the table as it was.
+     */
+    @Test public void badLine() throws Exception {
+        write(0, 100);
+        BulkLoader loader = new BulkLoader(hf, ',', 2, 500);
+        loader.load(text, false);
+        int pages = hf.numPages();
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < 1000; i++)
+                out.println(i == 700 ? "1,two" : i + ",x,1");
+        }
+        try {
+            loader.load(text, true);
+            fail("expected the load to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("fields"));
+        }
+        assertEquals(pages, hf.numPages());
+        assertEquals(100, scan().size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.CRC32C;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CRC32CTest {
+
+    /**
+     * The standard check value, and the same result whether bytes are fed
+     * one at a time, in one block, or in blocks of odd sizes.
+     */
+    @Test public void checkValue() {
+        CRC32C crc = new CRC32C();
+        crc.update("123456789".getBytes(StandardCharsets.US_ASCII), 0, 9);
+        assertEquals(0xE3069283L, crc.getValue());
+
+        byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+        crc.reset();
+        crc.update(data, 0, data.length);
+        long whole = crc.getValue();
+
+        crc.reset();
+        for (byte b : data)
+            crc.update(b);
+        assertEquals(whole, crc.getValue());
+
+        crc.reset();
+        crc.update(data, 0, 13);
+        crc.update(data, 13, 500);
+        crc.update(data, 513, data.length - 513);
+        assertEquals(whole, crc.getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CRC32CTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.optimizer.TableStats;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.ColumnPageId;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ColumnFileTest extends TestUtil.TableFileTest {
+
+    // a narrow key, a wide note and a value derived from the key: the
+    // columns fill their pages at very different rates, and a row's fields
+    // can be checked against each other
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.LONG_TYPE},
+            new String[]{"key", "note", "square"});
+
+    private ColumnFile cf;
+    private int[] reads;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        reads = new int[TD.numFields()];
+        // counts the pages of each column read from disk
+        cf = new ColumnFile(file, TD) {
+            public Page readPage(PageId pid) {
+                reads[((ColumnPageId) pid).getColumn()]++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(cf, "columns");
+    }
+
+    private static Tuple tuple(int n) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField("note " + n, Type.STRING_LEN));
+        t.setField(2, new LongField((long) n * n));
+        return t;
+    }
+
+    // the values of a column a page holds: as many slots as a heap page of
+    // a table with just that column has
+    private int slots(int column) {
+        return BufferPool.getPageSize() * 8 / (cf.getColumnDesc(column).getSize() * 8 + 1);
+    }
+
+    private void insert(TransactionId tid, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i));
+    }
+
+    private List<Tuple> scan(TransactionId tid, int[] columns) throws Exception {
+        List<Tuple> found = new ArrayList<>();
+        DbFileIterator it = cf.iterator(tid, columns);
+        it.open();
+        while (it.hasNext())
+            found.add(it.next());
+        it.close();
+        return found;
+    }
+
+    /**
+     * Each column grows at its own pace, and a scan of some columns reads
+     * only their pages, fetching the others' fields when they are used.
+     */
+    @Test public void projectedScan() throws Exception {
+        int rows = 1000;
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, rows);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals((rows + slots(0) - 1) / slots(0), cf.numPages(0));
+        assertEquals((rows + slots(1) - 1) / slots(1), cf.numPages(1));
+        assertTrue(cf.numPages(1) > 10 * cf.numPages(0));
+
+        // the optimizer costs a scan by the pages of the columns it reads
+        TableStats stats = new TableStats(cf.getId(), 1000);
+        assertEquals(1000.0 * (cf.numPages(0) + cf.numPages(2)), stats.estimateScanCost(new int[]{0, 2}), 0);
+        assertEquals(1000.0 * cf.numPages(), stats.estimateScanCost(null), 0);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        long sum = 0;
+        List<Tuple> found = scan(tid, new int[]{0, 2});
+        for (Tuple t : found) {
+            int n = ((IntField) t.getField(0)).getValue();
+            assertEquals((long) n * n, ((LongField) t.getField(2)).getValue());
+            sum += n;
+        }
+        assertEquals(rows, found.size());
+        assertEquals((long) rows * (rows - 1) / 2, sum);
+        assertEquals(cf.numPages(0), reads[0]);
+        assertEquals(0, reads[1]);
+
+        // an unread field is still there when it is asked for
+        Tuple last = found.get(found.size() - 1);
+        assertEquals("note " + (rows - 1), ((StringField) last.getField(1)).getValue());
+        assertEquals(1, reads[1]);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // and after its transaction is over, without locking for it
+        assertEquals("note 0", ((StringField) found.get(0).getField(1)).getValue());
+        assertEquals("NO_LOCK", String.valueOf(Database.getBufferPool().getLockManager()
+                .tidOwnLock(tid, new ColumnPageId(cf.getId(), 1, 0))));
+    }
+
+    /**
+     * Deleted rows are reused, and aborted inserts leave no trace.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 0, 100);
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = cf.numPages();
+
+        tid = new TransactionId();
+        for (Tuple t : scan(tid, null)) {
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        insert(tid, 100, 110);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, cf.numPages());
+        // the free space map of column 0 is written with its pages
+        assertTrue(FreeSpaceMap.fileOf(cf.getColumnFile(0)).exists());
+        assertTrue(cf.getFreeSpaceMap().getLevel(0) > FreeSpaceMap.FULL);
+
+        tid = new TransactionId();
+        insert(tid, 200, 300);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        List<Tuple> found = scan(tid, null);
+        assertEquals(60, found.size());
+        for (Tuple t : found) {
+            int n = ((IntField) t.getField(0)).getValue();
+            assertTrue(n < 200 && (n % 2 == 1 || n >= 100));
+            assertEquals(tuple(n).toString(), t.toString());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
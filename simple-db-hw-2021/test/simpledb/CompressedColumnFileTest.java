@@ -0,0 +1,175 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedColumnFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedColumnFileTest extends TestUtil.TableFileTest {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+            new String[]{"id", "status", "price", "region"});
+    private static final String[] REGIONS = {"north", "south", "east", "west"};
+    private static final int ROWS = 5000;
+
+    private CompressedColumnFile cf;
+    private int[] status = new int[ROWS];
+    private int[] price = new int[ROWS];
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        cf = new CompressedColumnFile(file, TD);
+        Database.getCatalog().addTable(cf, "compressed");
+        Random r = new Random(7);
+        for (int i = 0; i < ROWS; i++) {
+            // long runs of a few values, and a narrow range far from 0
+            status[i] = (i / 700) % 3;
+            price[i] = 100000 + r.nextInt(100);
+        }
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(status[i]));
+        t.setField(2, new IntField(price[i]));
+        t.setField(3, new StringField(REGIONS[i % REGIONS.length], Type.STRING_LEN));
+        return t;
+    }
+
+    private void insert(int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Every column takes far fewer pages than its values would unencoded,
+     * and reads back as written.
+     */
+    @Test public void readBack() throws Exception {
+        insert(0, ROWS);
+        // unencoded, 992 ints or 30 strings fit on a page
+        assertEquals(1, cf.numPages(0));
+        assertEquals(1, cf.numPages(1));
+        assertTrue(cf.numPages(2) <= 2);
+        assertEquals(1, cf.numPages(3));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(tuple(n).toString(), t.toString());
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan tests its predicates on the encoded pages and returns only
+     * the rows that pass all of them.
+     */
+    @Test public void predicates() throws Exception {
+        insert(0, ROWS);
+        int expected = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (status[i] == 2 && price[i] > 100090 && i % REGIONS.length != 1)
+                expected++;
+        }
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "c");
+        scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new IntField(2)));
+        scan.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100090)));
+        scan.addPredicate(new Predicate(3, Predicate.Op.NOT_EQUALS, new StringField("south", Type.STRING_LEN)));
+        scan.open();
+        int found = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(tuple(i).toString(), t.toString());
+            found++;
+        }
+        scan.close();
+        assertTrue(expected > 0);
+        assertEquals(expected, found);
+
+        // a constant outside every value on a page rules the page out
+        scan = new SeqScan(tid, cf.getId(), "c");
+        scan.addPredicate(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(5)));
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted rows stay gone, and rows added after an insert is rolled back
+     * follow on from it.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        insert(0, 1000);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 10 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // enough rows to add a page to the price column alone
+        tid = new TransactionId();
+        for (int i = 1000; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid, false);
+        insert(3000, 3100);
+
+        tid = new TransactionId();
+        it = cf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(i < 1000 ? i % 10 != 0 : i >= 3000);
+            assertEquals(tuple(i).toString(), t.toString());
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(900 + 100, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedColumnFileTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File dir;
+    private File table;
+
+    @Before public void setUp() throws Exception {
+        dir = Files.createTempDirectory("fsm").toFile();
+        table = new File(dir, "table.dat");
+    }
+
+    @After public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * findPage returns the first page at or above a level, skipping full
+     * pages, and sees pages that get room again.
+     */
+    @Test public void findPage() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(table, 0);
+        assertEquals(-1, fsm.findPage(1, 0));
+        fsm.setLevel(0, FreeSpaceMap.FULL);
+        fsm.setLevel(1, 3);
+        fsm.setLevel(2, FreeSpaceMap.FULL);
+        fsm.setLevel(3, 9);
+        assertEquals(1, fsm.findPage(1, 0));
+        assertEquals(3, fsm.findPage(4, 0));
+        assertEquals(3, fsm.findPage(1, 2));
+        assertEquals(-1, fsm.findPage(10, 0));
+
+        fsm.setLevel(1, FreeSpaceMap.FULL);
+        fsm.setLevel(3, FreeSpaceMap.FULL);
+        assertEquals(-1, fsm.findPage(1, 0));
+        fsm.setLevel(0, 1);
+        assertEquals(0, fsm.findPage(1, 0));
+
+        // skipping past the end fills the gap with pages of unknown room
+        fsm.setLevel(6, FreeSpaceMap.FULL);
+        assertEquals(FreeSpaceMap.MAX_LEVEL, fsm.getLevel(5));
+        assertEquals(4, fsm.findPage(1, 1));
+    }
+
+    /**
+     * Written levels survive reopening the map; levels only set in memory,
+     * and entries past the end of the table, do not.
+     */
+    @Test public void reopen() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(table, 4);
+        for (int p = 0; p < 4; p++)
+            fsm.setLevel(p, FreeSpaceMap.FULL);
+        fsm.writeLevel(3, 7); // also writes the entries before it
+        fsm.setLevel(2, 5);
+        fsm.close();
+
+        fsm = new FreeSpaceMap(table, 4);
+        assertEquals(FreeSpaceMap.FULL, fsm.getLevel(0));
+        assertEquals(FreeSpaceMap.FULL, fsm.getLevel(2));
+        assertEquals(7, fsm.getLevel(3));
+        assertEquals(3, fsm.findPage(1, 0));
+        fsm.close();
+
+        // the table lost a page and got a new one with no entry
+        fsm = new FreeSpaceMap(table, 3);
+        assertEquals(-1, fsm.findPage(1, 0));
+        fsm.close();
+        fsm = new FreeSpaceMap(table, 5);
+        assertEquals(FreeSpaceMap.MAX_LEVEL, fsm.getLevel(4));
+        fsm.close();
+    }
+
+    /**
+     * HeapFile inserts go to a page the map says has room, and correct the
+     * map when it is wrong.
+     */
+    @Test public void heapFileInserts() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(table.getPath(), 2);
+        TransactionId tid = new TransactionId();
+        try {
+            Tuple first = null;
+            int perPage = ((HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY)).getNumEmptySlots();
+            for (int i = 0; i < 2 * perPage; i++) {
+                Tuple t = Utility.getHeapTuple(i, 2);
+                Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+                if (i == 0)
+                    first = t;
+            }
+            assertEquals(2, hf.numPages());
+            FreeSpaceMap fsm = hf.getFreeSpaceMap();
+            assertEquals(FreeSpaceMap.FULL, fsm.getLevel(0));
+            assertEquals(-1, fsm.findPage(1, 0));
+
+            // a delete makes room on page 0, which the next insert uses
+            Database.getBufferPool().deleteTuple(tid, first);
+            assertEquals(0, fsm.findPage(1, 0));
+            List<Page> pages = hf.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+            assertEquals(0, pages.get(0).getId().getPageNumber());
+
+            // a stale entry sends the insert to a full page, which it skips
+            fsm.setLevel(0, FreeSpaceMap.MAX_LEVEL);
+            pages = hf.insertTuple(tid, Utility.getHeapTuple(-2, 2));
+            assertEquals(2, pages.get(0).getId().getPageNumber());
+            assertEquals(FreeSpaceMap.FULL, fsm.getLevel(0));
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
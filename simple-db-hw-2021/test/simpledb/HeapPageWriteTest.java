@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -12,6 +14,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.Tuple;
@@ -131,6 +134,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.writePageData(): a page written into a used
+     * buffer, at an offset, has the same bytes as getPageData().
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(pageSize + 3);
+        Arrays.fill(buf.array(), (byte) 0x7F);
+        buf.position(3);
+        page.writePageData(buf);
+        assertEquals(pageSize + 3, buf.position());
+        assertArrayEquals(page.getPageData(), Arrays.copyOfRange(buf.array(), 3, pageSize + 3));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,75 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.LZCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LZCodecTest {
+
+    // compresses src, checks it decompresses back and returns the compressed size
+    private static int roundTrip(byte[] src) throws IOException {
+        byte[] comp = new byte[LZCodec.maxCompressedLength(src.length) + 3];
+        int len = new LZCodec().compress(src, 0, src.length, comp, 3);
+        byte[] out = new byte[src.length];
+        LZCodec.decompress(comp, 3, len, out, 0, src.length);
+        assertArrayEquals(src, out);
+        return len;
+    }
+
+    /**
+     * Empty, tiny, zero-filled, repetitive and random inputs all come back
+     * intact; repetitive ones shrink, random ones barely grow.
+     */
+    @Test public void roundTrips() throws Exception {
+        roundTrip(new byte[0]);
+        roundTrip(new byte[] { 1, 2, 3 });
+        assertTrue(roundTrip(new byte[4096]) < 64);
+
+        byte[] tuples = new byte[4096];
+        for (int i = 0; i < 3000; i++)
+            tuples[i] = (byte) (i % 8 == 3 ? i / 8 : 0);
+        assertTrue(roundTrip(tuples) < 2048);
+
+        byte[] random = new byte[70000];
+        new Random(42).nextBytes(random);
+        assertTrue(roundTrip(random) <= LZCodec.maxCompressedLength(random.length));
+    }
+
+    /**
+     * Truncated or altered input is rejected instead of decoding garbage.
+     */
+    @Test public void corrupt() throws Exception {
+        byte[] src = new byte[1000];
+        Arrays.fill(src, 500, 1000, (byte) 7);
+        byte[] comp = new byte[LZCodec.maxCompressedLength(src.length)];
+        int len = new LZCodec().compress(src, 0, src.length, comp, 0);
+        byte[] out = new byte[src.length];
+        try {
+            LZCodec.decompress(comp, 0, len - 1, out, 0, src.length);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            LZCodec.decompress(comp, 0, len, out, 0, src.length - 1);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LZCodecTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import simpledb.storage.LogBuffer;
+import simpledb.storage.LogSegments;
+import simpledb.storage.LogStore;
+import simpledb.storage.MappedLogSegments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Compares how many log records per second each way of writing the log
+ * can append:
+ *
+ * <ul>
+ * <li> the original path, RandomAccessFile.writeInt/writeLong per field;
+ * <li> LogBuffer over LogSegments (positional FileChannel writes);
+ * <li> LogBuffer over MappedLogSegments (memcpy into mapped segments).
+ * </ul>
+ *
+ * Records are COMMIT-sized (type, transaction id, start LSN) and the log is
+ * forced every forceEvery records, as a stream of small commits sharing
+ * fsyncs would be.  Not a JUnit test; run it with <tt>ant logbenchmark</tt>
+ * or <tt>java simpledb.LogBenchmark [records] [forceEvery]</tt>.
+ */
+public class LogBenchmark {
+
+    private static final int RECORD_SIZE = 4 + 8 + 8;
+    private static final long SEGMENT_SIZE = 16L << 20;
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int forceEvery = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        File dir = Files.createTempDirectory("logbenchmark").toFile();
+        try {
+            System.out.println(records + " records of " + RECORD_SIZE + " bytes, forced every " + forceEvery);
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up the JIT and the file system
+                String label = round == 0 ? "warm-up " : "";
+                report(label + "RandomAccessFile", records, rafPath(new File(dir, "raf" + round), records, forceEvery));
+                report(label + "LogBuffer + FileChannel segments", records,
+                        bufferPath(new LogSegments(new File(dir, "segments" + round), SEGMENT_SIZE), records, forceEvery));
+                report(label + "LogBuffer + mapped segments", records,
+                        bufferPath(new MappedLogSegments(new File(dir, "mapped" + round), SEGMENT_SIZE), records, forceEvery));
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files)
+                    f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void report(String name, int records, long nanos) {
+        System.out.printf("%-45s %,12.0f records/s%n", name, records / (nanos / 1e9));
+    }
+
+    // the pre-buffer LogFile path: one write call per field
+    private static long rafPath(File f, int records, int forceEvery) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                long offset = raf.getFilePointer();
+                raf.writeInt(2);
+                raf.writeLong(i);
+                raf.writeLong(offset);
+                if ((i + 1) % forceEvery == 0)
+                    raf.getChannel().force(true);
+            }
+            raf.getChannel().force(true);
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static long bufferPath(LogSegments segments, int records, int forceEvery) throws IOException {
+        LogBuffer buffer = new LogBuffer((LogStore) segments, 0, LogBuffer.DEFAULT_CAPACITY);
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            long lsn = buffer.reserve(RECORD_SIZE);
+            rec.clear();
+            rec.putInt(2).putLong(i).putLong(lsn);
+            buffer.write(lsn, rec.array(), RECORD_SIZE);
+            if ((i + 1) % forceEvery == 0)
+                buffer.force();
+        }
+        buffer.force();
+        long elapsed = System.nanoTime() - start;
+        segments.reset();
+        return elapsed;
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogBuffer;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LogBufferTest {
+
+    private File file;
+    private RandomAccessFile raf;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("logbuffer", ".log");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    @After public void tearDown() throws Exception {
+        raf.close();
+        file.delete();
+    }
+
+    // a record of len bytes, each byte derived from the record's id
+    private static byte[] record(int id, int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++)
+            data[i] = (byte) (id * 31 + i);
+        return data;
+    }
+
+    /**
+     * Unit test for LogBuffer.reserve(): ranges are handed out back to back.
+     */
+    @Test public void reserve() {
+        LogBuffer buffer = new LogBuffer(raf.getChannel(), 8, 64);
+        assertEquals(8, buffer.reserve(10));
+        assertEquals(18, buffer.reserve(4));
+        assertEquals(22, buffer.getEndLsn());
+        assertEquals(8, buffer.getFlushedLsn());
+    }
+
+    /**
+     * Records written out of reservation order only reach the file once
+     * every earlier range has been filled in.
+     */
+    @Test public void flushesContiguousPrefix() throws Exception {
+        LogBuffer buffer = new LogBuffer(raf.getChannel(), 0, 64);
+        long a = buffer.reserve(8);
+        long b = buffer.reserve(8);
+        buffer.write(b, record(2, 8), 8);
+        assertEquals(0, buffer.getFlushedLsn());
+        buffer.write(a, record(1, 8), 8);
+        buffer.force();
+        assertEquals(16, buffer.getFlushedLsn());
+        assertEquals(16, raf.length());
+
+        byte[] onDisk = new byte[8];
+        raf.seek(b);
+        raf.readFully(onDisk);
+        assertArrayEquals(record(2, 8), onDisk);
+    }
+
+    /**
+     * Many threads appending through a small buffer, including records
+     * larger than the buffer, all land at their reserved offsets.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final LogBuffer buffer = new LogBuffer(raf.getChannel(), 0, 256);
+        final Map<Long, byte[]> written = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        int id = thread * 1000 + i;
+                        int len = (i % 50 == 0) ? 600 : 1 + (id % 40);
+                        byte[] data = record(id, len);
+                        long lsn = buffer.reserve(len);
+                        buffer.write(lsn, data, len);
+                        written.put(lsn, data);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        buffer.force();
+
+        assertEquals(buffer.getEndLsn(), raf.length());
+        ByteBuffer contents = ByteBuffer.allocate((int) raf.length());
+        raf.getChannel().read(contents, 0);
+        for (Map.Entry<Long, byte[]> e : written.entrySet()) {
+            byte[] actual = new byte[e.getValue().length];
+            contents.position(e.getKey().intValue());
+            contents.get(actual);
+            assertArrayEquals(e.getValue(), actual);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
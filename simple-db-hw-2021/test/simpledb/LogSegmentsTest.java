@@ -0,0 +1,150 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogReader;
+import simpledb.storage.LogSegments;
+import simpledb.storage.MappedLogSegments;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class LogSegmentsTest {
+
+    private File dir;
+    private File base;
+
+    @Before public void setUp() throws Exception {
+        dir = Files.createTempDirectory("logsegments").toFile();
+        base = new File(dir, "log");
+    }
+
+    @After public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    // writes n longs, 0 .. n-1, starting at LSN 0
+    private static void writeLongs(LogSegments segments, int n) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(n * 8);
+        for (int i = 0; i < n; i++)
+            buf.putLong(i);
+        buf.flip();
+        segments.write(buf, 0);
+        segments.force();
+    }
+
+    /**
+     * Values written across segment boundaries read back in order, and
+     * reading past the end of the log fails.
+     */
+    @Test public void writeAndRead() throws Exception {
+        LogSegments segments = new LogSegments(base, 100);
+        writeLongs(segments, 100);
+        assertEquals(800, segments.getEndLsn());
+        assertEquals(8, segments.numSegments());
+
+        LogReader in = new LogReader(segments, 0);
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, in.readLong());
+        assertEquals(800, in.getPosition());
+        try {
+            in.readInt();
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        in.seek(96);
+        assertEquals(12, in.readLong());
+        segments.close();
+    }
+
+    /**
+     * Recycling drops only segments wholly below the horizon, and LSNs
+     * above it are unaffected.
+     */
+    @Test public void recycle() throws Exception {
+        LogSegments segments = new LogSegments(base, 100);
+        writeLongs(segments, 100);
+
+        segments.recycleBefore(250);
+        assertEquals(200, segments.getStartLsn());
+        assertEquals(6, segments.numSegments());
+        assertEquals(25, new LogReader(segments, 200).readLong());
+
+        // emptied segments are reused for new ones
+        ByteBuffer more = ByteBuffer.allocate(300);
+        segments.write(more, 800);
+        assertEquals(1100, segments.getEndLsn());
+        assertEquals(9, segments.numSegments());
+        segments.close();
+    }
+
+    /**
+     * Reopening finds the existing segments, and truncation removes a
+     * torn tail.
+     */
+    @Test public void reopenAndTruncate() throws Exception {
+        LogSegments segments = new LogSegments(base, 100);
+        writeLongs(segments, 100);
+        segments.recycleBefore(300);
+        segments.close();
+
+        segments = new LogSegments(base, 100);
+        assertEquals(300, segments.getStartLsn());
+        assertEquals(800, segments.getEndLsn());
+        assertEquals(40, new LogReader(segments, 320).readLong());
+
+        segments.truncate(452);
+        assertEquals(452, segments.getEndLsn());
+        assertEquals(2, segments.numSegments());
+        segments.close();
+    }
+
+    /**
+     * Mapped segments read back like plain ones; segments are pre-allocated,
+     * so after a reopen the log runs on to the end of the last segment,
+     * zero-padded past the last write.
+     */
+    @Test public void mapped() throws Exception {
+        LogSegments segments = new MappedLogSegments(base, 100);
+        writeLongs(segments, 30);
+        assertEquals(240, segments.getEndLsn());
+        assertEquals(3, segments.numSegments());
+        assertEquals(12, new LogReader(segments, 96).readLong());
+        segments.close();
+
+        segments = new MappedLogSegments(base, 100);
+        assertEquals(300, segments.getEndLsn());
+        LogReader in = new LogReader(segments, 232);
+        assertEquals(29, in.readLong());
+        assertEquals(0, in.readLong());
+
+        segments.truncate(240);
+        ByteBuffer more = ByteBuffer.allocate(8);
+        more.putLong(30).flip();
+        segments.write(more, 240);
+        assertEquals(30, new LogReader(segments, 240).readLong());
+        segments.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
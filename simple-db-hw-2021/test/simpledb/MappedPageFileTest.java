@@ -0,0 +1,143 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.MappedPageFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedPageFileTest extends TestUtil.TableFileTest {
+
+    private static final int PAGE = 4096;
+
+    private static byte[] page(int n) {
+        byte[] data = new byte[PAGE];
+        Arrays.fill(data, (byte) n);
+        return data;
+    }
+
+    /**
+     * Mapped views see writes, including those that grow the file, and
+     * there is no view past the end of the file.
+     */
+    @Test public void remapOnGrowth() throws Exception {
+        try (MappedPageFile pf = new MappedPageFile(file)) {
+            pf.append(page(1));
+            ByteBuffer view = pf.map(0, PAGE);
+            assertEquals(1, view.get(0));
+            assertNull(pf.map(PAGE, PAGE));
+
+            pf.write(0, page(2));
+            assertEquals(2, view.get(0));
+
+            pf.append(page(3));
+            view = pf.map(PAGE, PAGE);
+            assertNotNull(view);
+            assertEquals(3, view.get(PAGE - 1));
+
+            byte[] dst = new byte[PAGE];
+            assertEquals(PAGE, pf.read(PAGE, dst));
+            assertArrayEquals(page(3), dst);
+            // a short read falls back to the channel
+            assertEquals(PAGE, pf.read(PAGE, new byte[2 * PAGE]));
+        }
+    }
+
+    /**
+     * A mapped heap file reads back what was inserted into it.
+     */
+    @Test public void heapFileScan() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, "mapped");
+        assertTrue(hf.isMapped());
+        TransactionId tid = new TransactionId();
+        int rows = 1200; // three pages
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, count);
+        assertEquals((long) rows * (rows - 1) / 2, sum);
+    }
+
+    /**
+     * Tuples decoded in place from a mapping keep their values when their
+     * page is written over, and when the file is cut short.
+     */
+    @Test public void imagesOutliveWrites() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, "mapped");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1200; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        List<Tuple> read = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            read.add(it.next()); // no field is decoded yet
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete rows through tuples of their own, zeroing their slots on
+        // disk under the tuples read above
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() < 100) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        hf.getPageFile().truncate(PAGE);
+
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(i, ((IntField) read.get(i).getField(0)).getValue());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedPageFileTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.DoubleHistogram;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DoubleField;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.TimestampField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NumericTypesTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.TIMESTAMP_TYPE},
+            new String[]{"g", "l", "d", "t"});
+
+    private static Tuple tuple(int g, long l, double d, String t) {
+        Tuple tup = new Tuple(TD);
+        tup.setField(0, new IntField(g));
+        tup.setField(1, new LongField(l));
+        tup.setField(2, new DoubleField(d));
+        tup.setField(3, TimestampField.parse(t));
+        return tup;
+    }
+
+    /**
+     * Each type reads back the bytes it writes, and text the way it prints.
+     */
+    @Test public void serialization() throws Exception {
+        Field[] fields = {
+                new LongField(Long.MIN_VALUE + 3), new DoubleField(-2.5e300),
+                TimestampField.parse("2021-03-14 15:09:26.5"), TimestampField.parse("1969-07-20")};
+        for (Field f : fields) {
+            assertEquals(8, f.getType().getLen());
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            f.serialize(buf);
+            assertEquals(f, f.getType().parse(buf.array(), 0));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(bytes));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            assertEquals(f, f.getType().parse(in));
+
+            assertEquals(f, f.getType().parse(f.toString()));
+        }
+        assertEquals("1969-07-20", fields[3].toString());
+        assertTrue(fields[2].compare(Predicate.Op.GREATER_THAN, fields[3]));
+        assertTrue(new DoubleField(1.5).compare(Predicate.Op.LESS_THAN, new DoubleField(2)));
+        assertEquals(Type.TIMESTAMP_TYPE, Type.forName("date"));
+    }
+
+    /**
+     * HeapFileEncoder writes the new types, and a scan reads them back.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("numeric", ".txt");
+        File data = File.createTempFile("numeric", ".dat");
+        text.deleteOnExit();
+        HeapFile.deleteOnExit(data);
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            out.println("1,10000000000,0.25,2021-01-01");
+            out.println("2,-5,1e10,2021-01-01 12:30:00");
+        }
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 4,
+                new Type[]{Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.TIMESTAMP_TYPE});
+        HeapFile hf = new HeapFile(data, TD);
+        Database.getCatalog().addTable(hf, "numeric");
+
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId());
+        scan.open();
+        assertTrue(TestUtil.compareTuples(tuple(1, 10000000000L, 0.25, "2021-01-01"), scan.next()));
+        assertTrue(TestUtil.compareTuples(tuple(2, -5, 1e10, "2021-01-01 12:30:00"), scan.next()));
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
+    /**
+     * Aggregates over the new types keep their type, except counts.
+     */
+    @Test public void aggregates() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        tuples.add(tuple(1, 3000000000L, 1.5, "2021-01-01"));
+        tuples.add(tuple(1, 4000000000L, 2.0, "2021-01-03"));
+        tuples.add(tuple(2, -7, -1.0, "2020-12-31 23:59:59"));
+
+        assertAggregate(tuples, 1, Aggregator.Op.SUM, new LongField(7000000000L), new LongField(-7));
+        assertAggregate(tuples, 2, Aggregator.Op.AVG, new DoubleField(1.75), new DoubleField(-1.0));
+        assertAggregate(tuples, 3, Aggregator.Op.MAX,
+                TimestampField.parse("2021-01-03"), TimestampField.parse("2020-12-31 23:59:59"));
+        assertAggregate(tuples, 3, Aggregator.Op.AVG,
+                TimestampField.parse("2021-01-02"), TimestampField.parse("2020-12-31 23:59:59"));
+        assertAggregate(tuples, 2, Aggregator.Op.COUNT, new IntField(2), new IntField(1));
+        assertAggregate(tuples, 1, Aggregator.Op.MIN, new LongField(3000000000L), new LongField(-7));
+    }
+
+    private static void assertAggregate(List<Tuple> tuples, int afield, Aggregator.Op op,
+                                        Field group1, Field group2) throws Exception {
+        TupleIterator child = new TupleIterator(TD, tuples);
+        OpIterator agg = new Aggregate(child, afield, 0, op);
+        assertEquals(Aggregate.resultType(TD.getFieldType(afield), op), agg.getTupleDesc().getFieldType(1));
+        agg.open();
+        int found = 0;
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            int g = ((IntField) t.getField(0)).getValue();
+            assertEquals(g == 1 ? group1 : group2, t.getField(1));
+            found++;
+        }
+        agg.close();
+        assertEquals(2, found);
+    }
+
+    /**
+     * A histogram over doubles estimates ranges and equality.
+     */
+    @Test public void histogram() {
+        DoubleHistogram h = new DoubleHistogram(100, 0, 1000);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(i + 0.5);
+        }
+        assertEquals(0.25, h.estimateSelectivity(Predicate.Op.LESS_THAN, 250), 0.01);
+        assertEquals(0.9, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 100), 0.01);
+        assertEquals(0.001, h.estimateSelectivity(Predicate.Op.EQUALS, 10.5), 0.0001);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.EQUALS, 2000), 0);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.LESS_THAN, 2000), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericTypesTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageCodecs;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+
+    @Before public void addTable() {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static PageId roundTrip(PageId pid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PageCodecs.writeId(new DataOutputStream(bytes), pid);
+        return PageCodecs.readId(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Heap and B+ tree page ids come back equal to what was written.
+     */
+    @Test public void ids() throws Exception {
+        assertEquals(new HeapPageId(7, 12), roundTrip(new HeapPageId(7, 12)));
+        for (int categ = BTreePageId.ROOT_PTR; categ <= BTreePageId.HEADER; categ++) {
+            PageId pid = new BTreePageId(-3, 40000, categ);
+            assertEquals(pid, roundTrip(pid));
+        }
+    }
+
+    /**
+     * Pages are rebuilt with the right class and contents from their tag.
+     */
+    @Test public void pages() throws Exception {
+        HeapPageId hpid = new HeapPageId(-1, 2);
+        byte[] heapData = HeapPage.createEmptyPageData();
+        Page heap = PageCodecs.decode(PageCodecs.pageTag(HeapPage.class), hpid, heapData);
+        assertTrue(heap instanceof HeapPage);
+        assertEquals(hpid, heap.getId());
+        assertArrayEquals(heapData, heap.getPageData());
+
+        BTreePageId rpid = BTreeRootPtrPage.getId(1);
+        Page root = PageCodecs.decode(PageCodecs.BTREE_ROOT_PTR_PAGE, rpid,
+                BTreeRootPtrPageTest.EXAMPLE_DATA);
+        assertTrue(root instanceof BTreeRootPtrPage);
+        assertEquals(1, ((BTreeRootPtrPage) root).getRootId().getPageNumber());
+    }
+
+    /**
+     * Unknown tags are reported as corrupt input, and tags cannot be
+     * registered twice.
+     */
+    @Test public void unknownTags() throws Exception {
+        try {
+            PageCodecs.decode(200, new HeapPageId(-1, 1), HeapPage.createEmptyPageData());
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            PageCodecs.readId(new DataInputStream(new ByteArrayInputStream(new byte[] { (byte) 200 })));
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            PageCodecs.registerPage(PageCodecs.HEAP_PAGE, HeapPage.class,
+                    (pid, data) -> new HeapPage((HeapPageId) pid, data));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
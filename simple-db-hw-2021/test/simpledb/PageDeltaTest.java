@@ -0,0 +1,89 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.PageDelta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PageDeltaTest {
+
+    private static byte[] page(int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++)
+            data[i] = (byte) i;
+        return data;
+    }
+
+    /**
+     * Unit test for PageDelta.diff(): identical images produce no ranges,
+     * distant changes produce separate ranges and nearby ones are merged.
+     */
+    @Test public void diff() {
+        byte[] oldData = page(4096);
+        assertEquals(0, PageDelta.diff(oldData, oldData.clone()).numRanges());
+
+        byte[] newData = oldData.clone();
+        newData[0] = 42;
+        newData[3] = 42;
+        newData[2000] = 42;
+        PageDelta delta = PageDelta.diff(oldData, newData);
+        assertEquals(2, delta.numRanges());
+        assertTrue(delta.getEncodedSize() < 64);
+    }
+
+    /**
+     * Redo turns the old image into the new one, undo turns it back, and
+     * applying either twice changes nothing.
+     */
+    @Test public void redoUndo() {
+        byte[] oldData = page(4096);
+        byte[] newData = oldData.clone();
+        for (int i = 100; i < 200; i++)
+            newData[i] = 7;
+        newData[4095] = 7;
+        PageDelta delta = PageDelta.diff(oldData, newData);
+
+        byte[] data = oldData.clone();
+        delta.redo(data);
+        delta.redo(data);
+        assertArrayEquals(newData, data);
+        delta.undo(data);
+        delta.undo(data);
+        assertArrayEquals(oldData, data);
+    }
+
+    /**
+     * A delta read back from its serialized form has the same effect.
+     */
+    @Test public void serialize() throws Exception {
+        byte[] oldData = page(4096);
+        byte[] newData = oldData.clone();
+        newData[10] = 1;
+        newData[3000] = 1;
+        PageDelta delta = PageDelta.diff(oldData, newData);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.writeTo(new DataOutputStream(bytes));
+        assertEquals(delta.getEncodedSize(), bytes.size());
+
+        PageDelta read = PageDelta.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        byte[] data = oldData.clone();
+        read.redo(data);
+        assertArrayEquals(newData, data);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
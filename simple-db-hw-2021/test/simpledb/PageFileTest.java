@@ -0,0 +1,119 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.PageFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PageFileTest {
+
+    private static final int PAGE = 4096;
+
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("pagefile", ".dat");
+    }
+
+    @After public void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] page(int n) {
+        byte[] data = new byte[PAGE];
+        Arrays.fill(data, (byte) n);
+        return data;
+    }
+
+    /**
+     * Writes grow the cached size; reads stop at the end of the file.
+     */
+    @Test public void readWrite() throws Exception {
+        try (PageFile pf = new PageFile(file)) {
+            assertEquals(0, pf.size());
+            pf.write(PAGE, page(1));
+            assertEquals(2 * PAGE, pf.size());
+            assertEquals(2 * PAGE, pf.append(page(2)));
+            assertEquals(3 * PAGE, pf.size());
+
+            byte[] dst = new byte[PAGE];
+            assertEquals(PAGE, pf.read(PAGE, dst));
+            assertArrayEquals(page(1), dst);
+            assertEquals(PAGE, pf.read(0, dst));
+            assertArrayEquals(page(0), dst);
+
+            dst = new byte[2 * PAGE];
+            assertEquals(PAGE, pf.read(2 * PAGE, dst));
+            assertEquals(0, pf.read(3 * PAGE, dst));
+        }
+    }
+
+    /**
+     * Growth through another handle shows after a refresh.
+     */
+    @Test public void refresh() throws Exception {
+        try (PageFile pf = new PageFile(file)) {
+            pf.append(page(1));
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(page(2));
+            }
+            assertEquals(PAGE, pf.size());
+            assertEquals(2 * PAGE, pf.refreshSize());
+            assertEquals(2 * PAGE, pf.size());
+        }
+    }
+
+    /**
+     * Threads reading different pages at once each get their own page.
+     */
+    @Test public void concurrentReads() throws Exception {
+        final int pages = 64;
+        try (PageFile pf = new PageFile(file)) {
+            for (int i = 0; i < pages; i++)
+                pf.write((long) i * PAGE, page(i));
+
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                Thread thread = new Thread(() -> {
+                    byte[] dst = new byte[PAGE];
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = offset; i < pages; i += 8) {
+                                pf.read((long) i * PAGE, dst);
+                                assertArrayEquals(page(i), dst);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            assertNull(failure.get());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileTest.class);
+    }
+}
@@ -0,0 +1,265 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.SlottedHeapPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends TestUtil.TableFileTest {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = new HeapFile(file, TD, false, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private static Tuple tuple(int n, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    // fill the page with tuples whose strings are n long, returning them
+    private static List<Tuple> fill(HeapPage page, int first, int n) {
+        List<Tuple> added = new ArrayList<>();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            s.append('x');
+        try {
+            for (int i = first; ; i++) {
+                Tuple t = tuple(i, s.toString());
+                page.insertTuple(t);
+                added.add(t);
+            }
+        } catch (DbException e) {
+            return added;
+        }
+    }
+
+    /**
+     * Short strings take only their own bytes, so many more tuples fit than
+     * in fixed 132-byte slots, and the page reads back what was written.
+     */
+    @Test public void shortStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> added = fill(page, 0, 4);
+        int fixedSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(added.size() > 8 * fixedSlots);
+        assertEquals(0, page.getNumEmptySlots());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (Tuple t : added) {
+            Tuple read = it.next();
+            assertEquals(t.toString(), read.toString());
+            assertEquals(t.getRecordId(), read.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused by compacting the page, and the
+     * tuples that stay keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> added = fill(page, 0, 10);
+        Map<RecordId, String> kept = new HashMap<>();
+        for (int i = 0; i < added.size(); i++) {
+            Tuple t = added.get(i);
+            if (i % 2 == 0)
+                page.deleteTuple(t);
+            else
+                kept.put(t.getRecordId(), t.toString());
+        }
+        int free = page.getFreeSpace();
+
+        // longer records only fit in the holes once they are joined up
+        List<Tuple> more = fill(page, 1000, 30);
+        assertFalse(more.isEmpty());
+        assertTrue(page.getFreeSpace() < free);
+
+        page.compact();
+        int found = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            String old = kept.get(t.getRecordId());
+            if (old != null) {
+                assertEquals(old, t.toString());
+                found++;
+            }
+        }
+        assertEquals(kept.size(), found);
+
+        Tuple last = added.get(1);
+        page.deleteTuple(last);
+        try {
+            page.deleteTuple(last);
+            fail("deleted an empty slot");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The before image is the page as it was read, then as of the last
+     * setBeforeImage, whatever is done to the page or to the image.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        assertEquals(0, values(page.getBeforeImage()).size());
+
+        page.setBeforeImage();
+        Tuple two = tuple(2, "two");
+        page.insertTuple(two);
+        SlottedHeapPage before = page.getBeforeImage();
+        assertEquals(1, values(before).size());
+        before.insertTuple(tuple(3, "three"));
+        before.compact();
+
+        page.deleteTuple(two);
+        page.compact();
+        List<String> expected = new ArrayList<>();
+        expected.add("one");
+        assertEquals(expected, values(page.getBeforeImage()));
+        assertEquals(expected, values(page));
+    }
+
+    // the strings on a page, in slot order
+    private static List<String> values(SlottedHeapPage page) {
+        List<String> values = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            values.add(((StringField) it.next().getField(1)).getValue());
+        return values;
+    }
+
+    /**
+     * A slotted table is written and scanned through the buffer pool, on
+     * fewer pages than a fixed-size one would take.
+     */
+    @Test public void heapFileScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "row" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int fixedSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(hf.numPages() < rows / fixedSlots / 4);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int n = ((IntField) t.getField(0)).getValue();
+            assertEquals("row" + n, ((StringField) t.getField(1)).getValue());
+            sum += n;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, count);
+        assertEquals((long) rows * (rows - 1) / 2, sum);
+    }
+
+    /**
+     * Strings too long for a row go to overflow pages, which are read only
+     * when their field is.
+     */
+    @Test public void overflowValues() throws Exception {
+        int len = 3 * BufferPool.getPageSize() + 17;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; i++)
+            sb.append((char) ('a' + i % 26));
+        String big = sb.toString();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = tuple(i, big.substring(i));
+            t.setField(1, new StringField(big.substring(i), len));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, hf.numPages());
+        assertTrue(hf.getOverflowFile().length() >= 9L * BufferPool.getPageSize());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int n = ((IntField) t.getField(0)).getValue();
+            assertEquals(big.substring(n), ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // with the overflow pages gone, only reading the long field fails
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.getOverflowPageFile().truncate(0);
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        Tuple last = null;
+        while (it.hasNext()) {
+            last = it.next();
+            last.getField(0);
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, count);
+        try {
+            last.getField(1);
+            fail("read a value whose overflow pages are gone");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -3,12 +3,16 @@ package simpledb;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
 
+import org.junit.After;
+import org.junit.Before;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -377,7 +381,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -392,4 +396,27 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * JUnit fixture that gives each test a new file to keep a table in, and
+     * deletes it afterward along with the files named after it: column
+     * files, free space maps and overflow pages.
+     */
+    public static abstract class TableFileTest extends SimpleDbTestBase {
+        protected File file;
+
+        @Before public void createTableFile() throws IOException {
+            file = File.createTempFile("table", ".dat");
+        }
+
+        @After public void deleteTableFiles() {
+            File[] next = file.getAbsoluteFile().getParentFile()
+                    .listFiles((dir, name) -> name.startsWith(file.getName() + "."));
+            if (next != null) {
+                for (File f : next)
+                    f.delete();
+            }
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HotBackup;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test online backups and restoring them to a point.
+ */
+public class HotBackupTest extends SimpleDbTestBase {
+    private File file1;
+    private File file2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private File dir;
+
+    private void insertRow(HeapFile hf, Transaction t, int v)
+            throws DbException, TransactionAbortedException {
+        Tuple value = new Tuple(Utility.getTupleDesc(2));
+        value.setField(0, new IntField(v));
+        value.setField(1, new IntField(0));
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Collections.singletonList(value)), hf.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private void commitRow(HeapFile hf, int v)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf, t, v);
+        t.commit();
+    }
+
+    private boolean present(HeapFile hf, int v)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        boolean found = false;
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            found |= ((IntField) scan.next().getField(0)).getValue() == v;
+        }
+        scan.close();
+        t.commit();
+        return found;
+    }
+
+    // lose the database, then restore it and recover
+    private void restore(long stopLsn, long stopMillis) throws IOException {
+        file1.delete();
+        file2.delete();
+        if (stopMillis == Long.MAX_VALUE) {
+            HotBackup.restore(dir, new File("log"), stopLsn);
+        } else {
+            HotBackup.restoreToTime(dir, new File("log"), stopMillis);
+        }
+        Database.reset(); // reopens the log
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().recover();
+    }
+
+    @Before public void setUp() throws IOException {
+        Database.reset();
+        file1 = new File("backup1.db");
+        file1.delete();
+        file2 = new File("backup2.db");
+        file2.delete();
+        hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
+        hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
+        dir = Files.createTempDirectory("backup").toFile();
+    }
+
+    @After public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+        for (File f : new File[] { file1, file2 }) {
+            HeapFile.delete(f);
+        }
+    }
+
+    /**
+     * A backup taken while one transaction has an uncommitted change on
+     * disk (which it later aborts) restores to the latest archived state,
+     * or to a point in time between two later commits.
+     */
+    @Test public void restoreToPoint()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        commitRow(hf1, 1);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 2);
+        Database.getBufferPool().flushAllPages(); // the copy sees T1's row
+
+        HotBackup backup = HotBackup.start(dir);
+        long consistent = backup.getConsistentLsn();
+        t1.transactionComplete(true);
+        commitRow(hf2, 3);
+        backup.archiveLog();
+        Thread.sleep(10);
+        long between = System.currentTimeMillis();
+        Thread.sleep(10);
+        commitRow(hf2, 4);
+        assertTrue(backup.archiveLog() > consistent);
+        backup.close();
+
+        restore(Long.MAX_VALUE, Long.MAX_VALUE);
+        assertTrue(present(hf1, 1));
+        assertFalse(present(hf1, 2));
+        assertTrue(present(hf2, 3));
+        assertTrue(present(hf2, 4));
+
+        restore(Long.MAX_VALUE, between);
+        assertTrue(present(hf1, 1));
+        assertFalse(present(hf1, 2));
+        assertTrue(present(hf2, 3));
+        assertFalse(present(hf2, 4));
+    }
+
+    /**
+     * Restoring to a point before the backup finished is refused.
+     */
+    @Test public void restoreBeforeConsistent() throws IOException, DbException, TransactionAbortedException {
+        commitRow(hf1, 1);
+        HotBackup backup = HotBackup.start(dir);
+        backup.close();
+        try {
+            HotBackup.restore(dir, new File("log"), backup.getCheckpointLsn() - 1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HotBackupTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HotBackup;
+import simpledb.storage.IntField;
+import simpledb.storage.LogReplica;
+import simpledb.storage.LogSegments;
+import simpledb.storage.LogShipper;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test a replica following the log of a primary.  Both run in this JVM,
+ * on tables of their own, talking over a local socket.
+ */
+public class LogReplicaTest extends SimpleDbTestBase {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private File primaryFile;
+    private File replicaFile;
+    private File wal;
+    private File dir;
+    private HeapFile primary;
+    private HeapFile replica;
+
+    private void insertRow(HeapFile hf, Transaction t, int v)
+            throws DbException, TransactionAbortedException {
+        Tuple value = new Tuple(Utility.getTupleDesc(2));
+        value.setField(0, new IntField(v));
+        value.setField(1, new IntField(0));
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Collections.singletonList(value)), hf.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private void commitRow(HeapFile hf, int v)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf, t, v);
+        t.commit();
+    }
+
+    // retried while the replica holds the page to apply a change
+    private boolean present(HeapFile hf, int v) throws DbException, IOException {
+        while (true) {
+            Transaction t = new Transaction();
+            t.start();
+            try {
+                boolean found = false;
+                SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+                scan.open();
+                while (scan.hasNext()) {
+                    found |= ((IntField) scan.next().getField(0)).getValue() == v;
+                }
+                scan.close();
+                t.commit();
+                return found;
+            } catch (TransactionAbortedException e) {
+                t.abort();
+            }
+        }
+    }
+
+    private void awaitPresent(HeapFile hf, int v) throws DbException, IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!present(hf, v)) {
+            assertTrue("replica did not catch up", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Before public void setUp() throws IOException {
+        Database.reset();
+        primaryFile = new File("primary1.db");
+        replicaFile = new File("replica1.db");
+        wal = new File("replica.wal");
+        primary = Utility.createEmptyHeapFile(primaryFile.getAbsolutePath(), 2);
+        dir = Files.createTempDirectory("replica").toFile();
+    }
+
+    @After public void tearDown() throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+        LogSegments segments = new LogSegments(wal, LogSegments.DEFAULT_SEGMENT_SIZE);
+        segments.reset();
+        segments.close();
+        wal.delete();
+        for (File f : new File[] { primaryFile, replicaFile }) {
+            HeapFile.delete(f);
+        }
+    }
+
+    /**
+     * A replica seeded while a transaction is open on the primary shows
+     * that transaction's change once it commits, never shows aborted
+     * changes, and reports no lag once it has caught up.
+     */
+    @Test public void followPrimary()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        commitRow(primary, 1);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(primary, t1, 2);
+        Database.getBufferPool().flushAllPages(); // on disk, uncommitted
+
+        HotBackup backup = HotBackup.start(dir);
+        replica = Utility.createEmptyHeapFile(replicaFile.getAbsolutePath(), 2);
+        LogShipper shipper = new LogShipper(Database.getLogFile(), 0);
+        LogReplica follower = LogReplica.start(dir, wal,
+                Collections.singletonMap(primary.getId(), replica.getId()), "localhost", shipper.getPort());
+        backup.close();
+        try {
+            assertTrue(present(replica, 1));
+            assertFalse(present(replica, 2));
+
+            t1.commit();
+            awaitPresent(replica, 2);
+
+            Transaction t3 = new Transaction();
+            t3.start();
+            insertRow(primary, t3, 3);
+            Database.getBufferPool().flushAllPages();
+            t3.abort();
+            commitRow(primary, 4);
+            awaitPresent(replica, 4);
+            assertFalse(present(replica, 3));
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (follower.getLagBytes() > 0) {
+                assertTrue("replica did not catch up", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+            assertEquals(0, follower.getLagMillis());
+            assertNull(follower.getFailure());
+        } finally {
+            follower.close();
+            shipper.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogReplicaTest.class);
+    }
+}
@@ -127,9 +127,9 @@ public class LogTest extends SimpleDbTestBase {
         // empty heap files w/ 2 columns.
         // adds to the catalog.
         file1 = new File("simple1.db");
-        file1.delete();
+        HeapFile.delete(file1);
         file2 = new File("simple2.db");
-        file2.delete();
+        HeapFile.delete(file2);
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }
@@ -436,6 +436,409 @@ public class LogTest extends SimpleDbTestBase {
     }
 
 
+    @Test public void TestCommitUnwrittenCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts, its page is logged and it commits, but the page
+        // never reaches the table file before the crash
+        // recovery should redo T1's change
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        Page p = Database.getBufferPool().getPage(t1.getId(),
+                                                  new HeapPageId(hf1.getId(), 0),
+                                                  Permissions.READ_ONLY);
+        Database.getLogFile().logWrite(t1.getId(), p.getBeforeImage(), p);
+        Database.getLogFile().logCommit(t1.getId());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestParallelRedoCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, 4);
+
+        // *** Test:
+        // T1 changes pages of both tables several times, each change is
+        // logged and T1 commits, but no page reaches its file
+        // redo on several threads must replay every change in order
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        HeapPageId pid1 = new HeapPageId(hf1.getId(), 0);
+        HeapPageId pid2 = new HeapPageId(hf2.getId(), 0);
+        for (int i = 0; i < 5; i++) {
+            insertRow(hf1, t1, 10 + i);
+            insertRow(hf2, t1, 20 + i);
+            Page p1 = Database.getBufferPool().getPage(t1.getId(), pid1, Permissions.READ_ONLY);
+            Page p2 = Database.getBufferPool().getPage(t1.getId(), pid2, Permissions.READ_ONLY);
+            Database.getLogFile().logWrite(t1.getId(), p1.getBeforeImage(), p1);
+            Database.getLogFile().logWrite(t1.getId(), p2.getBeforeImage(), p2);
+            p1.setBeforeImage();
+            p2.setBeforeImage();
+        }
+        Database.getLogFile().logCommit(t1.getId());
+
+        int redoThreads = LogFile.getRedoThreads();
+        LogFile.setRedoThreads(4);
+        try {
+            crash();
+        } finally {
+            LogFile.setRedoThreads(redoThreads);
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf2, t, 3, true);
+        for (int i = 0; i < 5; i++) {
+            look(hf1, t, 10 + i, true);
+            look(hf2, t, 20 + i, true);
+        }
+        t.commit();
+    }
+
+    @Test public void TestBackgroundWriterCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // a background writer round writes T1's page and checkpoints
+        // T2 inserts and commits
+        // crash
+        // only T2 data should be there
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 5);
+        HeapPage xp1 = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+
+        BackgroundWriter writer = new BackgroundWriter(1, 10, 0);
+        assertTrue(writer.runOnce());
+        assertEquals(0, Database.getBufferPool().flushDirtyPages(10));
+        HeapPage xp2 = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        assertEquals(xp1.getNumEmptySlots() - 1, xp2.getNumEmptySlots());
+
+        doInsert(hf2, 6, 7);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 5, false);
+        look(hf2, t, 6, true);
+        look(hf2, t, 7, true);
+        t.commit();
+    }
+
+    @Test public void TestOpenCrashCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // crash
+        // T2 inserts into the slot T1 used and commits
+        // crash
+        // the second recovery must not undo T1 again
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        doInsert(hf1, 4, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, true);
+        t.commit();
+    }
+
+    @Test public void TestInterleavedLosersCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 and T2 interleave inserts around a checkpoint and never
+        // commit
+        // crash
+        // recovery follows each loser's chain back through the checkpoint
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t1, 3);
+        insertRow(hf2, t2, 30);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf1, t1, 4);
+        insertRow(hf2, t2, 32);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, false);
+        look(hf2, t, 30, false);
+        look(hf2, t, 32, false);
+        t.commit();
+    }
+
+    @Test public void TestMixedCompressionAbortCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts and commits with uncompressed log records
+        // T2 logs one change uncompressed and one compressed, then aborts;
+        // rollback must undo across both kinds of record
+        // T3 logs a compressed change and never commits
+        // crash
+        // recovery must read both kinds of record
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        LogFile.setCompression(false);
+        try {
+            doInsert(hf1, 3, -1);
+            insertRow(hf1, t2, 4);
+            Database.getBufferPool().flushAllPages();
+        } finally {
+            LogFile.setCompression(true);
+        }
+        insertRow(hf1, t2, 5);
+        abort(t2);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf1, t3, 6);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        look(hf1, t, 5, false);
+        look(hf1, t, 6, false);
+        t.commit();
+    }
+
+    @Test public void TestTornTailCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a crash leaves a record at the end of the log whose length is
+        // plausible but whose contents were never fully written
+        // recovery must stop before it
+        // T1 then commits a change that only reaches the log
+        // crash
+        // recovery must find T1's records after the cut
+
+        File[] segments = new File(".").listFiles((dir, name) -> name.matches("log\\.[0-9a-f]{16}"));
+        assertNotNull(segments);
+        Arrays.sort(segments);
+        try (RandomAccessFile tail = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            tail.seek(tail.length());
+            tail.writeInt(64);
+            tail.writeInt(0x12345678);
+            tail.write(new byte[56]);
+        }
+
+        crash();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        Page p = Database.getBufferPool().getPage(t1.getId(),
+                                                  new HeapPageId(hf1.getId(), 0),
+                                                  Permissions.READ_ONLY);
+        Database.getLogFile().logWrite(t1.getId(), p.getBeforeImage(), p);
+        Database.getLogFile().logCommit(t1.getId());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestAsyncCommitAbortCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits asynchronously: its page is logged but not written
+        // the background flusher makes T1 durable
+        // T2 changes the same page and aborts; the page must go back to
+        // T1's version, not to the older one in the file
+        // crash
+        // recovery must redo T1 from the log
+
+        Transaction t1 = new Transaction();
+        t1.setAsyncCommit(true);
+        t1.start();
+        insertRow(hf1, t1, 3);
+        t1.commit();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Database.getLogFile().getPendingAsyncCommits() > 0 && System.currentTimeMillis() < deadline)
+            Thread.yield();
+        assertEquals(0, Database.getLogFile().getPendingAsyncCommits());
+        assertEquals(0, Database.getLogFile().getAsyncCommitLagMillis());
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 4);
+        t2.abort();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
+    @Test public void TestBulkLoadCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, 4);
+
+        // *** Test:
+        // T1 and T2 commit rows whose updates are logged
+        // a fresh bulk load replaces the rows of the first table
+        // crash
+        // recovery must not replay T1's updates over the loaded pages
+
+        File text = File.createTempFile("load", ".txt");
+        try {
+            try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+                out.println("10,0");
+                out.println("11,0");
+            }
+            assertEquals(2, new BulkLoader(hf1, ',', 2).load(text, false));
+        } finally {
+            text.delete();
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, false);
+        look(hf1, t, 2, false);
+        look(hf1, t, 10, true);
+        look(hf1, t, 11, true);
+        look(hf2, t, 3, true);
+        look(hf2, t, 4, true);
+        t.commit();
+    }
+
+    // the bytes of the log file and its segments
+    private static Map<String, byte[]> logFiles() throws IOException {
+        Map<String, byte[]> files = new TreeMap<>();
+        File[] all = new File(".").listFiles();
+        for (File f : all == null ? new File[0] : all) {
+            if (f.getName().equals("log") || f.getName().startsWith("log.")) {
+                files.put(f.getName(), java.nio.file.Files.readAllBytes(f.toPath()));
+            }
+        }
+        return files;
+    }
+
+    @Test public void TestBulkLoadOffline()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 commits rows whose updates are logged
+        // restart, without recovering yet
+        // fresh bulk loads into a file that is not in the catalog
+        // the log must be as it was, and recovery must still find T1
+
+        Database.reset();
+        Map<String, byte[]> before = logFiles();
+        File text = File.createTempFile("load", ".txt");
+        File table = File.createTempFile("load", ".dat");
+        try {
+            try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+                out.println("10,0");
+                out.println("11,0");
+            }
+            HeapFile loaded = new HeapFile(table, Utility.getTupleDesc(2));
+            assertEquals(2, new BulkLoader(loaded, ',', 2).load(text, false));
+            assertEquals(2, new BulkLoader(loaded, ',', 2).load(text, false));
+            assertEquals(2, BulkLoader.offline(loaded, ',', 2).load(text, false));
+        } finally {
+            text.delete();
+            HeapFile.delete(table);
+        }
+        Map<String, byte[]> after = logFiles();
+        assertEquals(before.keySet(), after.keySet());
+        for (String name : before.keySet())
+            assertArrayEquals(name, before.get(name), after.get(name));
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);